@@ -0,0 +1,23 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.IOException;
+
+import jakarta.servlet.jsp.JspException;
+import jakarta.servlet.jsp.tagext.SimpleTagSupport;
+
+/**
+ * The tag of the tag library jars of {@link SyntheticWebapp}.
+ */
+public class EchoTag extends SimpleTagSupport {
+
+  private String value;
+
+  public void setValue(String value) {
+    this.value = value;
+  }
+
+  @Override
+  public void doTag() throws JspException, IOException {
+    getJspContext().getOut().write(value);
+  }
+}
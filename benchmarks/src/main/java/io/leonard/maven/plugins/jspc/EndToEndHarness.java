@@ -0,0 +1,388 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Runs {@link JspcMojo} on a {@link SyntheticWebapp} for each compiler class and
+ * each number of threads, and compares the wall time, the throughput and the
+ * peak heap with a baseline.
+ * <p>
+ * Each run has a JVM of its own, so that the peak heap is the one of the run
+ * and that no run benefits from the classes loaded and compiled by the previous
+ * ones. The mojo is configured with the default values of its plugin.xml, as
+ * Maven would do it.
+ * <p>
+ * Options, all optional:
+ * <ul>
+ * <li>--dir: working directory, target/end-to-end</li>
+ * <li>--jsps, --include-depth, --tag-files, --tld-jars, --page-kb: shape of the
+ * webapp, 1000, 3, 10, 5, 10</li>
+ * <li>--threads: comma separated values of the threads parameter, 1,4</li>
+ * <li>--compilers: comma separated compiler classes, short names are in
+ * org.apache.jasper.compiler, JDTCompiler,ParallelJDTCompiler</li>
+ * <li>--param: another parameter of the mojo, such as sourcesInMemory=true,
+ * may be repeated</li>
+ * <li>--heap: maximum heap of each run, 2g</li>
+ * <li>--baseline: results of a previous run to compare with, the run fails if
+ * a wall time or a peak heap is more than --tolerance above it, 0.1 by
+ * default</li>
+ * <li>--save-baseline: write the results to the baseline file instead of
+ * comparing them</li>
+ * </ul>
+ * The results are written to results.csv in the working directory.
+ */
+public class EndToEndHarness {
+
+  private static final String RESULT = "RESULT";
+  private static final String HEADER = "compiler,threads,jsps,wallMillis,pagesPerSecond,peakHeapMb";
+
+  private final Map<String, List<String>> options;
+
+  EndToEndHarness(Map<String, List<String>> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    EndToEndHarness harness = new EndToEndHarness(parseOptions(args));
+    if (harness.options.containsKey("run")) {
+      harness.runOnce();
+      return;
+    }
+    if (!harness.runAll()) {
+      System.exit(1);
+    }
+  }
+
+  static Map<String, List<String>> parseOptions(String[] args) {
+    Map<String, List<String>> options = new LinkedHashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Unexpected argument " + args[i]);
+      }
+      String name = args[i].substring(2);
+      boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+      options.computeIfAbsent(name, key -> new ArrayList<>()).add(flag ? "true" : args[++i]);
+    }
+    return options;
+  }
+
+  private String getOption(String name, String defaultValue) {
+    List<String> values = options.get(name);
+    return values == null ? defaultValue : values.get(values.size() - 1);
+  }
+
+  private boolean runAll() throws Exception {
+    Path dir = Paths.get(getOption("dir", "target/end-to-end")).toAbsolutePath();
+    SyntheticWebapp webapp = new SyntheticWebapp(Integer.parseInt(getOption("jsps", "1000")),
+        Integer.parseInt(getOption("include-depth", "3")), Integer.parseInt(getOption("tag-files", "10")),
+        Integer.parseInt(getOption("tld-jars", "5")), Integer.parseInt(getOption("page-kb", "10")));
+    Path webappDir = dir.resolve("src/main/webapp");
+    FileUtils.deleteDirectory(dir.toFile());
+    webapp.generate(webappDir);
+    System.out.println("Generated " + webapp.getJsps() + " jsps in " + webappDir);
+
+    List<String> results = new ArrayList<>();
+    results.add(HEADER);
+    for (String compiler : getOption("compilers", "JDTCompiler,ParallelJDTCompiler").split(",")) {
+      String compilerClass = compiler.contains(".") ? compiler.trim() : "org.apache.jasper.compiler." + compiler.trim();
+      for (String threads : getOption("threads", "1,4").split(",")) {
+        String result = fork(dir, compilerClass, threads.trim());
+        String[] values = result.split(" ");
+        long wallMillis = Long.parseLong(values[1]);
+        long peakHeapMb = Long.parseLong(values[2]) / (1024 * 1024);
+        long pagesPerSecond = wallMillis == 0 ? 0 : webapp.getJsps() * 1000L / wallMillis;
+        results.add(compilerClass + "," + threads.trim() + "," + webapp.getJsps() + "," + wallMillis + ","
+            + pagesPerSecond + "," + peakHeapMb);
+        System.out.println(String.format(Locale.ROOT, "%-45s threads=%-5s %8d ms %6d pages/s %6d MB peak heap",
+            compilerClass, threads.trim(), wallMillis, pagesPerSecond, peakHeapMb));
+      }
+    }
+    Files.write(dir.resolve("results.csv"), results, StandardCharsets.UTF_8);
+
+    String baseline = getOption("baseline", null);
+    if (baseline == null) {
+      return true;
+    }
+    Path baselineFile = Paths.get(baseline);
+    if (options.containsKey("save-baseline")) {
+      Files.write(baselineFile, results, StandardCharsets.UTF_8);
+      System.out.println("Baseline saved to " + baselineFile);
+      return true;
+    }
+    return compare(Files.readAllLines(baselineFile, StandardCharsets.UTF_8), results,
+        Double.parseDouble(getOption("tolerance", "0.1")));
+  }
+
+  /**
+   * @return false if a wall time or a peak heap regressed
+   */
+  static boolean compare(List<String> baseline, List<String> results, double tolerance) {
+    Map<String, String[]> baselineRuns = new LinkedHashMap<>();
+    for (String line : baseline.subList(1, baseline.size())) {
+      String[] values = line.split(",");
+      baselineRuns.put(values[0] + "," + values[1] + "," + values[2], values);
+    }
+    boolean success = true;
+    for (String line : results.subList(1, results.size())) {
+      String[] values = line.split(",");
+      String run = values[0] + "," + values[1] + "," + values[2];
+      String[] reference = baselineRuns.get(run);
+      if (reference == null) {
+        System.out.println("No baseline for " + run);
+        continue;
+      }
+      success &= isWithinTolerance(run, "wall time", Long.parseLong(values[3]), Long.parseLong(reference[3]),
+          tolerance);
+      success &= isWithinTolerance(run, "peak heap", Long.parseLong(values[5]), Long.parseLong(reference[5]),
+          tolerance);
+    }
+    System.out.println(success ? "No regression" : "Regression against the baseline");
+    return success;
+  }
+
+  private static boolean isWithinTolerance(String run, String metric, long value, long reference,
+      double tolerance) {
+    if (value <= reference * (1 + tolerance)) {
+      return true;
+    }
+    System.out.println("REGRESSION " + run + ": " + metric + " " + value + " instead of " + reference);
+    return false;
+  }
+
+  private String fork(Path dir, String compilerClass, String threads) throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>(Arrays.asList(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-Xmx" + getOption("heap", "2g"),
+        "-cp", System.getProperty("java.class.path"), EndToEndHarness.class.getName(), "--run", dir.toString(),
+        "--compiler", compilerClass, "--threads", threads));
+    for (String param : options.getOrDefault("param", Collections.emptyList())) {
+      command.add("--param");
+      command.add(param);
+    }
+    if (options.containsKey("verbose")) {
+      command.add("--verbose");
+    }
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    String result = null;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(RESULT + " ")) {
+          result = line;
+        } else if (options.containsKey("verbose")) {
+          System.out.println(line);
+        }
+      }
+    }
+    if (process.waitFor() != 0 || result == null) {
+      throw new IllegalStateException("The run of " + compilerClass + " with threads=" + threads
+          + " failed, run again with --verbose");
+    }
+    return result;
+  }
+
+  /**
+   * Runs the mojo once in this JVM and prints the wall time and the peak heap.
+   */
+  private void runOnce() throws Exception {
+    File basedir = new File(getOption("run", null));
+    FileUtils.deleteDirectory(new File(basedir, "target"));
+
+    JspcMojo mojo = new JspcMojo();
+    MavenProject project = new MavenProject();
+    project.setFile(new File(basedir, "pom.xml"));
+    project.setArtifacts(Collections.emptySet());
+    setDefaultValues(mojo, basedir);
+    setField(mojo, "project", project);
+    setField(mojo, "compilerClass", getOption("compiler", null));
+    setField(mojo, "threads", getOption("threads", "1"));
+    for (String param : options.getOrDefault("param", Collections.emptyList())) {
+      int equals = param.indexOf('=');
+      setField(mojo, param.substring(0, equals), param.substring(equals + 1));
+    }
+    if (!options.containsKey("verbose")) {
+      mojo.setLog(new QuietLog());
+    }
+
+    HeapSampler heapSampler = new HeapSampler();
+    heapSampler.start();
+    long start = System.nanoTime();
+    try {
+      mojo.execute();
+    } finally {
+      heapSampler.interrupt();
+    }
+    long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    heapSampler.join();
+    System.out.println(RESULT + " " + wallMillis + " " + heapSampler.getPeakHeap());
+  }
+
+  /**
+   * Set the default values of the parameters, read from the plugin.xml of the
+   * plugin.
+   */
+  private static void setDefaultValues(JspcMojo mojo, File basedir) throws Exception {
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("${project.build.outputDirectory}", new File(basedir, "target/classes").getPath());
+    properties.put("${project.build.directory}", new File(basedir, "target").getPath());
+    properties.put("${project.basedir}", basedir.getPath());
+    properties.put("${basedir}", basedir.getPath());
+    for (Map.Entry<String, String> parameter : readDefaultValues().entrySet()) {
+      String value = parameter.getValue();
+      if (value.equals("${project}")) {
+        continue;
+      }
+      for (Map.Entry<String, String> property : properties.entrySet()) {
+        value = value.replace(property.getKey(), property.getValue());
+      }
+      setField(mojo, parameter.getKey(), value);
+    }
+  }
+
+  private static Map<String, String> readDefaultValues() throws Exception {
+    Enumeration<URL> pluginXmls = JspcMojo.class.getClassLoader().getResources("META-INF/maven/plugin.xml");
+    while (pluginXmls.hasMoreElements()) {
+      Document document;
+      try (InputStream in = pluginXmls.nextElement().openStream()) {
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+      }
+      NodeList mojos = document.getElementsByTagName("mojo");
+      for (int i = 0; i < mojos.getLength(); i++) {
+        Element mojo = (Element) mojos.item(i);
+        if (!JspcMojo.class.getName().equals(getChildText(mojo, "implementation"))) {
+          continue;
+        }
+        Map<String, String> defaultValues = new LinkedHashMap<>();
+        NodeList configuration = ((Element) mojo.getElementsByTagName("configuration").item(0)).getChildNodes();
+        for (int j = 0; j < configuration.getLength(); j++) {
+          Node parameter = configuration.item(j);
+          if (parameter instanceof Element && ((Element) parameter).hasAttribute("default-value")) {
+            defaultValues.put(parameter.getNodeName(), ((Element) parameter).getAttribute("default-value"));
+          }
+        }
+        return defaultValues;
+      }
+    }
+    throw new IllegalStateException("No plugin.xml describing " + JspcMojo.class.getName());
+  }
+
+  private static String getChildText(Element element, String name) {
+    NodeList children = element.getChildNodes();
+    for (int i = 0; i < children.getLength(); i++) {
+      if (name.equals(children.item(i).getNodeName())) {
+        return children.item(i).getTextContent().trim();
+      }
+    }
+    return null;
+  }
+
+  private static void setField(JspcMojo mojo, String name, Object value) throws Exception {
+    Field field = JspcMojo.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(mojo, value instanceof String ? convert((String) value, field.getType()) : value);
+  }
+
+  private static Object convert(String value, Class<?> type) {
+    if (type == boolean.class || type == Boolean.class) {
+      return Boolean.valueOf(value);
+    } else if (type == int.class || type == Integer.class) {
+      return Integer.valueOf(value);
+    } else if (type == File.class) {
+      return new File(value);
+    } else if (type == String[].class) {
+      String[] values = value.split(",");
+      for (int i = 0; i < values.length; i++) {
+        values[i] = values[i].trim();
+      }
+      return values;
+    }
+    return value;
+  }
+
+  /**
+   * The peak of the used heap, sampled every few milliseconds: the peaks of the
+   * memory pools are not reached at the same time, their sum is meaningless.
+   */
+  private static class HeapSampler extends Thread {
+
+    private static final long PERIOD_MILLIS = 5;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private volatile long peakHeap;
+
+    HeapSampler() {
+      super("heap-sampler");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          sample();
+          Thread.sleep(PERIOD_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        // the run is over
+      }
+      sample();
+    }
+
+    private void sample() {
+      peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+    }
+
+    long getPeakHeap() {
+      return peakHeap;
+    }
+  }
+
+  /**
+   * Only the warnings and the errors of the mojo.
+   */
+  private static class QuietLog extends SystemStreamLog {
+
+    @Override
+    public void info(CharSequence content) {
+    }
+
+    @Override
+    public void info(CharSequence content, Throwable error) {
+    }
+
+    @Override
+    public void info(Throwable error) {
+    }
+  }
+}
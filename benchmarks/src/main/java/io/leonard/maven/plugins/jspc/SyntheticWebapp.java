@@ -0,0 +1,148 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a webapp of any size for {@link EndToEndHarness}:
+ * <ul>
+ * <li>jsps, a hundred per directory, each about pageKb kilobytes of template
+ * text, scriptlets and expressions</li>
+ * <li>a chain of static includes, includeDepth deep, at the top of every
+ * jsp</li>
+ * <li>tag files in WEB-INF/tags, each jsp uses one of them</li>
+ * <li>tag library jars in WEB-INF/lib, each one with a TLD of its own, each jsp
+ * uses one of them</li>
+ * </ul>
+ * The same parameters always generate the same webapp.
+ */
+public class SyntheticWebapp {
+
+  private static final int JSPS_PER_DIRECTORY = 100;
+  private static final int INCLUDE_VARIANTS = 10;
+
+  private final int jsps;
+  private final int includeDepth;
+  private final int tagFiles;
+  private final int tldJars;
+  private final int pageKb;
+
+  /**
+   * @param jsps         number of jsps
+   * @param includeDepth number of nested static includes of each jsp, 0 for none
+   * @param tagFiles     number of tag files, 0 for none
+   * @param tldJars      number of tag library jars, 0 for none
+   * @param pageKb       approximate size of each jsp, in kilobytes
+   */
+  public SyntheticWebapp(int jsps, int includeDepth, int tagFiles, int tldJars, int pageKb) {
+    this.jsps = jsps;
+    this.includeDepth = includeDepth;
+    this.tagFiles = tagFiles;
+    this.tldJars = tldJars;
+    this.pageKb = pageKb;
+  }
+
+  public int getJsps() {
+    return jsps;
+  }
+
+  /**
+   * @param webapp the webapp root, created if needed
+   */
+  public void generate(Path webapp) throws IOException {
+    Path webInf = Files.createDirectories(webapp.resolve("WEB-INF"));
+    write(webInf.resolve("web.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<web-app xmlns=\"https://jakarta.ee/xml/ns/jakartaee\" version=\"6.0\">\n</web-app>\n");
+    for (int tag = 0; tag < tagFiles; tag++) {
+      write(webInf.resolve("tags/tag" + tag + ".tag"), "<%@ attribute name=\"value\" required=\"true\" %>\n"
+          + "<span class=\"tag" + tag + "\">${value}</span>\n");
+    }
+    for (int jar = 0; jar < tldJars; jar++) {
+      writeTldJar(webInf.resolve("lib/taglib" + jar + ".jar"), jar);
+    }
+    for (int depth = 1; depth <= includeDepth; depth++) {
+      for (int variant = 0; variant < INCLUDE_VARIANTS; variant++) {
+        StringBuilder include = new StringBuilder();
+        if (depth < includeDepth) {
+          include.append("<%@ include file=\"/WEB-INF/includes/d").append(depth + 1).append("/inc").append(variant)
+              .append(".jspf\" %>\n");
+        }
+        include.append("<div class=\"d").append(depth).append("\">${param.d").append(depth).append("}</div>\n");
+        write(webInf.resolve("includes/d" + depth + "/inc" + variant + ".jspf"), include.toString());
+      }
+    }
+    for (int jsp = 0; jsp < jsps; jsp++) {
+      write(webapp.resolve("jsp/dir" + jsp / JSPS_PER_DIRECTORY + "/page" + jsp + ".jsp"), newJsp(jsp));
+    }
+  }
+
+  private String newJsp(int index) {
+    StringBuilder jsp = new StringBuilder(pageKb * 1024 + 512);
+    jsp.append("<%@ page contentType=\"text/html; charset=UTF-8\" import=\"java.util.*\" %>\n");
+    if (tagFiles > 0) {
+      jsp.append("<%@ taglib prefix=\"t\" tagdir=\"/WEB-INF/tags\" %>\n");
+    }
+    if (tldJars > 0) {
+      jsp.append("<%@ taglib prefix=\"l\" uri=\"").append(getTaglibUri(index % tldJars)).append("\" %>\n");
+    }
+    if (includeDepth > 0) {
+      jsp.append("<%@ include file=\"/WEB-INF/includes/d1/inc").append(index % INCLUDE_VARIANTS)
+          .append(".jspf\" %>\n");
+    }
+    jsp.append("<html><body>\n<h1>Page ").append(index).append("</h1>\n");
+    jsp.append("<% List<String> items = new ArrayList<>(); %>\n");
+    int row = 0;
+    do {
+      jsp.append("<% items.add(\"item").append(row).append("\"); %>\n");
+      jsp.append("<p class=\"row").append(row % 2).append("\">${param.name} <%= items.size() %> Lorem ipsum dolor")
+          .append(" sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore.</p>\n");
+      if (tagFiles > 0 && row % 10 == 0) {
+        jsp.append("<t:tag").append(index % tagFiles).append(" value=\"${param.name}\"/>\n");
+      }
+      if (tldJars > 0 && row % 10 == 5) {
+        jsp.append("<l:echo value=\"row ").append(row).append("\"/>\n");
+      }
+      row++;
+    } while (jsp.length() < pageKb * 1024);
+    jsp.append("</body></html>\n");
+    return jsp.toString();
+  }
+
+  private static String getTaglibUri(int jar) {
+    return "http://bench.jspc/taglib" + jar;
+  }
+
+  /**
+   * The tag class is {@link EchoTag}, found on the classpath of the harness.
+   */
+  private static void writeTldJar(Path file, int jar) throws IOException {
+    Files.createDirectories(file.getParent());
+    String tld = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<taglib xmlns=\"https://jakarta.ee/xml/ns/jakartaee\" version=\"3.0\">\n"
+        + "  <tlib-version>1.0</tlib-version>\n  <short-name>taglib" + jar + "</short-name>\n"
+        + "  <uri>" + getTaglibUri(jar) + "</uri>\n"
+        + "  <tag>\n    <name>echo</name>\n    <tag-class>" + EchoTag.class.getName() + "</tag-class>\n"
+        + "    <body-content>empty</body-content>\n"
+        + "    <attribute>\n      <name>value</name>\n      <required>true</required>\n"
+        + "      <rtexprvalue>true</rtexprvalue>\n    </attribute>\n  </tag>\n</taglib>\n";
+    try (OutputStream out = Files.newOutputStream(file); ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry("META-INF/taglib" + jar + ".tld"));
+      zip.write(tld.getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    File parent = file.getParent().toFile();
+    if (!parent.exists()) {
+      parent.mkdirs();
+    }
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
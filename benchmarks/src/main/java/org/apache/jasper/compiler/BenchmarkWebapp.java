@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import io.leonard.maven.plugins.jspc.JspCContextAccessor;
+import org.apache.jasper.JspCompilationContext;
+
+/**
+ * A generated webapp, compiled once by Jasper so that the benchmarks find the
+ * generated servlets on the disk, and the options of the compilers under test.
+ * <p>
+ * The classpath holds a number of generated jars, each one with a few packages
+ * of classes, which the jsps import so that the compilers have to look into
+ * them. The compilers of the plugin share a {@link ClassFileCache} and a
+ * {@link ClasspathIndex}, as they do when run by the mojo.
+ */
+public class BenchmarkWebapp extends JspCContextAccessor {
+
+	static final int PACKAGES_PER_JAR = 5;
+	static final int CLASSES_PER_PACKAGE = 20;
+
+	/** Packages imported by each jsp, at most one per jar */
+	private static final int IMPORTED_PACKAGES = 10;
+
+	private final Path root;
+	private final List<String> jspUris = new ArrayList<>();
+	private final List<File> jars = new ArrayList<>();
+
+	/**
+	 * @param compilerClass compiler to benchmark
+	 * @param jspCount      number of jsps of the webapp
+	 * @param jarCount      number of jars of the classpath
+	 */
+	public BenchmarkWebapp(String compilerClass, int jspCount, int jarCount) throws Exception {
+		root = Files.createTempDirectory("jspc-benchmark");
+		Path webapp = Files.createDirectories(root.resolve("webapp"));
+		Path lib = Files.createDirectories(root.resolve("lib"));
+		Path classes = Files.createDirectories(root.resolve("classes"));
+		for (int jar = 0; jar < jarCount; jar++) {
+			jars.add(writeJar(lib.resolve("lib" + jar + ".jar"), jar));
+		}
+		Files.createDirectories(webapp.resolve("WEB-INF"));
+		Files.write(webapp.resolve("WEB-INF/web.xml"),
+				("<web-app xmlns=\"https://jakarta.ee/xml/ns/jakartaee\" version=\"6.0\"></web-app>")
+						.getBytes(StandardCharsets.UTF_8));
+		for (int jsp = 0; jsp < jspCount; jsp++) {
+			String jspUri = "/page" + jsp + ".jsp";
+			Files.write(webapp.resolve(jspUri.substring(1)), newJsp(jsp, jarCount).getBytes(StandardCharsets.UTF_8));
+			jspUris.add(jspUri);
+		}
+
+		StringBuilder classPath = new StringBuilder();
+		List<URL> urls = new ArrayList<>();
+		for (File jar : jars) {
+			classPath.append(jar.getAbsolutePath()).append(File.pathSeparator);
+			urls.add(jar.toURI().toURL());
+		}
+		setUriroot(webapp.toString());
+		setOutputDir(classes.toString());
+		setClassPath(classPath.toString());
+		setPackage("jsp");
+		setCompile(true);
+		setSmapSuppressed(true);
+		setFailOnError(true);
+		setThreadCount("1");
+		setcompilerClass(compilerClass);
+		setResourcesCache(new ClassFileCache(10000));
+		setClasspathIndex(ClasspathIndex.build(urls));
+		setJspFiles(String.join(",", jspUris));
+
+		// generates the servlets the benchmarks compile again
+		execute();
+	}
+
+	public List<String> getJspUris() {
+		return jspUris;
+	}
+
+	/**
+	 * @return names of classes of the generated jars
+	 */
+	public List<String> getClassNames() {
+		List<String> classNames = new ArrayList<>();
+		for (int jar = 0; jar < jars.size(); jar++) {
+			for (int pkg = 0; pkg < PACKAGES_PER_JAR; pkg++) {
+				for (int type = 0; type < CLASSES_PER_PACKAGE; type++) {
+					classNames.add(getPackageName(jar, pkg) + ".Type" + type);
+				}
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * @return a compiler for the jsp, as {@link org.apache.jasper.JspC} creates it,
+	 *         ready for {@link Compiler#generateClass(java.util.Map)}
+	 */
+	public Compiler newCompiler(String jspUri) throws Exception {
+		JspCompilationContext clctxt = new JspCompilationContext(jspUri, this, context, null, rctxt);
+		clctxt.setBasePackageName("jsp");
+		clctxt.setClassLoader(loader);
+		clctxt.setClassPath(getClassPath());
+		// done by generateJava(), the class loader of the jsp needs it
+		clctxt.checkOutputDir();
+		Compiler compiler = clctxt.createCompiler();
+		compiler.errDispatcher = new ErrorDispatcher(true);
+		return compiler;
+	}
+
+	public void delete() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	static String getPackageName(int jar, int pkg) {
+		return "bench.lib" + jar + ".pkg" + pkg;
+	}
+
+	private static File writeJar(Path file, int jar) throws IOException {
+		byte[] classBytes = readClassBytes();
+		try (OutputStream out = Files.newOutputStream(file); ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int pkg = 0; pkg < PACKAGES_PER_JAR; pkg++) {
+				String directory = getPackageName(jar, pkg).replace('.', '/') + "/";
+				zip.putNextEntry(new ZipEntry(directory));
+				zip.closeEntry();
+				for (int type = 0; type < CLASSES_PER_PACKAGE; type++) {
+					zip.putNextEntry(new ZipEntry(directory + "Type" + type + ".class"));
+					zip.write(classBytes);
+					zip.closeEntry();
+				}
+			}
+		}
+		return file.toFile();
+	}
+
+	/**
+	 * The classes of the jars are never loaded, only read by the compilers, so
+	 * they all get the bytes of the same small class.
+	 */
+	private static byte[] readClassBytes() throws IOException {
+		try (InputStream in = Filler.class.getResourceAsStream("BenchmarkWebapp$Filler.class")) {
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * A page with template text, scriptlets and expressions, which imports
+	 * packages of the generated jars.
+	 */
+	private static String newJsp(int index, int jarCount) {
+		StringBuilder jsp = new StringBuilder();
+		jsp.append("<%@ page contentType=\"text/html; charset=UTF-8\" import=\"java.util.*");
+		for (int jar = 0; jar < Math.min(jarCount, IMPORTED_PACKAGES); jar++) {
+			jsp.append(',').append(getPackageName(jar, index % PACKAGES_PER_JAR)).append(".*");
+		}
+		jsp.append("\" %>\n<html><body>\n<h1>Page ").append(index).append("</h1>\n");
+		jsp.append("<% List<String> items = new ArrayList<>(); %>\n");
+		for (int row = 0; row < 50; row++) {
+			jsp.append("<% items.add(\"item").append(row).append("\"); %>\n");
+			jsp.append("<p class=\"row").append(row % 2).append("\">${param.name} <%= items.size() %></p>\n");
+		}
+		jsp.append("</body></html>\n");
+		return jsp.toString();
+	}
+
+	private static final class Filler {
+	}
+}
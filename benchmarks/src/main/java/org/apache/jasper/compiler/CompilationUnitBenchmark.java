@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jasper.JspCompilationContext;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads a generated servlet as JDT does it through the compilation unit of
+ * {@link ParallelJDTCompiler}, which is what sourcesInMemory saves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilationUnitBenchmark {
+
+	private static final Log log = LogFactory.getLog(CompilationUnitBenchmark.class);
+
+	@State(Scope.Benchmark)
+	public static class Webapp {
+
+		BenchmarkWebapp webapp;
+		List<ParallelJDTCompiler.CompilationUnit> units = new ArrayList<>();
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			webapp = new BenchmarkWebapp(ParallelJDTCompiler.class.getName(), 20, 0);
+			for (String jspUri : webapp.getJspUris()) {
+				JspCompilationContext ctxt = webapp.newCompiler(jspUri).ctxt;
+				units.add(new ParallelJDTCompiler.CompilationUnit(ctxt.getServletJavaFileName(),
+						ctxt.getServletPackageName() + "." + ctxt.getServletClassName(), "UTF-8", null, log));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			webapp.delete();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Units {
+
+		private int next;
+
+		ParallelJDTCompiler.CompilationUnit next(Webapp webapp) {
+			next = (next + 1) % webapp.units.size();
+			return webapp.units.get(next);
+		}
+	}
+
+	@Benchmark
+	public char[] getContents(Webapp webapp, Units units) {
+		return units.next(webapp).getContents();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiles the generated servlet of a jsp, from its .java file to its class
+ * files, with each of the compilers. The jsps are taken in turn so that the
+ * class files cached by the compilers of the plugin are those of the
+ * classpath, not those of the servlet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerateClassBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Webapp {
+
+		@Param({ "org.apache.jasper.compiler.JDTCompiler", "org.apache.jasper.compiler.JspcMojoJDTCompiler",
+				"org.apache.jasper.compiler.ParallelJDTCompiler" })
+		public String compilerClass;
+
+		@Param({ "10", "100" })
+		public int jars;
+
+		BenchmarkWebapp webapp;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			webapp = new BenchmarkWebapp(compilerClass, 20, jars);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			webapp.delete();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Jsps {
+
+		private List<String> jspUris;
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp(Webapp webapp) {
+			jspUris = webapp.webapp.getJspUris();
+			next = (int) (Thread.currentThread().getId() % jspUris.size());
+		}
+
+		String next() {
+			next = (next + 1) % jspUris.size();
+			return jspUris.get(next);
+		}
+	}
+
+	@Benchmark
+	public Compiler generateClass(Webapp webapp, Jsps jsps) throws Exception {
+		Compiler compiler = webapp.webapp.newCompiler(jsps.next());
+		compiler.generateClass(null);
+		return compiler;
+	}
+}
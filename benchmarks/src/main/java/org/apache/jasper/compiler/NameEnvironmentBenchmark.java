@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lookups JDT does while it compiles a servlet, against the name
+ * environment of {@link ParallelJDTCompiler}: the name environments of
+ * {@link JDTCompiler} and {@link JspcMojoJDTCompiler} are local classes of
+ * their generateClass(), they are measured by {@link GenerateClassBenchmark}.
+ * <p>
+ * Each thread has a name environment of its own, as each compiler does, and
+ * they all share the cache and the index of the webapp.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameEnvironmentBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Webapp {
+
+		@Param({ "10", "100" })
+		public int jars;
+
+		BenchmarkWebapp webapp;
+		char[][][] classNames;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			webapp = new BenchmarkWebapp(ParallelJDTCompiler.class.getName(), 1, jars);
+			List<String> names = webapp.getClassNames();
+			classNames = new char[names.size()][][];
+			for (int i = 0; i < classNames.length; i++) {
+				classNames[i] = toCompoundName(names.get(i));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			webapp.delete();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Environment {
+
+		INameEnvironment env;
+		char[][][] classNames;
+		char[][][] importedPackages;
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp(Webapp webapp) throws Exception {
+			ParallelJDTCompiler compiler = (ParallelJDTCompiler) webapp.webapp
+					.newCompiler(webapp.webapp.getJspUris().get(0));
+			env = compiler.new NameEnvironment(Collections.emptyMap());
+			classNames = webapp.classNames;
+			importedPackages = new char[webapp.jars][][];
+			for (int jar = 0; jar < webapp.jars; jar++) {
+				importedPackages[jar] = toCompoundName(BenchmarkWebapp.getPackageName(jar, 0));
+			}
+		}
+
+		int next(int size) {
+			next = (next + 1) % size;
+			return next;
+		}
+	}
+
+	/**
+	 * A class of the classpath, found in one of the jars.
+	 */
+	@Benchmark
+	public NameEnvironmentAnswer findTypeInJar(Environment environment) {
+		return environment.env.findType(environment.classNames[environment.next(environment.classNames.length)]);
+	}
+
+	/**
+	 * A simple name looked up in a package imported on demand, where it does not
+	 * exist, as JDT does for every type of java.lang used by a jsp importing
+	 * packages.
+	 */
+	@Benchmark
+	public NameEnvironmentAnswer findTypeMissing(Environment environment) {
+		return environment.env.findType("String".toCharArray(),
+				environment.importedPackages[environment.next(environment.importedPackages.length)]);
+	}
+
+	/**
+	 * A package of the classpath.
+	 */
+	@Benchmark
+	public boolean isPackage(Environment environment) {
+		char[][] pkg = environment.importedPackages[environment.next(environment.importedPackages.length)];
+		return environment.env.isPackage(new char[][] { pkg[0], pkg[1] }, pkg[2]);
+	}
+
+	/**
+	 * A class name which JDT first tries as a package.
+	 */
+	@Benchmark
+	public boolean isPackageOfClassName(Environment environment) {
+		char[][] type = environment.classNames[environment.next(environment.classNames.length)];
+		return environment.env.isPackage(new char[][] { type[0], type[1], type[2] }, type[3]);
+	}
+
+	static char[][] toCompoundName(String name) {
+		String[] parts = name.split("\\.");
+		char[][] compoundName = new char[parts.length][];
+		for (int i = 0; i < parts.length; i++) {
+			compoundName[i] = parts[i].toCharArray();
+		}
+		return compoundName;
+	}
+}
@@ -0,0 +1,203 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal server of a remote build cache, storing the files PUT by the builds
+ * in a directory and serving them back on GET. It stands in for the HTTP
+ * servers a CI usually provides for that (nginx with WebDAV, Artifactory...),
+ * to try {@link RemoteBuildCache} on a machine or in a test:
+ *
+ * <pre>
+ * java -cp jspc-maven-plugin.jar io.leonard.maven.plugins.jspc.BuildCacheServer /tmp/jspc-cache 8080
+ * </pre>
+ *
+ * It only listens to the loopback address, unless a bind address is given
+ * after the port. Anyone reaching it can read the cache and, without a token,
+ * write classes that the other builds would package: to listen to another
+ * address, the environment variable {@value #TOKEN_VARIABLE} must hold a token,
+ * which the PUT requests must then carry in an {@code Authorization: Bearer}
+ * header. It never deletes anything.
+ */
+public class BuildCacheServer implements Closeable {
+
+  /** Paths written by {@link JspBuildCache}, hex hashes under a few directories */
+  private static final Pattern PATH = Pattern.compile("(/[A-Za-z0-9_-][A-Za-z0-9._-]*)+");
+
+  /** Environment variable holding the token of {@link #main(String[])} */
+  static final String TOKEN_VARIABLE = "JSPC_BUILD_CACHE_TOKEN";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Path directory;
+  /** Expected Authorization header of the PUT requests, null to accept them all */
+  private final byte[] authorization;
+
+  private BuildCacheServer(HttpServer server, ExecutorService executor, Path directory, String token) {
+    this.server = server;
+    this.executor = executor;
+    this.directory = directory;
+    this.authorization = token == null ? null : ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Start a server only reachable from this machine, without token.
+   *
+   * @param directory where the files are stored
+   * @param port      the port to listen to, 0 for any free port
+   * @return the started server
+   */
+  public static BuildCacheServer start(Path directory, int port) throws IOException {
+    return start(directory, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), null);
+  }
+
+  /**
+   * @param directory where the files are stored
+   * @param address   the address and port to listen to
+   * @param token     the token the PUT requests must carry, null to accept the
+   *                  PUT requests of anyone reaching the address
+   * @return the started server
+   */
+  public static BuildCacheServer start(Path directory, InetSocketAddress address, String token) throws IOException {
+    Files.createDirectories(directory);
+    HttpServer server = HttpServer.create(address, 0);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    BuildCacheServer buildCacheServer = new BuildCacheServer(server, executor, directory, token);
+    server.createContext("/", buildCacheServer::handle);
+    server.setExecutor(executor);
+    server.start();
+    return buildCacheServer;
+  }
+
+  /**
+   * @return the url to give to the builds
+   */
+  public URI getUrl() {
+    InetSocketAddress address = server.getAddress();
+    String host = address.getAddress().isAnyLocalAddress() ? "localhost" : address.getAddress().getHostAddress();
+    try {
+      return new URI("http", null, host, address.getPort(), "/", null, null);
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2 && args.length != 3) {
+      System.err.println("Usage: BuildCacheServer <directory> <port> [<bind address>]");
+      System.exit(1);
+    }
+    InetAddress bindAddress = args.length == 3 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+    String token = System.getenv(TOKEN_VARIABLE);
+    if (token != null && token.isEmpty()) {
+      token = null;
+    }
+    if (token == null && !bindAddress.isLoopbackAddress()) {
+      System.err.println("Set " + TOKEN_VARIABLE + " to listen to " + bindAddress);
+      System.exit(1);
+    }
+    BuildCacheServer server = start(Paths.get(args[0]), new InetSocketAddress(bindAddress, Integer.parseInt(args[1])),
+        token);
+    System.out.println("Serving " + args[0] + " on " + server.getUrl());
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath();
+      if (!PATH.matcher(path).matches()) {
+        sendError(exchange, 400);
+        return;
+      }
+      Path file = directory.resolve(path.substring(1));
+      switch (exchange.getRequestMethod()) {
+      case "GET":
+        readRequestBody(exchange);
+        if (!Files.isRegularFile(file)) {
+          exchange.sendResponseHeaders(404, -1);
+          return;
+        }
+        byte[] content = Files.readAllBytes(file);
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(content);
+        }
+        break;
+      case "PUT":
+        if (!isAuthorized(exchange)) {
+          exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+          sendError(exchange, 401);
+          return;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        try (InputStream in = exchange.getRequestBody()) {
+          Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+          try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+          } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+          }
+        } finally {
+          Files.deleteIfExists(temp);
+        }
+        exchange.sendResponseHeaders(201, -1);
+        break;
+      default:
+        exchange.getResponseHeaders().set("Allow", "GET, PUT");
+        sendError(exchange, 405);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void sendError(HttpExchange exchange, int status) throws IOException {
+    readRequestBody(exchange);
+    exchange.sendResponseHeaders(status, -1);
+  }
+
+  /**
+   * The server closes the connection after the response when the request was
+   * not read to its end, even an empty one, while the client may already be
+   * sending its next request on that connection.
+   */
+  private static void readRequestBody(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      in.transferTo(OutputStream.nullOutputStream());
+    }
+  }
+
+  private boolean isAuthorized(HttpExchange exchange) {
+    if (authorization == null) {
+      return true;
+    }
+    String header = exchange.getRequestHeaders().getFirst("Authorization");
+    return header != null && MessageDigest.isEqual(authorization, header.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,212 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, for every compiled jsp, what the generated servlet depends on (the
+ * jsp itself, its static includes, tag files and TLDs as listed in Jasper's
+ * <code>_jspx_dependants</code>) and which class files it produced.
+ * <p>
+ * The manifest is written after each run in incremental mode and read back on
+ * the next one to decide which jsps are stale. It is invalidated as a whole
+ * when the compiler options or the classpath change.
+ */
+public class CompilationManifest {
+
+  private static final String OPTIONS = "options";
+  private static final String JSP = "jsp";
+  private static final String DEPENDANT = "dependant";
+  private static final String OUTPUT = "output";
+  private static final String SEPARATOR = "\t";
+
+  private final String optionsFingerprint;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  /** True if the previous run had other options, all its jsps are then stale */
+  private boolean optionsChanged;
+
+  public CompilationManifest(String optionsFingerprint) {
+    this.optionsFingerprint = optionsFingerprint;
+  }
+
+  /**
+   * Read the manifest of the previous run. If it does not exist or cannot be
+   * read, an empty manifest is returned so that every jsp is considered stale.
+   * If it was written with other compiler options, every jsp is considered stale
+   * as well, but its class files are still known so that they can be deleted.
+   *
+   * @param file               the manifest file
+   * @param optionsFingerprint fingerprint of the options of the current run
+   * @return the manifest of the previous run
+   */
+  public static CompilationManifest load(File file, String optionsFingerprint) {
+    CompilationManifest manifest = new CompilationManifest(optionsFingerprint);
+    if (!file.isFile()) {
+      return manifest;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (line == null || !line.startsWith(OPTIONS + SEPARATOR)) {
+        return manifest;
+      }
+      manifest.optionsChanged = !line.equals(OPTIONS + SEPARATOR + optionsFingerprint);
+      Entry current = null;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(SEPARATOR);
+        if (JSP.equals(fields[0]) && fields.length == 3) {
+          current = new Entry(Long.parseLong(fields[2]));
+          manifest.entries.put(fields[1], current);
+        } else if (DEPENDANT.equals(fields[0]) && fields.length == 3 && current != null) {
+          current.dependants.put(fields[1], Long.valueOf(fields[2]));
+        } else if (OUTPUT.equals(fields[0]) && fields.length == 2 && current != null) {
+          current.outputs.add(fields[1]);
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      manifest.entries.clear();
+    }
+    return manifest;
+  }
+
+  public void save(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists()) {
+      parent.mkdirs();
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      writer.write(OPTIONS + SEPARATOR + optionsFingerprint);
+      writer.newLine();
+      for (Map.Entry<String, Entry> jsp : new TreeMap<>(entries).entrySet()) {
+        Entry entry = jsp.getValue();
+        writer.write(JSP + SEPARATOR + jsp.getKey() + SEPARATOR + entry.lastModified);
+        writer.newLine();
+        for (Map.Entry<String, Long> dependant : entry.dependants.entrySet()) {
+          writer.write(DEPENDANT + SEPARATOR + dependant.getKey() + SEPARATOR + dependant.getValue());
+          writer.newLine();
+        }
+        for (String output : entry.outputs) {
+          writer.write(OUTPUT + SEPARATOR + output);
+          writer.newLine();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param jspUri          the jsp uri, relative to the webapp root and starting
+   *                        with a '/'
+   * @param webAppDirectory the webapp root
+   * @param outputDirectory the root directory of the generated classes
+   * @return true if the jsp was compiled by the previous run with the same
+   *         options and neither it nor any of its dependants changed since, and
+   *         all of its class files still exist
+   */
+  public boolean isUpToDate(String jspUri, File webAppDirectory, File outputDirectory) {
+    Entry entry = entries.get(jspUri);
+    if (optionsChanged || entry == null || entry.outputs.isEmpty()) {
+      return false;
+    }
+    if (new File(webAppDirectory, jspUri).lastModified() != entry.lastModified) {
+      return false;
+    }
+    for (String output : entry.outputs) {
+      if (!new File(outputDirectory, output).isFile()) {
+        return false;
+      }
+    }
+    for (Map.Entry<String, Long> dependant : entry.dependants.entrySet()) {
+      if (getLastModified(dependant.getKey(), webAppDirectory) != dependant.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public List<String> getOutputs(String jspUri) {
+    Entry entry = entries.get(jspUri);
+    return entry == null ? Collections.<String>emptyList() : Collections.unmodifiableList(entry.outputs);
+  }
+
+  public Map<String, Long> getDependants(String jspUri) {
+    Entry entry = entries.get(jspUri);
+    return entry == null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(entry.dependants);
+  }
+
+  public void record(String jspUri, long lastModified, Map<String, Long> dependants, List<String> outputs) {
+    Entry entry = new Entry(lastModified);
+    if (dependants != null) {
+      entry.dependants.putAll(dependants);
+    }
+    entry.outputs.addAll(outputs);
+    entries.put(jspUri, entry);
+  }
+
+  /**
+   * Forget about the jsps which are not part of the current run any more.
+   *
+   * @param jspUris the jsps selected by the current run
+   */
+  public void retainAll(Collection<String> jspUris) {
+    Set<String> keep = new HashSet<>(jspUris);
+    entries.keySet().retainAll(keep);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Same resolution as org.apache.jasper.compiler.Compiler#isOutDated: entries
+   * of the form "jar:..." or "file:..." are URLs, everything else is a path
+   * inside the webapp.
+   */
+  static long getLastModified(String resource, File webAppDirectory) {
+    try {
+      if (resource.startsWith("jar:") || resource.startsWith("file:")) {
+        URL url = new URI(resource).toURL();
+        URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        long lastModified;
+        if (connection instanceof JarURLConnection) {
+          lastModified = ((JarURLConnection) connection).getJarEntry().getTime();
+        } else {
+          lastModified = connection.getLastModified();
+        }
+        connection.getInputStream().close();
+        return lastModified;
+      }
+      File file = new File(webAppDirectory, resource);
+      return file.exists() ? file.lastModified() : -1;
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static class Entry {
+    private final long lastModified;
+    private final Map<String, Long> dependants = new LinkedHashMap<>();
+    private final List<String> outputs = new ArrayList<>();
+
+    Entry(long lastModified) {
+      this.lastModified = lastModified;
+    }
+  }
+}
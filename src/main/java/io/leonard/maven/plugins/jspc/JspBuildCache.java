@@ -0,0 +1,620 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Class files of the jsps compiled by the previous builds, whatever their
+ * branch, stored under a hash of everything they were generated from, so that a
+ * jsp compiled once is restored instead of being compiled again.
+ * <p>
+ * The dependants of a jsp (static includes, tag files and TLDs) are only known
+ * once it is compiled, so a lookup takes two steps:
+ * <ol>
+ * <li>the hash of the jsp, of its uri and of the fingerprint of the build
+ * (compiler options, web.xml, classpath...) gives the dependants recorded when
+ * the jsp was compiled,</li>
+ * <li>the hash of the current content of these dependants gives the class
+ * files, those of the jsp and those of the tag files it uses.</li>
+ * </ol>
+ * Entries are written to a temporary file then moved, so that the builds sharing
+ * the cache never read a half written entry. Beyond its maximum size, the least
+ * recently used entries are evicted.
+ * <p>
+ * With a {@link RemoteBuildCache}, the manifests and entries missing from the
+ * directory are downloaded into it before the lookup, and the entries of the
+ * jsps compiled by the build are uploaded.
+ */
+public class JspBuildCache {
+
+  private static final String VERSION = "1";
+  private static final String MANIFESTS = "manifests";
+  private static final String ENTRIES = "entries";
+  private static final String ZIP = ".zip";
+  private static final String TEMP = ".tmp";
+
+  /** Content hash of the resources which cannot be read */
+  private static final String UNREADABLE = "";
+
+  private final Path directory;
+  private final long maxSize;
+  private final String fingerprint;
+  private final File webAppDirectory;
+  private final Log log;
+
+  private final Map<String, String> contentHashes = new ConcurrentHashMap<>();
+
+  private RemoteBuildCache remote;
+  private final Map<String, CompletableFuture<Void>> downloads = new ConcurrentHashMap<>();
+  private final List<CompletableFuture<Boolean>> uploads = Collections.synchronizedList(new ArrayList<>());
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder stores = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param directory       root of the cache
+   * @param maxSize         maximum size of the cache in bytes
+   * @param fingerprint     everything the classes depend on apart from the jsps
+   *                        and their dependants, see
+   *                        {@link #getFingerprint(String, List, File, Collection)}
+   * @param webAppDirectory the webapp root
+   * @param log             where the errors of the cache are reported
+   */
+  public JspBuildCache(Path directory, long maxSize, String fingerprint, File webAppDirectory, Log log) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+    this.fingerprint = fingerprint;
+    this.webAppDirectory = webAppDirectory;
+    this.log = log;
+  }
+
+  /**
+   * @param remote the cache shared with the other machines, or null
+   */
+  public void setRemote(RemoteBuildCache remote) {
+    this.remote = remote;
+  }
+
+  /**
+   * @param options   the compiler options, as a string
+   * @param classpath the classpath of the webapp
+   * @param webXml    the web.xml of the webapp, whose jsp-config changes the
+   *                  generated servlets
+   * @param generated the directories of the classes generated from the jsps and
+   *                  tag files, left out of the classpath directories since the
+   *                  builds write them
+   * @return a hash of the content of all of them, which does not depend on where
+   *         the jars are nor on their dates
+   */
+  public static String getFingerprint(String options, List<URL> classpath, File webXml, Collection<Path> generated)
+      throws IOException {
+    MessageDigest digest = newDigest();
+    update(digest, VERSION);
+    update(digest, options);
+    for (URL url : classpath) {
+      File file = new File(url.getFile());
+      if (file.isFile()) {
+        update(digest, file.getName());
+        updateWithJar(digest, file);
+      } else if (file.isDirectory()) {
+        updateWithDirectory(digest, file.toPath(), generated);
+      } else {
+        update(digest, url.toString());
+      }
+    }
+    if (webXml.isFile()) {
+      update(digest, hash(webXml.toPath()));
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Write the class files of the jsp, and of the tag files it uses, from the
+   * cache.
+   *
+   * @param jspUri          the jsp, relative to the webapp root
+   * @param outputDirectory the root directory of the generated classes
+   * @return true if the jsp was found and its classes restored
+   */
+  public boolean restore(String jspUri, File outputDirectory) {
+    Path entry = null;
+    try {
+      awaitDownload(jspUri);
+      String jspKey = getJspKey(jspUri);
+      Path manifest = jspKey == null ? null : getPath(MANIFESTS, jspKey);
+      String entryKey = manifest == null || !Files.isRegularFile(manifest) ? null
+          : getEntryKey(jspKey, Files.readAllLines(manifest, StandardCharsets.UTF_8));
+      entry = entryKey == null ? null : getPath(ENTRIES, entryKey + ZIP);
+      if (entry != null && Files.isRegularFile(entry)) {
+        extract(entry, outputDirectory.toPath());
+        touch(manifest);
+        touch(entry);
+        hits.increment();
+        return true;
+      }
+    } catch (ZipException e) {
+      log.warn("Corrupted entry for " + jspUri + " in the build cache, it will be compiled", e);
+      deleteQuietly(entry);
+    } catch (IOException e) {
+      log.warn("Unable to restore " + jspUri + " from the build cache, it will be compiled", e);
+    }
+    misses.increment();
+    return false;
+  }
+
+  /**
+   * Store the class files of a compiled jsp.
+   *
+   * @param jspUri          the jsp, relative to the webapp root
+   * @param dependants      its static includes, tag files and TLDs, as listed
+   *                        by the generated servlet
+   * @param outputs         its class files and those of the tag files it uses,
+   *                        relative to the output directory
+   * @param outputDirectory the root directory of the generated classes
+   */
+  public void store(String jspUri, Collection<String> dependants, Collection<String> outputs, File outputDirectory) {
+    try {
+      String jspKey = getJspKey(jspUri);
+      List<String> sortedDependants = new ArrayList<>(dependants);
+      Collections.sort(sortedDependants);
+      String entryKey = jspKey == null ? null : getEntryKey(jspKey, sortedDependants);
+      if (entryKey == null) {
+        return;
+      }
+      Path entry = getPath(ENTRIES, entryKey + ZIP);
+      boolean created = !Files.isRegularFile(entry);
+      if (!created) {
+        touch(entry);
+      } else {
+        Path temp = newTempFile(entry);
+        try (OutputStream out = Files.newOutputStream(temp); ZipOutputStream zip = new ZipOutputStream(out)) {
+          for (String output : outputs) {
+            zip.putNextEntry(new ZipEntry(output));
+            Files.copy(outputDirectory.toPath().resolve(output), zip);
+            zip.closeEntry();
+          }
+        }
+        move(temp, entry);
+      }
+      Path manifest = getPath(MANIFESTS, jspKey);
+      Path temp = newTempFile(manifest);
+      Files.write(temp, sortedDependants, StandardCharsets.UTF_8);
+      move(temp, manifest);
+      stores.increment();
+      if (created) {
+        upload(entryKey, jspKey);
+      }
+    } catch (IOException e) {
+      log.warn("Unable to store " + jspUri + " in the build cache", e);
+    }
+  }
+
+  /**
+   * Start downloading from the remote cache what the lookup of the jsps needs,
+   * in their order, so that it is already there when they are restored.
+   *
+   * @param jspUris the jsps which may be restored, relative to the webapp root
+   */
+  public void prefetch(List<String> jspUris) {
+    if (remote != null) {
+      for (String jspUri : jspUris) {
+        downloads.computeIfAbsent(jspUri, this::download);
+      }
+    }
+  }
+
+  /**
+   * Wait for the uploads to the remote cache to end, each one is bounded by the
+   * timeout of the remote cache.
+   */
+  public void awaitUploads() throws InterruptedException {
+    List<CompletableFuture<Boolean>> pending;
+    synchronized (uploads) {
+      pending = new ArrayList<>(uploads);
+      uploads.clear();
+    }
+    for (CompletableFuture<Boolean> upload : pending) {
+      try {
+        upload.get();
+      } catch (ExecutionException e) {
+        log.debug("Upload to the remote build cache failed", e);
+      }
+    }
+  }
+
+  /**
+   * Delete the least recently used entries until the cache fits in its maximum
+   * size.
+   */
+  public void evict() throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(directory)) {
+      files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    Map<Path, FileTime> lastUses = new HashMap<>();
+    Map<Path, Long> sizes = new HashMap<>();
+    long size = 0;
+    for (Path file : files) {
+      try {
+        lastUses.put(file, Files.getLastModifiedTime(file));
+        sizes.put(file, Files.size(file));
+        size += sizes.get(file);
+      } catch (NoSuchFileException e) {
+        // evicted by another build
+      }
+    }
+    if (size <= maxSize) {
+      return;
+    }
+    List<Path> leastRecentlyUsed = new ArrayList<>(lastUses.keySet());
+    leastRecentlyUsed.sort(Comparator.comparing(lastUses::get));
+    for (Path file : leastRecentlyUsed) {
+      if (size <= maxSize) {
+        break;
+      }
+      if (Files.deleteIfExists(file)) {
+        size -= sizes.get(file);
+        if (file.getFileName().toString().endsWith(ZIP)) {
+          evictions.increment();
+        }
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getStoreCount() {
+    return stores.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  @Override
+  public String toString() {
+    long hitCount = getHitCount();
+    long lookups = hitCount + getMissCount();
+    return "build cache: " + lookups + " lookups, " + hitCount + " hits ("
+        + (lookups == 0 ? 0 : hitCount * 100 / lookups) + "%), " + getStoreCount() + " jsps stored, "
+        + getEvictionCount() + " evictions" + (remote == null ? "" : ", " + remote);
+  }
+
+  private void awaitDownload(String jspUri) throws IOException {
+    if (remote == null) {
+      return;
+    }
+    try {
+      downloads.computeIfAbsent(jspUri, this::download).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downloading " + jspUri, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to download " + jspUri, e.getCause());
+    }
+  }
+
+  /**
+   * Download the manifest of the jsp if it is not in the directory, then the
+   * entry it leads to if it is not either.
+   */
+  private CompletableFuture<Void> download(String jspUri) {
+    String jspKey;
+    try {
+      jspKey = getJspKey(jspUri);
+    } catch (IOException e) {
+      jspKey = null;
+    }
+    if (jspKey == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    String key = jspKey;
+    Path manifest = getPath(MANIFESTS, key);
+    CompletableFuture<Boolean> manifestDownload = Files.isRegularFile(manifest)
+        ? CompletableFuture.completedFuture(true)
+        : remote.get(getRemotePath(MANIFESTS, key)).thenApply(content -> write(manifest, content));
+    return manifestDownload.thenCompose(found -> {
+      String entryKey = null;
+      try {
+        entryKey = found ? getEntryKey(key, Files.readAllLines(manifest, StandardCharsets.UTF_8)) : null;
+      } catch (IOException e) {
+        log.debug("Unable to read " + manifest, e);
+      }
+      Path entry = entryKey == null ? null : getPath(ENTRIES, entryKey + ZIP);
+      if (entry == null || Files.isRegularFile(entry)) {
+        return CompletableFuture.completedFuture(null);
+      }
+      return remote.get(getRemotePath(ENTRIES, entryKey + ZIP)).thenAccept(content -> write(entry, content));
+    });
+  }
+
+  /**
+   * Upload an entry, then the manifest leading to it, so that the other builds
+   * never download a manifest without its entry.
+   */
+  private void upload(String entryKey, String jspKey) throws IOException {
+    if (remote == null || !remote.isPushEnabled()) {
+      return;
+    }
+    byte[] entry = Files.readAllBytes(getPath(ENTRIES, entryKey + ZIP));
+    byte[] manifest = Files.readAllBytes(getPath(MANIFESTS, jspKey));
+    uploads.add(remote.put(getRemotePath(ENTRIES, entryKey + ZIP), entry)
+        .thenCompose(uploaded -> uploaded ? remote.put(getRemotePath(MANIFESTS, jspKey), manifest)
+            : CompletableFuture.completedFuture(false)));
+  }
+
+  /**
+   * @return true if the content was downloaded and written
+   */
+  private boolean write(Path file, byte[] content) {
+    if (content == null) {
+      return false;
+    }
+    try {
+      Path temp = newTempFile(file);
+      Files.write(temp, content);
+      move(temp, file);
+      return true;
+    } catch (IOException e) {
+      log.debug("Unable to write " + file, e);
+      return false;
+    }
+  }
+
+  private String getJspKey(String jspUri) throws IOException {
+    String jspHash = getContentHash(jspUri);
+    if (jspHash == null) {
+      return null;
+    }
+    MessageDigest digest = newDigest();
+    update(digest, fingerprint);
+    update(digest, jspUri);
+    update(digest, jspHash);
+    return toHex(digest.digest());
+  }
+
+  /**
+   * @return the key of the classes, null if a dependant cannot be read
+   */
+  private String getEntryKey(String jspKey, List<String> dependants) throws IOException {
+    MessageDigest digest = newDigest();
+    update(digest, jspKey);
+    for (String dependant : dependants) {
+      String hash = getContentHash(dependant);
+      if (hash == null) {
+        return null;
+      }
+      update(digest, getPortableName(dependant));
+      update(digest, hash);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Same resolution as {@link CompilationManifest}: entries of the form
+   * "jar:..." or "file:..." are URLs, everything else is a path inside the
+   * webapp. The hashes are kept for the whole build, the tag files and TLDs are
+   * shared by many jsps.
+   */
+  private String getContentHash(String resource) {
+    String hash = contentHashes.computeIfAbsent(resource, r -> {
+      try {
+        if (r.startsWith("jar:") || r.startsWith("file:")) {
+          URLConnection connection = new URI(r).toURL().openConnection();
+          connection.setUseCaches(false);
+          try (InputStream in = connection.getInputStream()) {
+            return hash(in);
+          }
+        }
+        File file = new File(webAppDirectory, r);
+        return file.isFile() ? hash(file.toPath()) : UNREADABLE;
+      } catch (Exception e) {
+        return UNREADABLE;
+      }
+    });
+    return hash.isEmpty() ? null : hash;
+  }
+
+  /**
+   * @return the resource without the location of its jar, which changes from one
+   *         machine to the other
+   */
+  private static String getPortableName(String resource) {
+    int separator = resource.indexOf("!/");
+    if (!resource.startsWith("jar:") || separator < 0) {
+      return resource;
+    }
+    String jar = resource.substring(0, separator);
+    return "jar:" + jar.substring(jar.lastIndexOf('/') + 1) + resource.substring(separator);
+  }
+
+  private Path getPath(String area, String name) {
+    return directory.resolve(area).resolve(name.substring(0, 2)).resolve(name);
+  }
+
+  private static String getRemotePath(String area, String name) {
+    return area + '/' + name.substring(0, 2) + '/' + name;
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      // evicted later
+    }
+  }
+
+  private static void extract(Path entry, Path outputDirectory) throws IOException {
+    Path root = outputDirectory.toAbsolutePath().normalize();
+    try (InputStream in = Files.newInputStream(entry); ZipInputStream zip = new ZipInputStream(in)) {
+      ZipEntry zipEntry;
+      while ((zipEntry = zip.getNextEntry()) != null) {
+        Path output = root.resolve(zipEntry.getName()).normalize();
+        if (!output.startsWith(root)) {
+          throw new ZipException("Invalid entry " + zipEntry.getName() + " in " + entry);
+        }
+        // other threads may restore or compile the same tag files
+        Path temp = newTempFile(output);
+        Files.copy(zip, temp, StandardCopyOption.REPLACE_EXISTING);
+        move(temp, output);
+      }
+    }
+  }
+
+  private static Path newTempFile(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.createTempFile(file.getParent(), "." + file.getFileName(), TEMP);
+  }
+
+  private static void move(Path temp, Path file) throws IOException {
+    try {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static void touch(Path file) throws IOException {
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+  }
+
+  /**
+   * The central directory holds the name, the size and the CRC of every entry,
+   * which is enough to tell if the content of the jar changed.
+   */
+  private static void updateWithJar(MessageDigest digest, File jar) throws IOException {
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        update(digest, entry.getName() + ':' + entry.getSize() + ':' + entry.getCrc());
+      }
+    } catch (ZipException e) {
+      update(digest, hash(jar.toPath()));
+    }
+  }
+
+  private static void updateWithDirectory(MessageDigest digest, Path root, Collection<Path> generated)
+      throws IOException {
+    Set<Path> skipped = new HashSet<>();
+    for (Path directory : generated) {
+      skipped.add(directory.toAbsolutePath().normalize());
+    }
+    List<Path> files = new ArrayList<>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+        return skipped.contains(directory.toAbsolutePath().normalize()) ? FileVisitResult.SKIP_SUBTREE
+            : FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        if (attributes.isRegularFile()) {
+          files.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    Collections.sort(files);
+    for (Path file : files) {
+      update(digest, root.relativize(file).toString().replace(File.separatorChar, '/'));
+      update(digest, hash(file));
+    }
+  }
+
+  private static String hash(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return hash(in);
+    }
+  }
+
+  private static String hash(InputStream in) throws IOException {
+    MessageDigest digest = newDigest();
+    try (DigestInputStream digestIn = new DigestInputStream(in, digest)) {
+      byte[] buffer = new byte[8192];
+      while (digestIn.read(buffer) >= 0) {
+        // digested while read
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every JVM has SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
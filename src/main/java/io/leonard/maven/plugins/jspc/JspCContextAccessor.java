@@ -1,20 +1,50 @@
 package io.leonard.maven.plugins.jspc;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import jakarta.servlet.jsp.tagext.TagLibraryInfo;
 import org.apache.jasper.JasperException;
 import org.apache.jasper.JspC;
-import org.apache.jasper.compiler.JspConfig;
-import org.apache.jasper.compiler.TldCache;
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.compiler.ClassFileCache;
+import org.apache.jasper.compiler.ClasspathIndex;
+import org.apache.jasper.compiler.CompilationBatch;
+import org.apache.jasper.compiler.Compiler;
+import org.apache.jasper.compiler.Localizer;
+import org.apache.jasper.compiler.TagFilePrecompiler;
+import org.apache.jasper.compiler.TagLibraryInfoCache;
+import org.apache.jasper.compiler.TldScanCache;
 import org.apache.jasper.servlet.JspCServletContext;
+import org.apache.jasper.servlet.TldScanner;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.util.scan.StandardJarScanFilter;
 import org.apache.tomcat.util.scan.StandardJarScanner;
-import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 
 public class JspCContextAccessor extends JspC {
 
-  private Map<String, NameEnvironmentAnswer> resourcesCache;
+  private final Log log = LogFactory.getLog(JspCContextAccessor.class); // must not be static
+
+  // errors must be logged where JspcWorker listens for them
+  private final Log jspcLog = LogFactory.getLog(JspC.class); // must not be static
+
+  private ClassFileCache resourcesCache;
+  private ClasspathIndex classpathIndex;
   private String compilerClass;
 
   private String tldSkip;
@@ -23,6 +53,53 @@ public class JspCContextAccessor extends JspC {
 
   private Boolean defaultTldScan;
 
+  private TldScanCache tldScanCache;
+
+  private int tldScanThreads = 1;
+
+  private List<String> tldScanJspFiles;
+
+  private TagLibraryInfoCache tagLibraryInfoCache;
+
+  private Map<String, TagLibraryInfo> threadTagLibraryInfos;
+
+  private Set<String> upToDateJspFiles = Collections.emptySet();
+
+  private CompilationManifest compilationManifest;
+
+  private int compileBatchSize = 1;
+
+  private CompilationBatch compilationBatch;
+
+  private boolean sourcesInMemory;
+
+  private Set<String> generatedSources;
+
+  private WebXmlMappings webXmlMappings;
+
+  private JspCostModel jspCostModel;
+
+  private ThreadCountTuner threadCountTuner;
+
+  private JspCompileReport compileReport;
+
+  private JspBuildCache buildCache;
+
+  /** Jsps of this thread compiled by Jasper, whose classes can be stored in the build cache */
+  private final Set<String> compiledJspFiles = new HashSet<>();
+
+  /** Time spent compiling batches since the current jsp was taken from the queue */
+  private long batchNanos;
+
+  /** Files of the jsps waiting in the batch, by jsp uri, mapped once compiled */
+  private final Map<String, String> batchedFiles = new HashMap<>();
+
+  /** Jsps of this thread which failed to compile in a batch */
+  private int batchErrorCount;
+
+  /** True if the current jsp was found up to date, and not compiled */
+  private boolean jspUpToDate;
+
   public JspCContextAccessor() {
     super();
   }
@@ -44,14 +121,71 @@ public class JspCContextAccessor extends JspC {
     return this.loader;
   }
 
-  public Map<String, NameEnvironmentAnswer> getResourcesCache() {
+  public ClassFileCache getResourcesCache() {
     return resourcesCache;
   }
 
-  public void setResourcesCache(Map<String, NameEnvironmentAnswer> resourcesCache) {
+  public void setResourcesCache(ClassFileCache resourcesCache) {
     this.resourcesCache = resourcesCache;
   }
 
+  public ClasspathIndex getClasspathIndex() {
+    return classpathIndex;
+  }
+
+  public void setClasspathIndex(ClasspathIndex classpathIndex) {
+    this.classpathIndex = classpathIndex;
+  }
+
+  /**
+   * @param compileBatchSize number of jsps compiled together by
+   *                         org.apache.jasper.compiler.ParallelJDTCompiler, 1 to
+   *                         compile them one by one
+   */
+  public void setCompileBatchSize(int compileBatchSize) {
+    this.compileBatchSize = compileBatchSize;
+  }
+
+  /**
+   * @return the batch of this thread, or null if the jsps are compiled one by one
+   */
+  public CompilationBatch getCompilationBatch() {
+    if (compilationBatch == null && compileBatchSize > 1) {
+      compilationBatch = new CompilationBatch(compileBatchSize);
+    }
+    return compilationBatch;
+  }
+
+  /**
+   * @return true if org.apache.jasper.compiler.ParallelJDTCompiler must compile
+   *         the generated servlets without writing them to the disk
+   */
+  public boolean isSourcesInMemory() {
+    return sourcesInMemory;
+  }
+
+  public void setSourcesInMemory(boolean sourcesInMemory) {
+    this.sourcesInMemory = sourcesInMemory;
+  }
+
+  /**
+   * @param generatedSources set, shared by all the threads, to which the .java
+   *                         file of every compiled jsp is added, null if they
+   *                         are not needed
+   */
+  public void setGeneratedSources(Set<String> generatedSources) {
+    this.generatedSources = generatedSources;
+  }
+
+  /**
+   * @param webXmlMappings mappings, shared by all the threads, to which the
+   *                       servlet of every jsp is added instead of being written
+   *                       to a web.xml fragment of this thread
+   */
+  public void setWebXmlMappings(WebXmlMappings webXmlMappings) {
+    this.webXmlMappings = webXmlMappings;
+  }
+
   public String getcompilerClass() {
     return compilerClass;
   }
@@ -72,17 +206,126 @@ public class JspCContextAccessor extends JspC {
     this.defaultTldScan = defaultTldScan;
   }
 
+  /**
+   * @param upToDateJspFiles uris of the jsps which must not be compiled again,
+   *                         only declared in the generated web.xml fragment
+   */
+  public void setUpToDateJspFiles(Set<String> upToDateJspFiles) {
+    this.upToDateJspFiles = upToDateJspFiles;
+  }
+
+  public void setCompilationManifest(CompilationManifest compilationManifest) {
+    this.compilationManifest = compilationManifest;
+  }
+
+  /**
+   * @param jspCostModel model in which the compile time of each jsp is recorded
+   */
+  public void setJspCostModel(JspCostModel jspCostModel) {
+    this.jspCostModel = jspCostModel;
+  }
+
+  /**
+   * @param threadCountTuner limits the number of threads compiling at the same
+   *                         time, null for no limit
+   */
+  public void setThreadCountTuner(ThreadCountTuner threadCountTuner) {
+    this.threadCountTuner = threadCountTuner;
+  }
+
+  /**
+   * @return the report in which the cost of each jsp is recorded, null if there
+   *         is none
+   */
+  public JspCompileReport getCompileReport() {
+    return compileReport;
+  }
+
+  public void setCompileReport(JspCompileReport compileReport) {
+    this.compileReport = compileReport;
+  }
+
+  /**
+   * @param buildCache cache from which the classes of the jsps are restored, and
+   *                   in which the compiled ones are stored, null for none
+   */
+  public void setBuildCache(JspBuildCache buildCache) {
+    this.buildCache = buildCache;
+  }
+
+  /**
+   * @param tldScanCache TLDs of the jars scanned by the previous builds, null to
+   *                     scan all the jars
+   */
+  public void setTldScanCache(TldScanCache tldScanCache) {
+    this.tldScanCache = tldScanCache;
+  }
+
+  /**
+   * @param tldScanThreads number of jars read at the same time by the TLD scan
+   */
+  public void setTldScanThreads(int tldScanThreads) {
+    this.tldScanThreads = tldScanThreads;
+  }
+
+  /**
+   * @param tldScanJspFiles jsps, relative to the webapp root, whose taglibs only
+   *                        are looked for in the jars, null to look for all the
+   *                        taglibs
+   */
+  public void setTldScanJspFiles(List<String> tldScanJspFiles) {
+    this.tldScanJspFiles = tldScanJspFiles;
+  }
+
+  /**
+   * @param tagLibraryInfoCache taglibs built for the jsps, shared by all the
+   *                            threads, null for the cache of this JspC only
+   */
+  public void setTagLibraryInfoCache(TagLibraryInfoCache tagLibraryInfoCache) {
+    this.tagLibraryInfoCache = tagLibraryInfoCache;
+    this.threadTagLibraryInfos = tagLibraryInfoCache == null ? null : tagLibraryInfoCache.newThreadCache();
+  }
+
+  @Override
+  public Map<String, TagLibraryInfo> getCache() {
+    return threadTagLibraryInfos == null ? super.getCache() : threadTagLibraryInfos;
+  }
+
+  /**
+   * Share the context of topJspC, whose TLDs were scanned once for all the
+   * threads. Its jsp configuration and its tag plugins are shared as well, they
+   * are initialized on first use and safe for concurrent use. Several threads
+   * may call this at the same time.
+   */
   protected void initContext(JspCContextAccessor topJspC) {
     this.context = topJspC.context;
     scanner = topJspC.scanner;
-
-    initTldScanner(context, getLoader());
-    tldCache = (TldCache) context.getAttribute(TldCache.SERVLET_CONTEXT_ATTRIBUTE_NAME);
+    tldCache = topJspC.tldCache;
     rctxt = topJspC.rctxt;
-    jspConfig = new JspConfig(context);
+    jspConfig = topJspC.jspConfig;
     tagPluginManager = topJspC.tagPluginManager;
   }
 
+  /**
+   * Compile the tag files of the tag directories used by the jsps, so that the
+   * threads sharing the runtime context of this JspC only load their classes.
+   *
+   * @param jspFiles jsps to be compiled, relative to the webapp root
+   * @param executor threads compiling the tag files
+   * @return the number of tag files compiled or loaded
+   * @throws IOException          if a jsp could not be read
+   * @throws InterruptedException if interrupted while waiting for the threads
+   */
+  public int compileTagFiles(List<String> jspFiles, Executor executor) throws IOException, InterruptedException {
+    TaglibUriScanner taglibUriScanner = new TaglibUriScanner(context);
+    taglibUriScanner.scan(jspFiles);
+    Map<String, Set<String>> tagFiles = taglibUriScanner.getTagFiles();
+    if (tagFiles.isEmpty()) {
+      return 0;
+    }
+    return new TagFilePrecompiler(this, context, rctxt, loader, getClassPath()).compile(tagFiles, executor);
+  }
+
   @Override
   public String getCompilerClassName() {
     return getcompilerClass();
@@ -108,4 +351,421 @@ public class JspCContextAccessor extends JspC {
     }
     super.initTldScanner(context, classLoader);
   }
+
+  @Override
+  protected TldScanner newTldScanner(JspCServletContext context, boolean namespaceAware, boolean validate,
+      boolean blockExternal) {
+    ParallelTldScanner tldScanner = new ParallelTldScanner(context, namespaceAware, validate, blockExternal,
+        tldScanThreads, tldScanCache);
+    tldScanner.setJspUris(tldScanJspFiles);
+    return tldScanner;
+  }
+
+  /**
+   * Same as {@link #execute()}, except that the jsps are taken one at a time
+   * from the queue shared with the other workers instead of from a list fixed
+   * beforehand.
+   *
+   * @param queue  jsps of the build, relative to the webapp root
+   * @param worker index of this worker in the queue
+   * @throws JasperException if the web.xml fragment could not be written or if
+   *                         some jsps failed and failOnError is true
+   */
+  public void execute(JspWorkQueue queue, int worker) throws JasperException {
+    try {
+      if (loader == null) {
+        loader = initClassLoader();
+      }
+      if (context == null) {
+        initServletContext(loader);
+      }
+      initWebXml();
+
+      int errorCount = 0;
+      batchErrorCount = 0;
+      long start = System.currentTimeMillis();
+      String queuedjsp;
+      while ((queuedjsp = pollJsp(queue, worker)) != null) {
+        try {
+          if (!processQueuedFile(queuedjsp)) {
+            errorCount++;
+          }
+        } finally {
+          if (threadCountTuner != null) {
+            threadCountTuner.release(true);
+          }
+        }
+      }
+      // the errors of the last batch count as well
+      compileBatch();
+      errorCount += batchErrorCount;
+
+      long time = System.currentTimeMillis() - start;
+      String msg = Localizer.getMessage("jspc.generation.result", Integer.toString(errorCount), Long.toString(time));
+      if (failOnError && errorCount > 0) {
+        throw new JasperException(msg);
+      }
+      jspcLog.info(msg);
+      completeWebXml();
+    } catch (IOException e) {
+      throw new JasperException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new JasperException(e);
+    } finally {
+      if (loader != null) {
+        LogFactory.release(loader);
+      }
+    }
+  }
+
+  private String pollJsp(JspWorkQueue queue, int worker) throws InterruptedException {
+    if (threadCountTuner != null) {
+      threadCountTuner.acquire();
+    }
+    String jsp = queue.poll(worker);
+    if (jsp == null && threadCountTuner != null) {
+      threadCountTuner.release(false);
+    }
+    return jsp;
+  }
+
+  /**
+   * @param queuedjsp the jsp, relative to the webapp root
+   * @return false if the jsp failed to compile
+   */
+  private boolean processQueuedFile(String queuedjsp) {
+    String nextjsp = queuedjsp;
+    File fjsp = new File(nextjsp);
+    if (!fjsp.isAbsolute()) {
+      fjsp = new File(uriRoot, nextjsp);
+    }
+    if (!fjsp.exists()) {
+      jspcLog.warn(Localizer.getMessage("jspc.error.fileDoesNotExist", fjsp.toString()));
+      return true;
+    }
+    String s = fjsp.getAbsolutePath();
+    if (s.startsWith(uriRoot)) {
+      nextjsp = s.substring(uriRoot.length());
+    }
+    String jspUri = nextjsp.replace('\\', '/');
+    long jspStart = System.nanoTime();
+    batchNanos = 0;
+    try {
+      processFile(nextjsp);
+      boolean upToDate = jspUpToDate;
+      long jspNanos = System.nanoTime() - jspStart;
+      if (jspCostModel != null && !upToDate) {
+        jspCostModel.recordCompileTime(queuedjsp, TimeUnit.NANOSECONDS.toMillis(jspNanos));
+      }
+      if (compileReport != null) {
+        // the batch compiled along with this jsp is accounted to its own jsps
+        compileReport.addTotalTime(jspUri, jspNanos - batchNanos);
+        if (upToDate) {
+          compileReport.setStatus(jspUri, JspCompileReport.Status.UP_TO_DATE, null);
+        } else if (compileReport.getStatus(jspUri) == null
+            && (compilationBatch == null || !compilationBatch.contains(jspUri))) {
+          // neither waiting in the batch nor compiled with it
+          reportCompilation(jspUri, null);
+        }
+      }
+      return true;
+    } catch (Exception e) {
+      if (compileReport != null) {
+        compileReport.addTotalTime(jspUri, System.nanoTime() - jspStart - batchNanos);
+        compileReport.setStatus(jspUri, JspCompileReport.Status.FAILED, e);
+      }
+      jspcLog.error(Localizer.getMessage("jspc.error.compilation"), e);
+      return false;
+    } finally {
+      if (tagLibraryInfoCache != null) {
+        tagLibraryInfoCache.release();
+      }
+    }
+  }
+
+  /**
+   * @param failure the error of the jsp, null if it compiled
+   */
+  private void reportCompilation(String jspUri, Exception failure) {
+    if (failure != null) {
+      compileReport.setStatus(jspUri, JspCompileReport.Status.FAILED, failure);
+      return;
+    }
+    compileReport.setStatus(jspUri, JspCompileReport.Status.COMPILED, null);
+    if (!compileReport.hasClassSize(jspUri)) {
+      // only ParallelJDTCompiler knows about the inner classes
+      File classFile = new File(newCompilationContext(jspUri).getClassFileName());
+      if (classFile.isFile()) {
+        compileReport.addClassSize(jspUri, classFile.length());
+      }
+    }
+  }
+
+  /**
+   * Same as JspC#processFile(String), except that the result of the check of
+   * Jasper telling if the jsp must be compiled again is also used to report the
+   * jsp as up to date and to restore it from the build cache, instead of being
+   * checked again for each of them.
+   */
+  @Override
+  protected void processFile(String file) throws JasperException {
+    if (jspcLog.isDebugEnabled()) {
+      jspcLog.debug(Localizer.getMessage("jspc.processing", file));
+    }
+    String jspUri = file.replace('\\', '/');
+    jspUpToDate = true;
+    if (upToDateJspFiles.contains(jspUri)) {
+      try {
+        generateWebMapping(file, newCompilationContext(jspUri));
+      } catch (IOException e) {
+        throw new JasperException(e);
+      }
+      return;
+    }
+
+    JspCompilationContext clctxt = newCompilationContext(jspUri);
+    clctxt.setClassLoader(loader);
+    clctxt.setClassPath(classPath);
+    Thread currentThread = Thread.currentThread();
+    ClassLoader originalClassLoader = currentThread.getContextClassLoader();
+    currentThread.setContextClassLoader(loader);
+    try {
+      Compiler clc = clctxt.createCompiler();
+      if (clc.isOutDated(compile)) {
+        jspUpToDate = false;
+        if (jspcLog.isDebugEnabled()) {
+          jspcLog.debug(Localizer.getMessage("jspc.outdated", jspUri));
+        }
+        if (buildCache != null) {
+          if (buildCache.restore(jspUri, scratchDir)) {
+            restoredFromBuildCache(file, jspUri);
+            return;
+          }
+          compiledJspFiles.add(jspUri);
+        }
+        if (generatedSources != null) {
+          generatedSources.add(clctxt.getServletJavaFileName());
+        }
+        clc.compile(compile, true);
+      }
+      if (compilationBatch != null && compilationBatch.contains(jspUri)) {
+        // mapped once the batch is compiled, if it compiles
+        batchedFiles.put(jspUri, file);
+      } else {
+        generateWebMapping(file, clctxt);
+      }
+      if (showSuccess) {
+        jspcLog.info(Localizer.getMessage("jspc.built", file));
+      }
+    } catch (JasperException e) {
+      Throwable rootCause = e;
+      while (rootCause instanceof JasperException && ((JasperException) rootCause).getRootCause() != null) {
+        rootCause = ((JasperException) rootCause).getRootCause();
+      }
+      if (rootCause != e) {
+        jspcLog.error(Localizer.getMessage("jspc.error.generalException", file), rootCause);
+      }
+      throw e;
+    } catch (Exception e) {
+      if (e instanceof FileNotFoundException && jspcLog.isWarnEnabled()) {
+        jspcLog.warn(Localizer.getMessage("jspc.error.fileDoesNotExist", e.getMessage()));
+      }
+      throw new JasperException(e);
+    } finally {
+      currentThread.setContextClassLoader(originalClassLoader);
+    }
+
+    if (compilationBatch != null && compilationBatch.contains(jspUri)) {
+      // recorded once the batch is compiled
+      if (compilationBatch.isFull()) {
+        compileBatch();
+      }
+    } else {
+      recordCompilation(jspUri);
+    }
+  }
+
+  /**
+   * Declare the servlet of a jsp whose classes were restored from the build
+   * cache, as if it had been compiled.
+   */
+  private void restoredFromBuildCache(String file, String jspUri) throws JasperException {
+    try {
+      generateWebMapping(file, newCompilationContext(jspUri));
+    } catch (IOException e) {
+      throw new JasperException(e);
+    }
+    if (compileReport != null) {
+      compileReport.setStatus(jspUri, JspCompileReport.Status.FROM_CACHE, null);
+    }
+    recordCompilation(jspUri);
+  }
+
+  @Override
+  public void generateWebMapping(String file, JspCompilationContext clctxt) throws IOException {
+    if (webXmlMappings == null) {
+      super.generateWebMapping(file, clctxt);
+      return;
+    }
+    String className = clctxt.getServletClassName();
+    String packageName = clctxt.getServletPackageName();
+    webXmlMappings.add(packageName.isEmpty() ? className : packageName + "." + className, file.replace('\\', '/'));
+  }
+
+  @Override
+  protected void completeWebXml() {
+    compileBatch();
+    super.completeWebXml();
+  }
+
+  /**
+   * Compile the jsps waiting in the batch and map the servlets of those which
+   * compiled. As for the jsps compiled one by one, an error on one of them is
+   * logged and counted, and does not prevent the others from being compiled.
+   */
+  private void compileBatch() {
+    if (compilationBatch == null || compilationBatch.isEmpty()) {
+      return;
+    }
+    List<String> jspUris = compilationBatch.getJspFiles();
+    Map<String, JasperException> failures;
+    long batchStart = System.nanoTime();
+    try {
+      failures = compilationBatch.compile();
+    } catch (Exception e) {
+      // none of them compiled
+      JasperException failure = e instanceof JasperException ? (JasperException) e : new JasperException(e);
+      failures = new HashMap<>();
+      for (String jspUri : jspUris) {
+        failures.put(jspUri, failure);
+      }
+    } finally {
+      long nanos = System.nanoTime() - batchStart;
+      batchNanos += nanos;
+      if (compileReport != null) {
+        for (String jspUri : jspUris) {
+          compileReport.addTotalTime(jspUri, nanos / jspUris.size());
+        }
+      }
+    }
+    for (String jspUri : jspUris) {
+      JasperException failure = failures.get(jspUri);
+      String file = batchedFiles.remove(jspUri);
+      if (failure == null && file != null) {
+        try {
+          generateWebMapping(file, newCompilationContext(jspUri));
+        } catch (IOException e) {
+          failure = new JasperException(e);
+        }
+      }
+      if (compileReport != null) {
+        reportCompilation(jspUri, failure);
+      }
+      if (failure != null) {
+        batchErrorCount++;
+        compiledJspFiles.remove(jspUri);
+        jspcLog.error(Localizer.getMessage("jspc.error.compilation"), failure);
+      } else {
+        recordCompilation(jspUri);
+      }
+    }
+  }
+
+  private JspCompilationContext newCompilationContext(String jspUri) {
+    JspCompilationContext clctxt = new JspCompilationContext(jspUri, this, context, null, rctxt);
+    if (targetPackage != null) {
+      clctxt.setBasePackageName(targetPackage);
+    }
+    return clctxt;
+  }
+
+  /**
+   * Add the dependants of the freshly compiled jsp to the manifest, and its
+   * classes to the build cache. The dependants are read from the static
+   * initializer of the generated servlet, where the Jasper runtime finds them to
+   * know if a jsp needs to be recompiled, without loading its class.
+   */
+  private void recordCompilation(String jspUri) {
+    boolean storable = compiledJspFiles.remove(jspUri);
+    if (compilationManifest == null && !storable) {
+      return;
+    }
+    JspCompilationContext clctxt = newCompilationContext(jspUri);
+    File classFile = new File(clctxt.getClassFileName());
+    if (!classFile.isFile()) {
+      return;
+    }
+    String className = clctxt.getServletClassName();
+    File[] classFiles = classFile.getParentFile().listFiles((dir, name) -> isClassFile(name, className));
+    List<String> outputs = new ArrayList<>();
+    for (File output : classFiles) {
+      outputs.add(scratchDir.toPath().relativize(output.toPath()).toString().replace('\\', '/'));
+    }
+
+    try {
+      Map<String, Long> dependants = ServletClassFile.getDependants(Files.readAllBytes(classFile.toPath()));
+      if (compilationManifest != null) {
+        compilationManifest.record(jspUri, new File(uriRoot, jspUri).lastModified(), dependants, outputs);
+      }
+      if (storable) {
+        buildCache.store(jspUri, dependants.keySet(), getBuildCacheOutputs(classFiles), scratchDir);
+      }
+    } catch (IOException | RuntimeException e) {
+      // the jsp will simply be considered as stale next time
+      if (log.isDebugEnabled()) {
+        log.debug("Unable to read dependants of " + jspUri, e);
+      }
+    }
+  }
+
+  /**
+   * @param classFiles the classes of the servlet
+   * @return the files of the servlet and of the tag files it uses, directly or
+   *         through other tag files, relative to the output directory
+   */
+  private List<String> getBuildCacheOutputs(File[] classFiles) throws IOException {
+    String tagPackage = getGeneratedTagFilePackageName().replace('.', '/') + "/";
+    Set<File> outputs = new LinkedHashSet<>();
+    Deque<File> toScan = new ArrayDeque<>();
+    for (File classFile : classFiles) {
+      outputs.add(classFile);
+      toScan.add(classFile);
+    }
+    while (!toScan.isEmpty()) {
+      File classFile = toScan.poll();
+      if (!classFile.getName().endsWith(".class")) {
+        continue;
+      }
+      for (String referenced : ServletClassFile.getReferencedClasses(Files.readAllBytes(classFile.toPath()))) {
+        if (!referenced.startsWith(tagPackage)) {
+          continue;
+        }
+        File tagClassFile = new File(scratchDir, referenced + ".class");
+        String tagClassName = tagClassFile.getName().substring(0, tagClassFile.getName().length() - 6);
+        File[] tagClassFiles = tagClassFile.getParentFile().listFiles((dir, name) -> isClassFile(name, tagClassName));
+        if (tagClassFiles != null) {
+          for (File tagFile : tagClassFiles) {
+            if (outputs.add(tagFile)) {
+              toScan.add(tagFile);
+            }
+          }
+        }
+      }
+    }
+    List<String> relativeOutputs = new ArrayList<>();
+    for (File output : outputs) {
+      relativeOutputs.add(scratchDir.toPath().relativize(output.toPath()).toString().replace('\\', '/'));
+    }
+    return relativeOutputs;
+  }
+
+  /**
+   * @return true for the class, the inner classes and the SMAP of a servlet or
+   *         of a tag handler
+   */
+  private static boolean isClassFile(String fileName, String className) {
+    return fileName.equals(className + ".class") || fileName.equals(className + ".class.smap")
+        || fileName.startsWith(className + "$") && fileName.endsWith(".class");
+  }
 }
@@ -0,0 +1,282 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of every jsp of the build: the time spent in each phase of its
+ * compilation, the size of its classes and whether it compiled.
+ * <p>
+ * The total is measured for every compiler. The phases are only measured by
+ * org.apache.jasper.compiler.ParallelJDTCompiler, they are left empty for the
+ * other compilers:
+ * <ul>
+ * <li>parse: parsing the jsp and its includes</li>
+ * <li>generate: validating the page, loading its tag files and generating the
+ * servlet</li>
+ * <li>compile: compiling the servlet with JDT, shared evenly between the jsps of
+ * a batch</li>
+ * <li>write: writing the class files</li>
+ * </ul>
+ * The report is written in JSON, or in CSV when the file name ends with .csv,
+ * the most expensive jsps first.
+ */
+public class JspCompileReport {
+
+  public enum Phase {
+    PARSE, GENERATE, COMPILE, WRITE
+  }
+
+  public enum Status {
+    COMPILED("compiled"), FAILED("failed"), UP_TO_DATE("upToDate"), FROM_CACHE("fromCache");
+
+    private final String label;
+
+    Status(String label) {
+      this.label = label;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  private static final String[] COLUMNS = { "jsp", "status", "totalMillis", "parseMillis", "generateMillis",
+      "compileMillis", "writeMillis", "classSize", "error" };
+
+  private final Map<String, JspCost> costs = new ConcurrentHashMap<>();
+
+  /**
+   * @param jspUri the jsp, relative to the webapp root
+   * @param phase  the phase
+   * @param nanos  time spent in it
+   */
+  public void addTime(String jspUri, Phase phase, long nanos) {
+    getCost(jspUri).addTime(phase, nanos);
+  }
+
+  /**
+   * @param jspUri the jsp, relative to the webapp root
+   * @param nanos  time spent on it, whatever the phase
+   */
+  public void addTotalTime(String jspUri, long nanos) {
+    getCost(jspUri).addTotalTime(nanos);
+  }
+
+  /**
+   * @param jspUri the jsp, relative to the webapp root
+   * @param bytes  size of one of its class files
+   */
+  public void addClassSize(String jspUri, long bytes) {
+    getCost(jspUri).addClassSize(bytes);
+  }
+
+  /**
+   * @return true if the size of the classes of the jsp is known
+   */
+  public boolean hasClassSize(String jspUri) {
+    JspCost cost = costs.get(jspUri);
+    return cost != null && cost.classSize >= 0;
+  }
+
+  /**
+   * @param jspUri the jsp, relative to the webapp root
+   * @param status how its compilation ended
+   * @param error  the error if it failed, null otherwise
+   */
+  public void setStatus(String jspUri, Status status, Throwable error) {
+    getCost(jspUri).setStatus(status, error == null ? null : String.valueOf(error.getMessage()));
+  }
+
+  /**
+   * @return how the compilation of the jsp ended, null if it is not over
+   */
+  public Status getStatus(String jspUri) {
+    JspCost cost = costs.get(jspUri);
+    return cost == null ? null : cost.getStatus();
+  }
+
+  public int size() {
+    return costs.size();
+  }
+
+  /**
+   * @param ratio part of the total time, between 0 and 1
+   * @return the smallest number of jsps whose compilation took that part of the
+   *         total time
+   */
+  public int getCostliestCount(double ratio) {
+    List<JspCost> sorted = getSortedCosts();
+    long total = 0;
+    for (JspCost cost : sorted) {
+      total += cost.totalNanos;
+    }
+    long cumulated = 0;
+    int count = 0;
+    for (JspCost cost : sorted) {
+      if (cumulated >= total * ratio) {
+        break;
+      }
+      cumulated += cost.totalNanos;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Write the report, in CSV if the file name ends with .csv, in JSON otherwise.
+   *
+   * @param file the report, replaced if it exists
+   */
+  public void writeTo(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+        writeCsv(writer);
+      } else {
+        writeJson(writer);
+      }
+    }
+  }
+
+  void writeCsv(Writer writer) throws IOException {
+    writer.write(String.join(",", COLUMNS));
+    writer.write('\n');
+    for (JspCost cost : getSortedCosts()) {
+      Object[] values = cost.getValues();
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) {
+          writer.write(',');
+        }
+        if (values[i] instanceof String) {
+          writer.write('"' + ((String) values[i]).replace("\"", "\"\"") + '"');
+        } else if (values[i] != null) {
+          writer.write(values[i].toString());
+        }
+      }
+      writer.write('\n');
+    }
+  }
+
+  void writeJson(Writer writer) throws IOException {
+    writer.write("{\n  \"jsps\": [");
+    String separator = "\n";
+    for (JspCost cost : getSortedCosts()) {
+      writer.write(separator);
+      writer.write("    {");
+      Object[] values = cost.getValues();
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) {
+          writer.write(", ");
+        }
+        writer.write('"' + COLUMNS[i] + "\": ");
+        writer.write(values[i] instanceof String ? toJsonString((String) values[i]) : String.valueOf(values[i]));
+      }
+      writer.write("}");
+      separator = ",\n";
+    }
+    writer.write("\n  ]\n}\n");
+  }
+
+  private static String toJsonString(String value) {
+    StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        json.append("\\\"");
+        break;
+      case '\\':
+        json.append("\\\\");
+        break;
+      case '\n':
+        json.append("\\n");
+        break;
+      case '\r':
+        json.append("\\r");
+        break;
+      case '\t':
+        json.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          json.append(String.format("\\u%04x", (int) c));
+        } else {
+          json.append(c);
+        }
+      }
+    }
+    return json.append('"').toString();
+  }
+
+  private List<JspCost> getSortedCosts() {
+    List<JspCost> sorted = new ArrayList<>(costs.values());
+    sorted.sort(Comparator.comparingLong((JspCost cost) -> cost.totalNanos).reversed()
+        .thenComparing(cost -> cost.jspUri));
+    return sorted;
+  }
+
+  private JspCost getCost(String jspUri) {
+    return costs.computeIfAbsent(jspUri, JspCost::new);
+  }
+
+  private static class JspCost {
+    private final String jspUri;
+    private final long[] phaseNanos = { -1, -1, -1, -1 };
+    private long totalNanos;
+    private long classSize = -1;
+    private Status status;
+    private String error;
+
+    JspCost(String jspUri) {
+      this.jspUri = jspUri;
+    }
+
+    synchronized void addTime(Phase phase, long nanos) {
+      phaseNanos[phase.ordinal()] = Math.max(0, phaseNanos[phase.ordinal()]) + nanos;
+    }
+
+    synchronized void addTotalTime(long nanos) {
+      totalNanos += nanos;
+    }
+
+    synchronized void addClassSize(long bytes) {
+      classSize = Math.max(0, classSize) + bytes;
+    }
+
+    synchronized void setStatus(Status status, String error) {
+      this.status = status;
+      this.error = error;
+    }
+
+    synchronized Status getStatus() {
+      return status;
+    }
+
+    synchronized Object[] getValues() {
+      return new Object[] { jspUri, status == null ? null : status.toString(), toMillis(totalNanos),
+          toMillis(phaseNanos[Phase.PARSE.ordinal()]), toMillis(phaseNanos[Phase.GENERATE.ordinal()]),
+          toMillis(phaseNanos[Phase.COMPILE.ordinal()]), toMillis(phaseNanos[Phase.WRITE.ordinal()]),
+          classSize < 0 ? null : classSize, error };
+    }
+
+    private static Long toMillis(long nanos) {
+      return nanos < 0 ? null : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+  }
+}
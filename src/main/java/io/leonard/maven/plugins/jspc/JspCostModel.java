@@ -0,0 +1,207 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers, for every jsp, its size, its number of includes and how long it
+ * took to compile during the previous run, so that the next run can start with
+ * the most expensive jsps and spread them between the threads
+ * (longest-processing-time scheduling).
+ * <p>
+ * The cost of a jsp which was never compiled is estimated from its size and its
+ * number of includes, using the compile times measured on the other jsps when
+ * there are some.
+ */
+public class JspCostModel {
+
+  private static final String JSP = "jsp";
+  private static final String SEPARATOR = "\t";
+
+  /** Used until some compile times have been measured */
+  private static final double DEFAULT_MILLIS_PER_KB = 5;
+  private static final long MILLIS_PER_INCLUDE = 10;
+
+  private static final Pattern INCLUDE = Pattern
+      .compile("<%@\\s*include\\s|<jsp:include\\s|<jsp:directive\\.include\\s|<c:import\\s");
+
+  private final Map<String, Cost> costs = new ConcurrentHashMap<>();
+
+  private long predictedMakespan;
+
+  /**
+   * Read the costs of the previous run. If there is no file, or if it does not
+   * exist or cannot be read, an empty model is returned and all the costs are
+   * estimated.
+   *
+   * @param file the cost file, or null
+   * @return the costs of the previous run
+   */
+  public static JspCostModel load(File file) {
+    JspCostModel model = new JspCostModel();
+    if (file == null || !file.isFile()) {
+      return model;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(SEPARATOR);
+        if (JSP.equals(fields[0]) && fields.length == 5) {
+          model.costs.put(fields[1],
+              new Cost(Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Long.parseLong(fields[4])));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      model.costs.clear();
+    }
+    return model;
+  }
+
+  public void save(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists()) {
+      parent.mkdirs();
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Cost> jsp : new TreeMap<>(costs).entrySet()) {
+        Cost cost = jsp.getValue();
+        writer.write(JSP + SEPARATOR + jsp.getKey() + SEPARATOR + cost.size + SEPARATOR + cost.includes + SEPARATOR
+            + cost.compileMillis);
+        writer.newLine();
+      }
+    }
+  }
+
+  /**
+   * Assign the jsps to the workers, most expensive first, each one to the worker
+   * with the least work assigned so far.
+   *
+   * @param jspFiles        the jsps to compile, relative to the webapp root
+   * @param webAppDirectory the webapp root
+   * @param workers         number of workers
+   * @param upToDateJspFiles jsps which will not be compiled again, they cost
+   *                         nothing
+   * @return for each worker, its jsps, most expensive first
+   */
+  public List<List<String>> schedule(List<String> jspFiles, File webAppDirectory, int workers,
+      Set<String> upToDateJspFiles) {
+    Map<String, Long> estimates = new ConcurrentHashMap<>();
+    double millisPerKb = getMillisPerKb();
+    jspFiles.parallelStream().forEach(jsp -> estimates.put(jsp,
+        upToDateJspFiles.contains(jsp) ? 0L : estimate(jsp, webAppDirectory, millisPerKb)));
+
+    List<String> sorted = new ArrayList<>(jspFiles);
+    sorted.sort(Comparator.comparing((String jsp) -> estimates.get(jsp)).reversed().thenComparing(jsp -> jsp));
+
+    List<List<String>> assignments = new ArrayList<>();
+    long[] loads = new long[workers];
+    PriorityQueue<Integer> leastLoaded = new PriorityQueue<>(
+        Comparator.comparingLong((Integer worker) -> loads[worker]).thenComparingInt(worker -> worker));
+    for (int worker = 0; worker < workers; worker++) {
+      assignments.add(new ArrayList<>());
+      leastLoaded.add(worker);
+    }
+    for (String jsp : sorted) {
+      int worker = leastLoaded.poll();
+      assignments.get(worker).add(jsp);
+      loads[worker] += estimates.get(jsp);
+      leastLoaded.add(worker);
+    }
+
+    predictedMakespan = 0;
+    for (long load : loads) {
+      predictedMakespan = Math.max(predictedMakespan, load);
+    }
+    return assignments;
+  }
+
+  /**
+   * @return the makespan, in milliseconds, of the last {@link #schedule} according
+   *         to the estimated costs
+   */
+  public long getPredictedMakespan() {
+    return predictedMakespan;
+  }
+
+  /**
+   * @param jspFile       the jsp, relative to the webapp root
+   * @param compileMillis time measured to compile it
+   */
+  public void recordCompileTime(String jspFile, long compileMillis) {
+    costs.computeIfPresent(jspFile, (jsp, cost) -> new Cost(cost.size, cost.includes, compileMillis));
+  }
+
+  /**
+   * Forget about the jsps which are not part of the current run any more.
+   */
+  public void retainAll(List<String> jspFiles) {
+    costs.keySet().retainAll(jspFiles);
+  }
+
+  private long estimate(String jspFile, File webAppDirectory, double millisPerKb) {
+    File file = new File(webAppDirectory, jspFile);
+    long size = file.length();
+    Cost cost = costs.get(jspFile);
+    if (cost == null || cost.size != size) {
+      // unknown or modified: count the includes and forget the measured time
+      cost = new Cost(size, countIncludes(file), -1);
+      costs.put(jspFile, cost);
+    }
+    if (cost.compileMillis >= 0) {
+      return cost.compileMillis;
+    }
+    return Math.round(size / 1024d * millisPerKb) + cost.includes * MILLIS_PER_INCLUDE;
+  }
+
+  private double getMillisPerKb() {
+    long millis = 0;
+    long size = 0;
+    for (Cost cost : costs.values()) {
+      if (cost.compileMillis >= 0) {
+        millis += Math.max(0, cost.compileMillis - cost.includes * MILLIS_PER_INCLUDE);
+        size += cost.size;
+      }
+    }
+    return size == 0 ? DEFAULT_MILLIS_PER_KB : millis / (size / 1024d);
+  }
+
+  static int countIncludes(File file) {
+    try {
+      String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+      Matcher matcher = INCLUDE.matcher(content);
+      int includes = 0;
+      while (matcher.find()) {
+        includes++;
+      }
+      return includes;
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static class Cost {
+    private final long size;
+    private final int includes;
+    private final long compileMillis;
+
+    Cost(long size, int includes, long compileMillis) {
+      this.size = size;
+      this.includes = includes;
+      this.compileMillis = compileMillis;
+    }
+  }
+}
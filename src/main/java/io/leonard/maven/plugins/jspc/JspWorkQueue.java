@@ -0,0 +1,86 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jsps waiting to be compiled, shared by all the {@link JspcWorker}s.
+ * <p>
+ * Each worker owns a deque filled before the compilation starts and takes its
+ * jsps from the head, one at a time. A worker whose deque is empty steals from
+ * the tail of the other deques, so that no thread stays idle while another one
+ * still has jsps waiting, whatever the cost of each jsp.
+ */
+public class JspWorkQueue {
+
+  private final ConcurrentLinkedDeque<String>[] deques;
+  private final int[] initialSizes;
+  private final AtomicInteger[] processed;
+  private final AtomicInteger[] stolen;
+
+  /**
+   * @param assignments for each worker, the jsps to put in its deque, in the
+   *                    order they must be compiled
+   */
+  @SuppressWarnings("unchecked")
+  public JspWorkQueue(List<List<String>> assignments) {
+    int workers = assignments.size();
+    deques = new ConcurrentLinkedDeque[workers];
+    initialSizes = new int[workers];
+    processed = new AtomicInteger[workers];
+    stolen = new AtomicInteger[workers];
+    for (int worker = 0; worker < workers; worker++) {
+      deques[worker] = new ConcurrentLinkedDeque<>(assignments.get(worker));
+      initialSizes[worker] = assignments.get(worker).size();
+      processed[worker] = new AtomicInteger();
+      stolen[worker] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * @param worker index of the worker asking for a jsp
+   * @return the next jsp of the worker, a jsp stolen from another worker if it
+   *         has nothing left, or null when all the jsps have been taken
+   */
+  public String poll(int worker) {
+    String jsp = deques[worker].pollFirst();
+    if (jsp == null) {
+      for (int i = 1; i < deques.length && jsp == null; i++) {
+        jsp = deques[(worker + i) % deques.length].pollLast();
+      }
+      if (jsp != null) {
+        stolen[worker].incrementAndGet();
+      }
+    }
+    if (jsp != null) {
+      processed[worker].incrementAndGet();
+    }
+    return jsp;
+  }
+
+  public int getWorkerCount() {
+    return deques.length;
+  }
+
+  /**
+   * @return number of jsps put in the deque of the worker before the compilation
+   */
+  public int getInitialSize(int worker) {
+    return initialSizes[worker];
+  }
+
+  /**
+   * @return number of jsps taken by the worker, stolen ones included
+   */
+  public int getProcessedCount(int worker) {
+    return processed[worker].get();
+  }
+
+  /**
+   * @return number of jsps the worker took from the deque of another worker
+   */
+  public int getStolenCount(int worker) {
+    return stolen[worker].get();
+  }
+}
@@ -15,45 +15,59 @@
 package io.leonard.maven.plugins.jspc;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.MalformedURLException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Handler;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
-import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 import org.apache.jasper.JasperException;
 import org.apache.jasper.JspC;
 import org.apache.jasper.TrimSpacesOption;
+import org.apache.jasper.compiler.ClassBytesCache;
+import org.apache.jasper.compiler.ClassFileCache;
+import org.apache.jasper.compiler.ClasspathIndex;
+import org.apache.jasper.compiler.JspcMojoJDTCompiler;
+import org.apache.jasper.compiler.ParallelJDTCompiler;
+import org.apache.jasper.compiler.TagLibraryInfoCache;
+import org.apache.jasper.compiler.TldScanCache;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -65,7 +79,6 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.StringUtils;
-import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 import org.xml.sax.SAXException;
 
@@ -107,8 +120,8 @@ public class JspcMojo extends AbstractMojo {
    * File into which to generate the &lt;servlet&gt; and &lt;servlet-mapping&gt;
    * tags for the compiled jsps. <br>
    * <p>
-   * If multithreading mode is active (threads > 1), then this filename will be
-   * suffixed by ".threadIndex" (example : webfrag.xml.3).
+   * Whatever the number of threads, a single fragment is written, with the jsps
+   * sorted by path.
    */
   @Parameter(defaultValue = "${basedir}/target/webfrag.xml")
   private String webXmlFragment;
@@ -208,7 +221,8 @@ public class JspcMojo extends AbstractMojo {
 
   /**
    * The link to xsd schema to validate web xml file after merging, if
-   * mergeFragment parameter is true.
+   * mergeFragment parameter is true. The web-app schemas of Java EE and Jakarta
+   * EE are read from the servlet API of the plugin instead of being downloaded.
    */
   @Parameter(defaultValue = "http://xmlns.jcp.org/xml/ns/javaee/web-app_3_1.xsd")
   private String webXmlXsdSchema;
@@ -239,6 +253,9 @@ public class JspcMojo extends AbstractMojo {
   private boolean proxyEnvSet;
   private String httpProxyHostBackup;
   private String httpProxyPortBackup;
+
+  /** Schema of web.xml compiled while the jsps are */
+  private CompletableFuture<Schema> webXmlSchemaLoader;
   private String httpNoProxyHostsBackup;
 
   /**
@@ -269,12 +286,33 @@ public class JspcMojo extends AbstractMojo {
   private boolean stopAtFirstError;
 
   /**
-   * The number of threads will be used for compile all of the jsps. Number total
-   * of jsps will be divided by thread number. Each part will be given to
-   * differents thread.
+   * The number of threads compiling the jsps. The jsps are put in a queue
+   * shared by the threads: each thread starts with its own share of the jsps,
+   * the ones expected to take the longest to compile first (see
+   * <b>jspCostFile</b>), and once it has compiled all of them takes the
+   * remaining ones of the other threads, one at a time, so that no thread is
+   * idle while jsps are left.
+   * <p>
+   * Either a number, a multiple of the available processors such as "1.5C" (as
+   * for the -T option of Maven), or "auto" to size the pool from the available
+   * processors, the maximum heap and the number of jsps. With "auto", the heap
+   * used by the first jsps is measured and fewer threads are allowed to work at
+   * the same time if the heap is too small for all of them.
    */
-  @Parameter(defaultValue = "1")
-  private int threads;
+  @Parameter(defaultValue = "1", property = "jspc.threads")
+  private String threads;
+
+  private int threadCount = 1;
+
+  /**
+   * Executor running the threads: "fixed" (a pool of platform threads),
+   * "forkjoin" (a ForkJoinPool) or "virtual" (one virtual thread per thread,
+   * needs Java 21 at runtime, falls back to "fixed" otherwise).
+   */
+  @Parameter(defaultValue = WorkerExecutors.FIXED, property = "jspc.executor")
+  private String executor;
+
+  private ThreadCountTuner threadCountTuner;
 
   /**
    * Whether Jsp Tag Pooling should be enabled.
@@ -353,7 +391,207 @@ public class JspcMojo extends AbstractMojo {
   @Parameter
   private Boolean defaultTldScan;
 
-  private Map<String, NameEnvironmentAnswer> resourcesCache = new ConcurrentHashMap<>();
+  /**
+   * Only look in the jars of the classpath for the tag libraries used by the
+   * jsps. The selected jsps, their static includes, preludes and codas and the
+   * tag files they use are read for the uris of their taglib directives and
+   * xmlns declarations, then the jars are scanned in the order of the classpath
+   * until all of these uris are found. Unlike <b>tldSkip</b> and <b>tldScan</b>,
+   * nothing needs to be maintained when a dependency is added.
+   */
+  @Parameter(defaultValue = "false", property = "jspc.lazyTldScan")
+  private boolean lazyTldScan;
+
+  private List<String> tldScanJspFiles;
+
+  /**
+   * Only compile the jsps which changed since the previous run. A manifest
+   * mapping each jsp to its static includes, tag files, TLDs and generated
+   * classes is written after each run (see <b>incrementalManifest</b>), and a
+   * jsp is compiled again only if itself or one of these changed, if one of its
+   * classes was deleted, or if the compiler options or the classpath changed.
+   */
+  @Parameter(defaultValue = "false", property = "jspc.incremental")
+  private boolean incremental;
+
+  /**
+   * File where the dependencies of the compiled jsps are stored between two
+   * runs when <b>incremental</b> is true.
+   */
+  @Parameter(defaultValue = "${project.build.directory}/jspc/incremental-manifest.txt")
+  private File incrementalManifest;
+
+  private CompilationManifest compilationManifest;
+
+  private Set<String> upToDateJspFiles = Collections.emptySet();
+
+  /**
+   * Maximum number of parsed dependency class files (servlet API, JDK,
+   * taglibs...) kept in memory and shared by all the threads. Only used by the
+   * compilerClass "org.apache.jasper.compiler.ParallelJDTCompiler".
+   */
+  @Parameter(defaultValue = "10000")
+  private int classFileCacheSize;
+
+  private ClassFileCache resourcesCache;
+
+  /**
+   * Keep the dependency class files read by the compilers from one build to the
+   * next in <b>classCacheFile</b>, so that a new JVM does not have to inflate
+   * them from the jars or to ask the JDK for them again. The classes of a jar
+   * are read again when the jar changed. Only used by the compilerClass
+   * "org.apache.jasper.compiler.ParallelJDTCompiler" or
+   * "org.apache.jasper.compiler.JspcMojoJDTCompiler".
+   */
+  @Parameter(defaultValue = "true", property = "jspc.persistentClassCache")
+  private boolean persistentClassCache;
+
+  /**
+   * File of the class cache when <b>persistentClassCache</b> is true, read in
+   * memory when the build starts. A CI can keep it from one job to the next.
+   */
+  @Parameter(defaultValue = "${project.build.directory}/jspc/class-cache.bin", property = "jspc.classCacheFile")
+  private File classCacheFile;
+
+  private ClassBytesCache classBytesCache;
+
+  /**
+   * Keep the TLDs found in the jars of the classpath from one build to the next
+   * in <b>tldCacheFile</b>, so that the jars which did not change are neither
+   * opened nor their TLDs parsed again. A jar is scanned again when its size, its
+   * date or its content changed.
+   */
+  @Parameter(defaultValue = "true", property = "jspc.persistentTldCache")
+  private boolean persistentTldCache;
+
+  /**
+   * File of the TLD cache when <b>persistentTldCache</b> is true.
+   */
+  @Parameter(defaultValue = "${project.build.directory}/jspc/tld-cache.bin", property = "jspc.tldCacheFile")
+  private File tldCacheFile;
+
+  private TldScanCache tldScanCache;
+
+  private TagLibraryInfoCache tagLibraryInfoCache;
+
+  /**
+   * Restore the classes of the jsps compiled by the previous builds, on this
+   * branch or on another one, from <b>buildCacheDirectory</b> instead of
+   * compiling them again. A jsp is restored when itself, its static includes,
+   * tag files and TLDs, the compiler options, the web.xml and the classpath have
+   * the same content as when it was compiled.
+   */
+  @Parameter(defaultValue = "false", property = "jspc.buildCache")
+  private boolean buildCache;
+
+  /**
+   * Directory of the build cache, shared by the builds of the machine.
+   */
+  @Parameter(defaultValue = "${user.home}/.m2/jspc-build-cache", property = "jspc.buildCacheDirectory")
+  private File buildCacheDirectory;
+
+  /**
+   * Maximum size of the build cache in megabytes. The least recently used
+   * entries are evicted at the end of the build beyond it.
+   */
+  @Parameter(defaultValue = "1024", property = "jspc.buildCacheMaxSize")
+  private long buildCacheMaxSize;
+
+  /**
+   * Url of a build cache shared by the machines of a CI, read and written with
+   * GET and PUT requests. The jsps missing from <b>buildCacheDirectory</b> are
+   * downloaded from it, and the ones compiled by the build are uploaded to it.
+   * Setting it enables the build cache.
+   */
+  @Parameter(property = "jspc.remoteBuildCacheUrl")
+  private String remoteBuildCacheUrl;
+
+  /**
+   * Upload the jsps compiled by the build to the remote build cache. Usually
+   * only the CI does.
+   */
+  @Parameter(defaultValue = "true", property = "jspc.remoteBuildCachePush")
+  private boolean remoteBuildCachePush;
+
+  /**
+   * Token sent to the remote build cache in an Authorization: Bearer header,
+   * which the servers reachable from other machines require to accept the
+   * uploads. Better given by the settings or the environment than by the pom.
+   */
+  @Parameter(property = "jspc.remoteBuildCacheToken")
+  private String remoteBuildCacheToken;
+
+  /**
+   * Timeout of the connection and of each request to the remote build cache, in
+   * milliseconds. After the first timeout, the remote build cache is not used
+   * anymore by the build.
+   */
+  @Parameter(defaultValue = "10000", property = "jspc.remoteBuildCacheTimeout")
+  private long remoteBuildCacheTimeout;
+
+  private RemoteBuildCache remoteBuildCache;
+
+  @Parameter(defaultValue = "${plugin.version}", readonly = true)
+  private String pluginVersion;
+
+  private JspBuildCache jspBuildCache;
+
+  /**
+   * Number of jsps of a thread whose generated sources are compiled together by
+   * a single JDT compiler, so that the types they use are resolved once per batch
+   * instead of once per jsp. 1 compiles the jsps one by one. Only used by the
+   * compilerClass "org.apache.jasper.compiler.ParallelJDTCompiler".
+   */
+  @Parameter(defaultValue = "1")
+  private int compileBatchSize;
+
+  /**
+   * Compile the generated servlets without writing their .java files to the
+   * disk. Ignored when keepSources is true. Only used by the compilerClass
+   * "org.apache.jasper.compiler.ParallelJDTCompiler".
+   */
+  @Parameter(defaultValue = "false", property = "jspc.sourcesInMemory")
+  private boolean sourcesInMemory;
+
+  private ClasspathIndex classpathIndex;
+
+  private WebXmlMappings webXmlMappings;
+
+  /** .java files of the jsps compiled by this run */
+  private Set<String> generatedSources = ConcurrentHashMap.newKeySet();
+
+  /** Directory of the .java files of the tag files, null until known */
+  private File generatedTagSources;
+
+  private JspWorkQueue jspWorkQueue;
+
+  /**
+   * File in which the size, the number of includes and the compile time of each
+   * jsp are kept from one run to the next, such as
+   * ${project.build.directory}/jspc/jsp-costs.txt. The jsps which took the
+   * longest to compile are started first and spread between the threads.
+   * Without it, the compile times are estimated from the size and the includes
+   * of the jsps.
+   */
+  @Parameter(property = "jspc.jspCostFile")
+  private File jspCostFile;
+
+  private JspCostModel jspCostModel;
+
+  /**
+   * Report of the cost of each jsp: its status, the size of its classes, its
+   * compile time and, with org.apache.jasper.compiler.ParallelJDTCompiler, the
+   * time spent parsing it (counted in the generation unless sourcesInMemory is
+   * set), generating its servlet, compiling and writing its classes. The most
+   * expensive jsps come first. Written in CSV if the file name
+   * ends with .csv, in JSON otherwise, such as
+   * ${project.build.directory}/jspc/compile-report.json. No report is written
+   * when it is not set.
+   */
+  @Parameter(property = "jspc.compileReport")
+  private File compileReport;
+
+  private JspCompileReport jspCompileReport;
 
   private Handler[] handlers;
 
@@ -377,6 +615,7 @@ public class JspcMojo extends AbstractMojo {
       getLog().info("webXmlXsdSchema=" + webXmlXsdSchema);
       getLog().info("stopAtFirstError=" + stopAtFirstError);
       getLog().info("threads=" + threads);
+      getLog().info("executor=" + executor);
       getLog().info("enableJspTagPooling=" + enableJspTagPooling);
       getLog().info("trimSpaces=" + trimSpaces);
       getLog().info("genStringAsCharArray=" + genStringAsCharArray);
@@ -384,6 +623,22 @@ public class JspcMojo extends AbstractMojo {
       getLog().info("compilerClass=" + compilerClass);
       getLog().info("strictQuoteEscaping=" + strictQuoteEscaping);
       getLog().info("skip=" + skip);
+      getLog().info("incremental=" + incremental);
+      getLog().info("compileBatchSize=" + compileBatchSize);
+      getLog().info("sourcesInMemory=" + sourcesInMemory);
+      getLog().info("compileReport=" + compileReport);
+      getLog().info("persistentClassCache=" + persistentClassCache);
+      getLog().info("classCacheFile=" + classCacheFile);
+      getLog().info("persistentTldCache=" + persistentTldCache);
+      getLog().info("tldCacheFile=" + tldCacheFile);
+      getLog().info("lazyTldScan=" + lazyTldScan);
+      getLog().info("buildCache=" + buildCache);
+      getLog().info("buildCacheDirectory=" + buildCacheDirectory);
+      getLog().info("buildCacheMaxSize=" + buildCacheMaxSize);
+      getLog().info("remoteBuildCacheUrl=" + remoteBuildCacheUrl);
+      getLog().info("remoteBuildCachePush=" + remoteBuildCachePush);
+      getLog().info("remoteBuildCacheToken=" + (StringUtils.isBlank(remoteBuildCacheToken) ? "" : "****"));
+      getLog().info("remoteBuildCacheTimeout=" + remoteBuildCacheTimeout);
     }
     if ( skip ) {
       getLog().info( "Not compiling jsp sources" );
@@ -394,6 +649,7 @@ public class JspcMojo extends AbstractMojo {
 
       installLogHandler();
       prepare();
+      loadWebXmlSchemaInBackground();
       compile();
       cleanupSrcs();
       mergeWebXml();
@@ -438,17 +694,281 @@ public class JspcMojo extends AbstractMojo {
     if (verbose) {
       getLog().info("Files selected to precompile: " + StringUtils.join(jspFiles, ", "));
     }
+    if (incremental) {
+      initIncrementalBuild(urls, jspFiles);
+    }
 
-    ExecutorService executor = Executors.newFixedThreadPool(threads);
-    List<Future<String>> results = executor.invokeAll(initJspcWorkers(classpathStr, jspFiles, initJspList(jspFiles)));
-    executor.shutdown();
+    tldScanJspFiles = lazyTldScan ? initJspList(jspFiles) : null;
+    initThreadCount(jspFiles.length);
+    if (isIndexedCompiler()) {
+      resourcesCache = new ClassFileCache(classFileCacheSize);
+      classBytesCache = persistentClassCache ? ClassBytesCache.load(classCacheFile.toPath()) : null;
+      classpathIndex = initClasspathIndex(urls, currentClassLoader);
+    }
+    tldScanCache = persistentTldCache ? TldScanCache.load(tldCacheFile.toPath()) : null;
+    jspBuildCache = buildCache || StringUtils.isNotBlank(remoteBuildCacheUrl) ? initBuildCache(urls) : null;
+    tagLibraryInfoCache = new TagLibraryInfoCache();
+    webXmlMappings = new WebXmlMappings();
+    jspCompileReport = compileReport == null ? null : new JspCompileReport();
+    List<JspcWorker> workers = initJspcWorkers(classpathStr, jspFiles, initJspList(jspFiles));
+    saveTldScanCache();
+    long start = System.currentTimeMillis();
+    ExecutorService executorService = initExecutor();
+    List<Future<String>> results;
+    try {
+      results = executorService.invokeAll(workers);
+    } finally {
+      executorService.shutdown();
+    }
+    if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+      getLog().warn("Some jsp threads are still running");
+    }
+    long makespan = System.currentTimeMillis() - start;
 
     getLog().info("Number total of jsps : " + jspFiles.length);
+    logJspWorkQueueStatistics();
+    getLog().info("Predicted makespan " + jspCostModel.getPredictedMakespan() + " ms, actual makespan " + makespan
+        + " ms");
+    if (jspCostFile != null) {
+      jspCostModel.save(jspCostFile);
+    }
+    if (resourcesCache != null && resourcesCache.getHitCount() + resourcesCache.getMissCount() > 0) {
+      getLog().info("Statistics of the " + resourcesCache);
+    }
+    if (tagLibraryInfoCache.getHitCount() + tagLibraryInfoCache.getMissCount() > 0) {
+      getLog().info("Statistics of the " + tagLibraryInfoCache);
+    }
+    if (classpathIndex != null && getLog().isDebugEnabled()) {
+      getLog().debug("Statistics of the " + classpathIndex);
+    }
+    saveClassBytesCache();
+    evictBuildCache();
+    writeCompileReport();
+    webXmlMappings.writeTo(Paths.get(webXmlFragment));
     manageResults(results);
+    if (incremental) {
+      compilationManifest.save(incrementalManifest);
+    }
 
     Thread.currentThread().setContextClassLoader(currentClassLoader);
   }
 
+  private void initThreadCount(int jspCount) throws MojoExecutionException {
+    try {
+      threadCount = ThreadCountTuner.getThreadCount(threads, jspCount, Runtime.getRuntime().availableProcessors(),
+          Runtime.getRuntime().maxMemory());
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    }
+    if (ThreadCountTuner.AUTO.equalsIgnoreCase(threads.trim())) {
+      threadCountTuner = new ThreadCountTuner(threadCount, 2 * threadCount, getLog());
+      getLog().info("threads=auto: using " + threadCount + " threads");
+    } else {
+      threadCountTuner = null;
+    }
+  }
+
+  private void saveClassBytesCache() {
+    if (classBytesCache == null) {
+      return;
+    }
+    getLog().info("Statistics of the " + classBytesCache);
+    if (classBytesCache.getAddedCount() > 0) {
+      try {
+        classBytesCache.save(classCacheFile.toPath());
+      } catch (IOException e) {
+        // the next build reads the classes from the jars again
+        getLog().warn("Unable to save the class cache " + classCacheFile, e);
+      }
+    }
+  }
+
+  private void saveTldScanCache() {
+    if (tldScanCache == null) {
+      return;
+    }
+    getLog().info("Statistics of the " + tldScanCache);
+    if (tldScanCache.getMissCount() > 0 || tldScanCache.getHitCount() < tldScanCache.size()) {
+      try {
+        tldScanCache.save(tldCacheFile.toPath());
+      } catch (IOException e) {
+        // the next build scans the jars again
+        getLog().warn("Unable to save the TLD cache " + tldCacheFile, e);
+      }
+    }
+  }
+
+  private JspBuildCache initBuildCache(List<URL> classpath) throws IOException {
+    long start = System.currentTimeMillis();
+    // the classes of the jsps and tag files of the previous builds are in the
+    // classesDirectory by default, they must not change the fingerprint
+    Path outputDir = Paths.get(generatedClasses);
+    List<Path> generated = Arrays.asList(outputDir.resolve(packageRoot.replace('.', '/')),
+        outputDir.resolve(new JspC().getGeneratedTagFilePackageName().replace('.', '/')));
+    String fingerprint = JspBuildCache.getFingerprint(getBuildOptions(), classpath, getWebXmlFile(), generated);
+    if (getLog().isDebugEnabled()) {
+      getLog().debug("Fingerprint of the build cache computed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    JspBuildCache cache = new JspBuildCache(buildCacheDirectory.toPath(), buildCacheMaxSize * 1024 * 1024,
+        fingerprint, new File(webAppSourceDirectory), getLog());
+    if (StringUtils.isNotBlank(remoteBuildCacheUrl)) {
+      String token = StringUtils.isBlank(remoteBuildCacheToken) ? null : remoteBuildCacheToken.trim();
+      remoteBuildCache = new RemoteBuildCache(URI.create(remoteBuildCacheUrl.trim()), remoteBuildCachePush, token,
+          Duration.ofMillis(remoteBuildCacheTimeout), getLog());
+      cache.setRemote(remoteBuildCache);
+    }
+    return cache;
+  }
+
+  private void evictBuildCache() throws InterruptedException {
+    if (jspBuildCache == null) {
+      return;
+    }
+    if (remoteBuildCache != null) {
+      jspBuildCache.awaitUploads();
+      remoteBuildCache.close();
+    }
+    try {
+      jspBuildCache.evict();
+    } catch (IOException | UncheckedIOException e) {
+      getLog().warn("Unable to evict the old entries of the build cache " + buildCacheDirectory, e);
+    }
+    getLog().info("Statistics of the " + jspBuildCache);
+  }
+
+  private void writeCompileReport() throws IOException {
+    if (jspCompileReport == null) {
+      return;
+    }
+    jspCompileReport.writeTo(compileReport.toPath());
+    getLog().info(jspCompileReport.getCostliestCount(0.8) + " of " + jspCompileReport.size()
+        + " jsps took 80% of the compile time, see " + compileReport);
+  }
+
+  private ExecutorService initExecutor() throws MojoExecutionException {
+    try {
+      return WorkerExecutors.create(executor, threadCount, getLog());
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return true if the compilerClass reads the dependency classes through the
+   *         classpath index and the class caches, which are not built otherwise
+   */
+  private boolean isIndexedCompiler() {
+    return ParallelJDTCompiler.class.getName().equals(compilerClass)
+        || JspcMojoJDTCompiler.class.getName().equals(compilerClass);
+  }
+
+  /**
+   * Index the packages and classes of the webapp classpath and of the plugin
+   * class loaders once, so that the compilers do not have to walk every jar
+   * when asked if a name is a package or when reading a class. The jars are
+   * indexed in the order the class loader of the webapp searches them: its
+   * parents first.
+   */
+  private ClasspathIndex initClasspathIndex(List<URL> classpath, ClassLoader parent) {
+    long start = System.currentTimeMillis();
+    List<URL> indexed = new ArrayList<>();
+    for (ClassLoader loader = parent; loader != null; loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader) {
+        indexed.addAll(0, Arrays.asList(((URLClassLoader) loader).getURLs()));
+      }
+    }
+    indexed.addAll(classpath);
+    ClasspathIndex index = ClasspathIndex.build(indexed, classBytesCache);
+    if (getLog().isDebugEnabled()) {
+      getLog().debug("Indexed " + index.getPackageCount() + " packages and " + index.getClassCount() + " classes in "
+          + (System.currentTimeMillis() - start) + " ms");
+    }
+    return index;
+  }
+
+  /**
+   * Find out which jsps are up to date according to the manifest of the previous
+   * run. The classes of the stale ones are deleted so that Jasper, which only
+   * compares the timestamps of the jsp and of its class, compiles them again
+   * even when only an include or a tag file changed.
+   */
+  private void initIncrementalBuild(List<URL> classpath, String[] jspFiles) throws IOException {
+    compilationManifest = CompilationManifest.load(incrementalManifest, getOptionsFingerprint(classpath));
+    File webAppDir = new File(webAppSourceDirectory);
+    File outputDir = new File(generatedClasses);
+    List<String> jspUris = new ArrayList<>();
+    upToDateJspFiles = new HashSet<>();
+    for (String jspFile : jspFiles) {
+      String jspUri = toJspUri(jspFile);
+      jspUris.add(jspUri);
+      if (compilationManifest.isUpToDate(jspUri, webAppDir, outputDir)) {
+        upToDateJspFiles.add(jspUri);
+      } else {
+        for (String output : compilationManifest.getOutputs(jspUri)) {
+          Files.deleteIfExists(new File(outputDir, output).toPath());
+        }
+      }
+    }
+    compilationManifest.retainAll(jspUris);
+    getLog().info("Incremental build: " + (jspFiles.length - upToDateJspFiles.size()) + " of " + jspFiles.length
+        + " jsps need to be compiled");
+  }
+
+  static String toJspUri(String jspFile) {
+    String jspUri = jspFile.replace('\\', '/');
+    return jspUri.startsWith("/") ? jspUri : "/" + jspUri;
+  }
+
+  /**
+   * Everything which has an influence on the generated classes apart from the
+   * jsps and their dependants.
+   */
+  private String getOptionsFingerprint(List<URL> classpath) throws IOException {
+    StringBuilder options = new StringBuilder(getBuildOptions());
+    for (URL url : classpath) {
+      File file = new File(url.getFile());
+      options.append('|').append(url);
+      if (file.isFile()) {
+        options.append(':').append(file.length()).append(':').append(file.lastModified());
+      }
+    }
+    // its jsp-config changes the generated classes
+    File webXmlFile = getWebXmlFile();
+    if (webXmlFile.isFile()) {
+      options.append('|').append(new String(Files.readAllBytes(webXmlFile.toPath()), StandardCharsets.UTF_8));
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(options.toString().getBytes(StandardCharsets.UTF_8))) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return Integer.toHexString(options.toString().hashCode());
+    }
+  }
+
+  /**
+   * The options given to Jasper, the TLDs scanned and the versions of Jasper, of
+   * the plugin and of Java, which all change the generated classes.
+   */
+  private String getBuildOptions() {
+    return getCompilerOptions() + '|' + tldSkip + '|' + tldScan + '|' + defaultTldScan + '|'
+        + JspC.class.getPackage().getImplementationVersion() + '|' + pluginVersion + '|'
+        + System.getProperty("java.specification.version");
+  }
+
+  /**
+   * The options given to Jasper which change the generated classes.
+   */
+  private String getCompilerOptions() {
+    return packageRoot + '|' + javaEncoding + '|' + suppressSmap + '|' + enableJspTagPooling + '|' + trimSpaces + '|'
+        + genStringAsCharArray + '|' + compilerVersion + '|' + compilerClass + '|' + strictQuoteEscaping + '|'
+        + validateXml;
+  }
+
+
   private List<String> initJspList(String[] jspFiles) {
     List<String> jspFilesList = new ArrayList<>();
     Collections.addAll(jspFilesList, jspFiles);
@@ -456,35 +976,129 @@ public class JspcMojo extends AbstractMojo {
   }
 
   private List<JspcWorker> initJspcWorkers(StringBuilder classpathStr, String[] jspFiles, List<String> jspFilesList)
-      throws JasperException, IOException {
+      throws JasperException, IOException, MojoExecutionException, InterruptedException, ExecutionException {
     List<JspcWorker> workers = new ArrayList<>();
-    int minItem = jspFiles.length / threads;
-    int maxItem = minItem + 1;
-    int threadsWithMaxItems = jspFiles.length - threads * minItem;
-    int start = 0;
-    JspCContextAccessor topJspC = initJspc(classpathStr, -1, null);
-    for (int index = 0; index < threads; index++) {
-      int threadNumber = index + 1;
-      int itemsCount = (index < threadsWithMaxItems ? maxItem : minItem);
-      int end = start + itemsCount;
-      List<String> jspFilesSubList = jspFilesList.subList(start, end);
-      if (jspFilesSubList.isEmpty()) {
-        getLog().info("Thread " + threadNumber + " have nothing to do, skip it");
-      } else {
-        JspC firstJspC = initJspc(classpathStr, index, topJspC);
-        JspcWorker worker = new JspcWorker(firstJspC, jspFilesSubList);
-        workers.add(worker);
-        start = end;
-        getLog().info("Number of jsps for thread " + threadNumber + " : " + jspFilesSubList.size());
+    int workerCount = Math.max(1, Math.min(threadCount, jspFiles.length));
+    for (int index = workerCount; index < threadCount; index++) {
+      getLog().info("Thread " + (index + 1) + " have nothing to do, skip it");
+    }
+    jspCostModel = JspCostModel.load(jspCostFile);
+    jspCostModel.retainAll(jspFilesList);
+    Set<String> upToDate = new HashSet<>();
+    for (String jspFile : jspFilesList) {
+      if (upToDateJspFiles.contains(toJspUri(jspFile))) {
+        upToDate.add(jspFile);
       }
     }
+    List<List<String>> assignments = jspCostModel.schedule(jspFilesList, new File(webAppSourceDirectory), workerCount,
+        upToDate);
+    jspWorkQueue = new JspWorkQueue(assignments);
+    if (remoteBuildCache != null) {
+      jspBuildCache.prefetch(getPrefetchOrder(assignments, upToDate));
+    }
+    long start = System.currentTimeMillis();
+    JspCContextAccessor topJspC = initJspc(classpathStr, null);
+    long contextTime = System.currentTimeMillis() - start;
+    generatedTagSources = new File(generatedClasses, topJspC.getGeneratedTagFilePackageName().replace('.', '/'));
+    List<JspCContextAccessor> workerJspCs = initWorkerJspcs(classpathStr, topJspC, workerCount);
+    getLog().info("Initialized the jsp context in " + contextTime + " ms and the contexts of the " + workerCount
+        + " threads in " + (System.currentTimeMillis() - start - contextTime) + " ms");
+    compileTagFiles(topJspC, jspFilesList, upToDate);
+    for (int index = 0; index < workerCount; index++) {
+      workers.add(new JspcWorker(workerJspCs.get(index), jspWorkQueue, index));
+      getLog().info("Number of jsps queued for thread " + (index + 1) + " : " + jspWorkQueue.getInitialSize(index));
+    }
     return workers;
   }
 
-  private JspCContextAccessor initJspc(StringBuilder classpathStr, int threadIndex, JspCContextAccessor topJspC)
+  /**
+   * Compile the tag files used by the jsps to compile before the threads start,
+   * instead of having the first thread needing each of them compile it while the
+   * others wait.
+   */
+  private void compileTagFiles(JspCContextAccessor topJspC, List<String> jspFilesList, Set<String> upToDate)
+      throws MojoExecutionException, IOException, InterruptedException {
+    List<String> outdated = new ArrayList<>(jspFilesList);
+    outdated.removeAll(upToDate);
+    long start = System.currentTimeMillis();
+    ExecutorService executorService = initExecutor();
+    int count;
+    try {
+      count = topJspC.compileTagFiles(outdated, executorService);
+    } finally {
+      executorService.shutdown();
+    }
+    if (count > 0) {
+      getLog().info("Compiled " + count + " tag files in " + (System.currentTimeMillis() - start) + " ms");
+    }
+  }
+
+  /**
+   * Create the contexts of the threads at the same time. They share the TLDs,
+   * the jsp configuration and the tag plugins of the context of topJspC, which
+   * are not initialized again.
+   */
+  private List<JspCContextAccessor> initWorkerJspcs(StringBuilder classpathStr, JspCContextAccessor topJspC,
+      int workerCount) throws MojoExecutionException, InterruptedException, ExecutionException, JasperException,
+      IOException {
+    List<Callable<JspCContextAccessor>> tasks = new ArrayList<>();
+    for (int index = 0; index < workerCount; index++) {
+      tasks.add(() -> initJspc(classpathStr, topJspC));
+    }
+    ExecutorService executorService = initExecutor();
+    List<Future<JspCContextAccessor>> results;
+    try {
+      results = executorService.invokeAll(tasks);
+    } finally {
+      executorService.shutdown();
+    }
+    List<JspCContextAccessor> workerJspCs = new ArrayList<>();
+    for (Future<JspCContextAccessor> result : results) {
+      try {
+        workerJspCs.add(result.get());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof JasperException) {
+          throw (JasperException) e.getCause();
+        }
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    return workerJspCs;
+  }
+
+  /**
+   * @return the jsps which may be restored, in the order the workers take them
+   */
+  static List<String> getPrefetchOrder(List<List<String>> assignments, Set<String> upToDate) {
+    List<String> jspUris = new ArrayList<>();
+    int longest = 0;
+    for (List<String> assignment : assignments) {
+      longest = Math.max(longest, assignment.size());
+    }
+    for (int index = 0; index < longest; index++) {
+      for (List<String> assignment : assignments) {
+        if (index < assignment.size() && !upToDate.contains(assignment.get(index))) {
+          jspUris.add(toJspUri(assignment.get(index)));
+        }
+      }
+    }
+    return jspUris;
+  }
+
+  private void logJspWorkQueueStatistics() {
+    for (int index = 0; index < jspWorkQueue.getWorkerCount(); index++) {
+      getLog().info("Thread " + (index + 1) + " compiled " + jspWorkQueue.getProcessedCount(index) + " jsps, "
+          + jspWorkQueue.getStolenCount(index) + " of them stolen from other threads");
+    }
+  }
+
+  private JspCContextAccessor initJspc(StringBuilder classpathStr, JspCContextAccessor topJspC)
       throws IOException, JasperException {
     JspCContextAccessor jspc = new JspCContextAccessor();
-    jspc.setWebXmlInclude(getwebXmlFragmentFilename(threadIndex));
+    jspc.setWebXmlMappings(webXmlMappings);
     jspc.setUriroot(webAppSourceDirectory);
     jspc.setPackage(packageRoot);
     jspc.setOutputDir(generatedClasses);
@@ -502,10 +1116,24 @@ public class JspcMojo extends AbstractMojo {
     jspc.setCompilerTargetVM(compilerVersion);
     jspc.setcompilerClass(compilerClass);
     jspc.setResourcesCache(resourcesCache);
+    jspc.setClasspathIndex(classpathIndex);
+    jspc.setCompileBatchSize(compileBatchSize);
+    jspc.setSourcesInMemory(isSourcesInMemory());
+    jspc.setGeneratedSources(keepSources || isSourcesInMemory() ? null : generatedSources);
     jspc.setStrictQuoteEscaping(strictQuoteEscaping);
     jspc.setTldSkip(tldSkip);
     jspc.setTldScan(tldScan);
     jspc.setDefaultTldScan(defaultTldScan);
+    jspc.setTldScanCache(tldScanCache);
+    jspc.setTldScanThreads(threadCount);
+    jspc.setTldScanJspFiles(tldScanJspFiles);
+    jspc.setTagLibraryInfoCache(tagLibraryInfoCache);
+    jspc.setUpToDateJspFiles(upToDateJspFiles);
+    jspc.setCompilationManifest(compilationManifest);
+    jspc.setJspCostModel(jspCostModel);
+    jspc.setThreadCountTuner(threadCountTuner);
+    jspc.setCompileReport(jspCompileReport);
+    jspc.setBuildCache(jspBuildCache);
     if (topJspC == null) {
       jspc.initClassLoader();
       jspc.initServletContext();
@@ -575,21 +1203,51 @@ public class JspcMojo extends AbstractMojo {
 
   /**
    * Until Jasper supports the option to generate the srcs in a different dir than
-   * the classes, this is the best we can do.
+   * the classes, this is the best we can do: delete the .java files of the jsps
+   * compiled by this run, and the ones of the tag files, which Jasper generates
+   * in a package of their own. The rest of the output directory, usually the
+   * classes of the project, is not walked.
    */
   public void cleanupSrcs() {
     // delete the .java files - depending on keepGenerated setting
-    if (!keepSources) {
-      File generatedClassesDir = new File(generatedClasses);
+    if (keepSources || isSourcesInMemory()) {
+      // nothing to do when the compiler did not write them
+      return;
+    }
+    long start = System.currentTimeMillis();
+    int count = generatedSources.size();
+    generatedSources.parallelStream().forEach(this::deleteGeneratedSource);
+    generatedSources.clear();
 
-      if (generatedClassesDir.exists() && generatedClassesDir.isDirectory()) {
-        delete(generatedClassesDir, f -> f.isDirectory() || f.getName().endsWith(".java"));
-      }
+    if (generatedTagSources != null && generatedTagSources.isDirectory()) {
+      delete(generatedTagSources, f -> f.isDirectory() || f.getName().endsWith(".java"));
+    }
+    if (getLog().isDebugEnabled()) {
+      getLog().debug("Deleted the sources of " + count + " jsps in " + (System.currentTimeMillis() - start) + " ms");
+    }
+  }
+
+  private void deleteGeneratedSource(String javaFileName) {
+    try {
+      Files.deleteIfExists(Paths.get(javaFileName));
+    } catch (IOException e) {
+      getLog().warn("Unable to delete " + javaFileName + ": " + e);
     }
   }
 
+  /**
+   * @return true if the compiler does not write the generated servlets to the
+   *         disk
+   */
+  private boolean isSourcesInMemory() {
+    return sourcesInMemory && !keepSources && ParallelJDTCompiler.class.getName().equals(compilerClass);
+  }
+
   static void delete(File dir, FileFilter filter) {
     File[] files = dir.listFiles(filter);
+    if (files == null) {
+      return;
+    }
     for (int i = 0; i < files.length; i++) {
       File f = files[i];
       if (f.isDirectory()) {
@@ -624,12 +1282,12 @@ public class JspcMojo extends AbstractMojo {
         return;
       }
 
-      File mergedWebXml = new File(new File(getwebXmlFragmentFilename(0)).getParentFile(), WEB_XML);
-      Path mergedWebXmlPath = createAndGetMergeWebXml(mergedWebXml);
+      File mergedWebXml = new File(new File(webXmlFragment).getParentFile(), WEB_XML);
 
       try (BufferedReader webXmlReader = new BufferedReader(
-          new InputStreamReader(new FileInputStream(webXmlFile), StandardCharsets.UTF_8))) {
-        writeWebXmlMergedFile(webXmlReader, mergedWebXmlPath);
+          new InputStreamReader(new FileInputStream(webXmlFile), StandardCharsets.UTF_8));
+          BufferedWriter mergedWebXmlWriter = Files.newBufferedWriter(mergedWebXml.toPath(), StandardCharsets.UTF_8)) {
+        writeWebXmlMergedFile(webXmlReader, mergedWebXmlWriter);
       }
 
       if (validateWebXmlAfterMerge) {
@@ -641,17 +1299,11 @@ public class JspcMojo extends AbstractMojo {
     }
   }
 
-  private Path createAndGetMergeWebXml(File mergedWebXml) throws IOException {
-    Path mergedWebXmlPath = Paths.get(mergedWebXml.toURI());
-    Files.deleteIfExists(mergedWebXmlPath);
-    Files.createFile(mergedWebXmlPath);
-    return mergedWebXmlPath;
-  }
-
   private void validateXmlContent(File mergedWebXml) throws IOException, MojoExecutionException {
     try {
       setHttpProxyIfNecessary();
       DocumentBuilder parser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+      parser.setEntityResolver(WebXmlSchemas.newEntityResolver());
       parser.parse(mergedWebXml);
     } catch (ParserConfigurationException e) {
       getLog().debug("Unable to instanciate Document Builder, so web.xml merged validation is not possible", e);
@@ -664,14 +1316,52 @@ public class JspcMojo extends AbstractMojo {
 
   private void validateWithXsd(File mergedWebXml) throws IOException, MojoExecutionException {
     try {
-      setHttpProxyIfNecessary();
       Source webXmlSource = new StreamSource(mergedWebXml);
-      SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-      Schema webXmlSchema = schemaFactory.newSchema(getWebXmlSchema());
+      Schema webXmlSchema = getWebXmlSchema();
       Validator validator = webXmlSchema.newValidator();
       validator.validate(webXmlSource);
     } catch (SAXException e) {
       throw new MojoExecutionException("Error when validating with XSD merged web.xml !", e);
+    }
+  }
+
+  /**
+   * The schemas of the servlet API are read from the plugin classpath, they can
+   * be compiled while the jsps are. The other ones are downloaded when needed,
+   * through the proxy if any.
+   */
+  private void loadWebXmlSchemaInBackground() {
+    webXmlSchemaLoader = null;
+    if (mergeFragment && validateWebXmlWithXsdAfterMerge && WebXmlSchemas.isLocal(webXmlXsdSchema)
+        && !WebXmlSchemas.isCached(webXmlXsdSchema)) {
+      webXmlSchemaLoader = CompletableFuture.supplyAsync(() -> {
+        try {
+          return WebXmlSchemas.getSchema(webXmlXsdSchema);
+        } catch (SAXException e) {
+          throw new CompletionException(e);
+        }
+      });
+    }
+  }
+
+  private Schema getWebXmlSchema() throws SAXException {
+    if (webXmlSchemaLoader != null) {
+      try {
+        return webXmlSchemaLoader.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof SAXException) {
+          throw (SAXException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    if (WebXmlSchemas.isLocal(webXmlXsdSchema) || WebXmlSchemas.isCached(webXmlXsdSchema)) {
+      return WebXmlSchemas.getSchema(webXmlXsdSchema);
+    }
+    // not part of the servlet API
+    try {
+      setHttpProxyIfNecessary();
+      return WebXmlSchemas.getSchema(webXmlXsdSchema);
     } finally {
       restoreHttpProxy();
     }
@@ -702,42 +1392,26 @@ public class JspcMojo extends AbstractMojo {
     }
   }
 
-  private StreamSource[] getWebXmlSchema() throws MalformedURLException {
-    URL webXmlXsdUrl = new URL(webXmlXsdSchema);
-    return new StreamSource[] {new StreamSource(webXmlXsdUrl.toExternalForm())};
-  }
-
-  private String writeWebXmlMergedFile(BufferedReader webXmlReader, Path mergedWebXmlPath) throws IOException {
+  private String writeWebXmlMergedFile(BufferedReader webXmlReader, Writer mergedWebXmlWriter) throws IOException {
     // read up to the insertion marker or the </webapp> if there is no marker
     String marker = (insertionMarker == null || insertionMarker.equals("") ? END_OF_WEBAPP : insertionMarker);
     String line = "";
     while ((line = webXmlReader.readLine()) != null) {
       if (line.indexOf(marker) >= 0) {
-        writeXmlFragments(mergedWebXmlPath);
-        writeEndOfWebappIfNecessary(mergedWebXmlPath, marker);
+        // put in the generated fragment of all the threads
+        webXmlMappings.writeTo(mergedWebXmlWriter);
+        writeEndOfWebappIfNecessary(mergedWebXmlWriter, marker);
       } else {
-        Files.write(mergedWebXmlPath, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
-            StandardOpenOption.APPEND);
+        mergedWebXmlWriter.write(line);
+        mergedWebXmlWriter.write(System.lineSeparator());
       }
     }
     return marker;
   }
 
-  private void writeEndOfWebappIfNecessary(Path mergedWebXmlPath, String marker) throws IOException {
+  private void writeEndOfWebappIfNecessary(Writer mergedWebXmlWriter, String marker) throws IOException {
     if (marker.equals(END_OF_WEBAPP)) {
-      Files.write(mergedWebXmlPath, END_OF_WEBAPP.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
-    }
-  }
-
-  private void writeXmlFragments(Path mergedWebXmlPath) throws IOException {
-    for (int index = 0; index < threads; index++) {
-      File fragmentWebXml = new File(getwebXmlFragmentFilename(index));
-      if (!fragmentWebXml.exists()) {
-        getLog().info("No fragment web.xml file generated for thread " + index);
-      } else {
-        // put in the generated fragment for the current thread
-        Files.write(mergedWebXmlPath, Files.readAllBytes(Paths.get(fragmentWebXml.toURI())), StandardOpenOption.APPEND);
-      }
+      mergedWebXmlWriter.write(END_OF_WEBAPP);
     }
   }
 
@@ -819,18 +1493,5 @@ public class JspcMojo extends AbstractMojo {
     file = new File(webAppSrcDir, WEB_XML);
     return file;
   }
-
-  /**
-   * Add thread index at the end of webXmlFragment filename to deal with
-   * multithreading. If the number of threads is equal to 1 (no multithreading) we
-   * don't add suffix to maintain the same behavior as in the mode without
-   * multithreading.
-   *
-   * @param threadIndex the index of current thread
-   * @return web xml fragment filename with thread index
-   */
-  private String getwebXmlFragmentFilename(int threadIndex) {
-    return threads == 1 ? webXmlFragment : webXmlFragment + "." + threadIndex;
-  }
 }
 
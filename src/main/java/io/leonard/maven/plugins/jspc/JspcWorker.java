@@ -10,21 +10,22 @@ public class JspcWorker implements Callable<String> {
 
   private static final Logger logger = Logger.getLogger(JspC.class.getName());
 
-  private JspC jspc;
-  private List<String> jspFiles;
+  private JspCContextAccessor jspc;
+  private JspWorkQueue queue;
+  private int workerIndex;
   private List<String> errors = new ArrayList<>();
 
-  public JspcWorker(JspC jspc, List<String> jspFiles) {
+  public JspcWorker(JspCContextAccessor jspc, JspWorkQueue queue, int workerIndex) {
     this.jspc = jspc;
-    this.jspFiles = jspFiles;
+    this.queue = queue;
+    this.workerIndex = workerIndex;
     logger.addHandler(new TomcatLogHandler());
   }
 
   @Override
   public String call() throws Exception {
-    jspc.setJspFiles(getAllCommaSeparatedJsp());
     try {
-      jspc.execute();
+      jspc.execute(queue, workerIndex);
     } catch (Exception e) {
       return e.getMessage();
     }
@@ -35,14 +36,6 @@ public class JspcWorker implements Callable<String> {
     return null;
   }
 
-  private String getAllCommaSeparatedJsp() {
-    String allJsp = "";
-    for (String fileName : jspFiles) {
-      allJsp += fileName + ",";
-    }
-    return allJsp;
-  }
-  
   /**
    * We need to know when Jspc raise SEVERE error when we set
    * "failOnError=false"
@@ -0,0 +1,262 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jakarta.servlet.ServletContext;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.Jar;
+import org.apache.tomcat.JarScanType;
+import org.apache.tomcat.JarScannerCallback;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+
+/**
+ * {@link StandardJarScanner} which reads the jars on a pool of threads. The jars
+ * are chosen as the standard scanner does, with the same filter and settings,
+ * but each one is handed to {@link ParallelCallback#scanInParallel} on the pool
+ * as soon as it is found. What the callbacks return is then applied on the
+ * scanning thread in the order of the classpath, so the result does not depend
+ * on which jar was read first.
+ * <p>
+ * The directories and the jars which are not files are scanned on the scanning
+ * thread, in order. The Class-Path of the manifests is followed once the jars
+ * of the class loaders have been scanned, instead of right after each class
+ * loader.
+ * <p>
+ * The scan stops as soon as the callback {@link ParallelCallback#isDone() is
+ * done}: the jars after it in the classpath which are not read yet are not read
+ * at all.
+ */
+public class ParallelJarScanner extends StandardJarScanner {
+
+  private final Log log = LogFactory.getLog(ParallelJarScanner.class); // must not be static
+
+  private final int threads;
+
+  private ExecutorService executor;
+  private List<Future<ScanResult>> pending;
+  private Set<URL> processedURLs;
+
+  /**
+   * @param threads number of jars read at the same time
+   */
+  public ParallelJarScanner(int threads) {
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * @param jarScanner the scanner whose filter and settings are used
+   * @param threads    number of jars read at the same time
+   * @return a parallel scanner of the same jars
+   */
+  public static ParallelJarScanner of(StandardJarScanner jarScanner, int threads) {
+    ParallelJarScanner parallelJarScanner = new ParallelJarScanner(threads);
+    parallelJarScanner.setJarScanFilter(jarScanner.getJarScanFilter());
+    parallelJarScanner.setScanClassPath(jarScanner.isScanClassPath());
+    parallelJarScanner.setScanManifest(jarScanner.isScanManifest());
+    parallelJarScanner.setScanAllFiles(jarScanner.isScanAllFiles());
+    parallelJarScanner.setScanAllDirectories(jarScanner.isScanAllDirectories());
+    parallelJarScanner.setScanBootstrapClassPath(jarScanner.isScanBootstrapClassPath());
+    return parallelJarScanner;
+  }
+
+  /**
+   * Scan the jars in parallel if the callback is a {@link ParallelCallback}, as
+   * the standard scanner does otherwise.
+   */
+  @Override
+  public synchronized void scan(JarScanType scanType, ServletContext context, JarScannerCallback callback) {
+    if (!(callback instanceof ParallelCallback)) {
+      super.scan(scanType, context, callback);
+      return;
+    }
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "jspc-jar-scanner");
+      thread.setDaemon(true);
+      return thread;
+    });
+    pending = new ArrayList<>();
+    processedURLs = null;
+    try {
+      OrderedCallback orderedCallback = new OrderedCallback((ParallelCallback) callback);
+      super.scan(scanType, context, orderedCallback);
+      applyInOrder(scanType, orderedCallback);
+    } finally {
+      executor.shutdownNow();
+      executor = null;
+      pending = null;
+      processedURLs = null;
+    }
+  }
+
+  @Override
+  protected void processURLs(JarScanType scanType, JarScannerCallback callback, Set<URL> processedURLs,
+      boolean isWebapp, Deque<URL> classPathUrlsToProcess) {
+    this.processedURLs = processedURLs;
+    super.processURLs(scanType, callback, processedURLs, isWebapp, classPathUrlsToProcess);
+  }
+
+  @Override
+  protected void process(JarScanType scanType, JarScannerCallback callback, URL url, String webappPath,
+      boolean isWebapp, Deque<URL> classPathUrlsToProcess) throws IOException {
+    if (!(callback instanceof OrderedCallback)) {
+      super.process(scanType, callback, url, webappPath, isWebapp, classPathUrlsToProcess);
+      return;
+    }
+    ParallelCallback target = ((OrderedCallback) callback).target;
+    if (target.isDone()) {
+      return;
+    }
+    boolean followClassPath = isScanManifest() && !isWebapp && classPathUrlsToProcess != null;
+    URL jarFileUrl = getJarFileUrl(url);
+    File jarFile = jarFileUrl == null ? null : toFile(jarFileUrl);
+    if (jarFile != null) {
+      pending.add(executor.submit(() -> target.scanInParallel(jarFile, jarFileUrl, webappPath, followClassPath)));
+      return;
+    }
+    pending.add(CompletableFuture.completedFuture(() -> {
+      Deque<URL> classPath = new ArrayDeque<>();
+      ParallelJarScanner.super.process(scanType, target, url, webappPath, isWebapp,
+          followClassPath ? classPath : null);
+      return new ArrayList<>(classPath);
+    }));
+  }
+
+  /**
+   * The pending list grows while it is applied, with the jars of the
+   * Class-Path of the manifests.
+   */
+  private void applyInOrder(JarScanType scanType, OrderedCallback callback) {
+    if (processedURLs == null) {
+      processedURLs = new HashSet<>();
+    }
+    for (int index = 0; index < pending.size() && !callback.target.isDone(); index++) {
+      try {
+        List<URL> classPath = pending.get(index).get().apply();
+        if (!classPath.isEmpty()) {
+          processURLs(scanType, callback, processedURLs, false, new ArrayDeque<>(classPath));
+        }
+      } catch (ExecutionException | IOException e) {
+        log.warn("Unable to scan a jar of the classpath", e instanceof ExecutionException ? e.getCause() : e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the file url of the jar, or null if the url is not a jar file
+   */
+  static URL getJarFileUrl(URL url) {
+    try {
+      if ("jar".equals(url.getProtocol())) {
+        String file = url.getFile();
+        int separator = file.indexOf("!/");
+        url = new URL(separator < 0 ? file : file.substring(0, separator));
+      }
+    } catch (MalformedURLException e) {
+      return null;
+    }
+    return "file".equals(url.getProtocol()) && url.getPath().endsWith(".jar") ? url : null;
+  }
+
+  private static File toFile(URL url) {
+    try {
+      File file = new File(url.toURI());
+      return file.isFile() ? file : null;
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * What a jar adds to the result of the scan, applied on the scanning thread.
+   */
+  @FunctionalInterface
+  public interface ScanResult {
+
+    /**
+     * @return the jars of the Class-Path of the manifest to scan as well
+     */
+    List<URL> apply() throws IOException;
+  }
+
+  /**
+   * Callback whose scan of the jar files can run on any thread.
+   */
+  public interface ParallelCallback extends JarScannerCallback {
+
+    /**
+     * Read a jar, without changing the state of the callback, which is done by
+     * the result.
+     *
+     * @param jarFile         the jar
+     * @param jarFileUrl      its url, as given to the callbacks by the standard
+     *                        scanner
+     * @param webappPath      its path in the webapp, or null if it is not in
+     *                        WEB-INF/lib
+     * @param followClassPath true if the scanner follows the Class-Path of its
+     *                        manifest
+     * @return what the jar adds to the result of the scan
+     */
+    ScanResult scanInParallel(File jarFile, URL jarFileUrl, String webappPath, boolean followClassPath)
+        throws IOException;
+
+    /**
+     * @return true if the callback does not need the jars which were not scanned
+     *         yet, checked on the scanning thread before each result is applied
+     */
+    default boolean isDone() {
+      return false;
+    }
+  }
+
+  /**
+   * Defers the scan of WEB-INF/classes after the jars of WEB-INF/lib found
+   * before it.
+   */
+  private final class OrderedCallback implements JarScannerCallback {
+
+    private final ParallelCallback target;
+
+    OrderedCallback(ParallelCallback target) {
+      this.target = target;
+    }
+
+    @Override
+    public void scan(Jar jar, String webappPath, boolean isWebapp) throws IOException {
+      target.scan(jar, webappPath, isWebapp);
+    }
+
+    @Override
+    public void scan(File file, String webappPath, boolean isWebapp) throws IOException {
+      target.scan(file, webappPath, isWebapp);
+    }
+
+    @Override
+    public void scanWebInfClasses() {
+      pending.add(CompletableFuture.completedFuture(() -> {
+        target.scanWebInfClasses();
+        return Collections.emptyList();
+      }));
+    }
+  }
+}
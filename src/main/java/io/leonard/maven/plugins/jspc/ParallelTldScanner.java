@@ -0,0 +1,384 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import jakarta.servlet.ServletContext;
+
+import org.apache.jasper.compiler.JarScannerFactory;
+import org.apache.jasper.compiler.TldScanCache;
+import org.apache.jasper.servlet.TldScanner;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.Jar;
+import org.apache.tomcat.JarScanType;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.util.descriptor.tld.TagFileXml;
+import org.apache.tomcat.util.descriptor.tld.TaglibXml;
+import org.apache.tomcat.util.descriptor.tld.TldParser;
+import org.apache.tomcat.util.descriptor.tld.TldResourcePath;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+import org.xml.sax.SAXException;
+
+/**
+ * {@link TldScanner} which reads the jars of the classpath with a
+ * {@link ParallelJarScanner}: the TLDs of each jar are found in its central
+ * directory and parsed on the threads of the scanner, then added in the order
+ * of the classpath, so the scan finds the same TLDs as Jasper does.
+ * <p>
+ * With a {@link TldScanCache}, the TLDs of the jars unchanged since the
+ * previous build are taken from the cache, without opening them, and the other
+ * jars are added to it. The jars whose manifest has a Class-Path are always
+ * opened, since the scanner follows it.
+ * <p>
+ * With the jsps of the build, only the taglibs they use are looked for: the
+ * jars are scanned in the order of the classpath until all of them are found,
+ * the following jars are not opened.
+ */
+public class ParallelTldScanner extends TldScanner {
+
+  private final Log log = LogFactory.getLog(ParallelTldScanner.class); // must not be static
+
+  private final ServletContext context;
+  private final boolean namespaceAware;
+  private final boolean validation;
+  private final boolean blockExternal;
+  private final int threads;
+  private final TldScanCache tldScanCache;
+
+  private ClassLoader classLoader;
+  /** Parsers are not thread safe */
+  private final ThreadLocal<TldParser> tldParsers = ThreadLocal.withInitial(this::newTldParser);
+
+  private Collection<String> jspUris;
+  private TaglibUriScanner taglibUriScanner;
+  /** Uris of the taglibs used by the jsps, null to look for all the taglibs */
+  private Set<String> taglibUris;
+  private int scannedJarCount;
+
+  /**
+   * @param threads      number of jars read at the same time
+   * @param tldScanCache TLDs of the previous builds, or null
+   */
+  public ParallelTldScanner(ServletContext context, boolean namespaceAware, boolean validation,
+      boolean blockExternal, int threads, TldScanCache tldScanCache) {
+    super(context, namespaceAware, validation, blockExternal);
+    this.context = context;
+    this.namespaceAware = namespaceAware;
+    this.validation = validation;
+    this.blockExternal = blockExternal;
+    this.threads = threads;
+    this.tldScanCache = tldScanCache;
+  }
+
+  @Override
+  public void setClassLoader(ClassLoader classLoader) {
+    super.setClassLoader(classLoader);
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * @param jspUris the jsps, relative to the webapp root, whose taglibs only are
+   *                looked for in the jars, null to look for all the taglibs
+   */
+  public void setJspUris(Collection<String> jspUris) {
+    this.jspUris = jspUris;
+  }
+
+  /**
+   * @return the number of jars and directories of the classpath scanned
+   */
+  public int getScannedJarCount() {
+    return scannedJarCount;
+  }
+
+  @Override
+  public void scanJars() {
+    JarScanner jarScanner = JarScannerFactory.getJarScanner(context);
+    if (!(jarScanner instanceof StandardJarScanner)) {
+      super.scanJars();
+      return;
+    }
+    if (jspUris != null) {
+      initTaglibUris();
+      if (isAllTaglibUrisFound()) {
+        log.info("The " + taglibUris.size() + " taglib uris used by the jsps are declared by the webapp, no jar"
+            + " scanned");
+        return;
+      }
+    }
+    ParallelJarScanner.of((StandardJarScanner) jarScanner, threads).scan(JarScanType.TLD, context,
+        new TldCallback());
+    if (taglibUris == null) {
+      return;
+    }
+    if (isAllTaglibUrisFound()) {
+      log.info("Found the " + taglibUris.size() + " taglib uris used by the jsps after scanning " + scannedJarCount
+          + " jars");
+    } else {
+      Set<String> missingUris = new LinkedHashSet<>(taglibUris);
+      missingUris.removeAll(getUriTldResourcePathMap().keySet());
+      log.info("Taglib uris used by the jsps not found in the jars: " + String.join(", ", missingUris));
+    }
+  }
+
+  /**
+   * Look for the taglibs of the jsps, and of the tag files of the TLDs of the
+   * webapp, which were scanned before the jars.
+   */
+  private void initTaglibUris() {
+    taglibUriScanner = new TaglibUriScanner(context);
+    try {
+      taglibUris = taglibUriScanner.scan(jspUris);
+      for (Map.Entry<TldResourcePath, TaglibXml> tld : getTldResourcePathTaglibXmlMap().entrySet()) {
+        if (tld.getKey().getEntryName() == null) {
+          for (TagFileXml tagFile : tld.getValue().getTagFiles()) {
+            taglibUriScanner.scanTagFile(tagFile.getPath());
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Unable to find the taglibs used by the jsps, all the jars are scanned", e);
+      taglibUris = null;
+    }
+  }
+
+  private boolean isAllTaglibUrisFound() {
+    return taglibUris != null && getUriTldResourcePathMap().keySet().containsAll(taglibUris);
+  }
+
+  /**
+   * Look for the taglibs of the tag files of a TLD of a jar used by the jsps.
+   */
+  private void addTagFileTaglibUris(TldResourcePath path, TaglibXml tld) {
+    if (tld.getTagFiles().isEmpty()) {
+      return;
+    }
+    try (Jar jar = path.openJar()) {
+      for (TagFileXml tagFile : tld.getTagFiles()) {
+        String entryName = tagFile.getPath().startsWith("/") ? tagFile.getPath().substring(1) : tagFile.getPath();
+        try (InputStream in = jar.getInputStream(entryName)) {
+          if (in != null) {
+            taglibUriScanner.scanTagFile(in.readAllBytes());
+          }
+        }
+      }
+    } catch (IOException e) {
+      // Jasper reports it when compiling
+      log.debug("Unable to read the tag files of " + path.toExternalForm(), e);
+    }
+  }
+
+  /**
+   * Same as {@link TldScanner#parseTld(TldResourcePath)}, with a TLD already
+   * parsed.
+   */
+  private void addTld(TldResourcePath path, TaglibXml tld) {
+    String uri = tld.getUri();
+    if (uri != null && !getUriTldResourcePathMap().containsKey(uri)) {
+      getUriTldResourcePathMap().put(uri, path);
+      if (taglibUris != null && taglibUris.contains(uri) && path.getEntryName() != null) {
+        addTagFileTaglibUris(path, tld);
+      }
+    }
+    if (getTldResourcePathTaglibXmlMap().putIfAbsent(path, tld) == null && tld.getListeners() != null) {
+      getListeners().addAll(tld.getListeners());
+    }
+  }
+
+  private void addTlds(URL jarFileUrl, String webappPath, Map<String, TaglibXml> tlds) {
+    scannedJarCount++;
+    for (Map.Entry<String, TaglibXml> tld : tlds.entrySet()) {
+      addTld(new TldResourcePath(jarFileUrl, webappPath, tld.getKey()), tld.getValue());
+    }
+  }
+
+  private TldParser newTldParser() {
+    TldParser tldParser = new TldParser(namespaceAware, validation, blockExternal);
+    if (classLoader != null) {
+      tldParser.setClassLoader(classLoader);
+    }
+    return tldParser;
+  }
+
+  /**
+   * TLD whose content was already read from its jar.
+   */
+  private static final class ReadTldResourcePath extends TldResourcePath {
+
+    private final byte[] content;
+
+    ReadTldResourcePath(URL url, String webappPath, String entryName, byte[] content) {
+      super(url, webappPath, entryName);
+      this.content = content;
+    }
+
+    @Override
+    public InputStream openStream() {
+      return new ByteArrayInputStream(content);
+    }
+  }
+
+  /**
+   * Same as the callback of {@link TldScanner}, except for the jar files which
+   * are read in parallel.
+   */
+  private class TldCallback implements ParallelJarScanner.ParallelCallback {
+
+    @Override
+    public ParallelJarScanner.ScanResult scanInParallel(File jarFile, URL jarFileUrl, String webappPath,
+        boolean followClassPath) throws IOException {
+      Map<String, TaglibXml> cachedTlds = tldScanCache == null ? null : tldScanCache.get(jarFile);
+      if (cachedTlds != null) {
+        return () -> {
+          addTlds(jarFileUrl, webappPath, cachedTlds);
+          return Collections.emptyList();
+        };
+      }
+      Map<String, TaglibXml> tlds = new LinkedHashMap<>();
+      String classPath;
+      try (JarFile jar = new JarFile(jarFile)) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          JarEntry entry = entries.nextElement();
+          String entryName = entry.getName();
+          if (entryName.startsWith("META-INF/") && entryName.endsWith(".tld")) {
+            byte[] content;
+            try (InputStream in = jar.getInputStream(entry)) {
+              content = in.readAllBytes();
+            }
+            tlds.put(entryName, parse(new ReadTldResourcePath(jarFileUrl, webappPath, entryName, content)));
+          }
+        }
+        Manifest manifest = jar.getManifest();
+        classPath = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+      }
+      if (tldScanCache != null && classPath == null) {
+        tldScanCache.put(jarFile, tlds);
+      }
+      List<URL> classPathUrls = followClassPath ? resolve(jarFileUrl, classPath) : Collections.emptyList();
+      return () -> {
+        addTlds(jarFileUrl, webappPath, tlds);
+        return classPathUrls;
+      };
+    }
+
+    @Override
+    public boolean isDone() {
+      return isAllTaglibUrisFound();
+    }
+
+    @Override
+    public void scan(Jar jar, String webappPath, boolean isWebapp) throws IOException {
+      scannedJarCount++;
+      URL jarFileUrl = jar.getJarFileURL();
+      jar.nextEntry();
+      for (String entryName = jar.getEntryName(); entryName != null; entryName = jar.getEntryName()) {
+        if (entryName.startsWith("META-INF/") && entryName.endsWith(".tld")) {
+          try {
+            parseTld(new TldResourcePath(jarFileUrl, webappPath, entryName));
+          } catch (SAXException e) {
+            throw new IOException(e);
+          }
+        }
+        jar.nextEntry();
+      }
+    }
+
+    @Override
+    public void scan(File file, String webappPath, boolean isWebapp) throws IOException {
+      scannedJarCount++;
+      File metaInf = new File(file, "META-INF");
+      if (!metaInf.isDirectory()) {
+        return;
+      }
+      Path filePath = file.toPath();
+      Files.walkFileTree(metaInf.toPath(), new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          Path fileName = file.getFileName();
+          if (fileName == null || !fileName.toString().toLowerCase(Locale.ENGLISH).endsWith(".tld")) {
+            return FileVisitResult.CONTINUE;
+          }
+          String resourcePath = null;
+          if (webappPath != null) {
+            String subPath = file.subpath(filePath.getNameCount(), file.getNameCount()).toString();
+            resourcePath = webappPath + "/" + subPath.replace(File.separatorChar, '/');
+          }
+          try {
+            parseTld(new TldResourcePath(file.toUri().toURL(), resourcePath));
+          } catch (SAXException e) {
+            throw new IOException(e);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+
+    @Override
+    public void scanWebInfClasses() throws IOException {
+      Set<String> paths = context.getResourcePaths("/WEB-INF/classes/META-INF");
+      if (paths == null) {
+        return;
+      }
+      for (String path : paths) {
+        if (path.endsWith(".tld")) {
+          try {
+            parseTld(path);
+          } catch (SAXException e) {
+            throw new IOException(e);
+          }
+        }
+      }
+    }
+
+    private TaglibXml parse(TldResourcePath path) throws IOException {
+      try {
+        return tldParsers.get().parse(path);
+      } catch (SAXException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * Same resolution as the standard scanner, the invalid entries are ignored.
+     */
+    private List<URL> resolve(URL jarFileUrl, String classPath) {
+      List<URL> urls = new ArrayList<>();
+      if (classPath != null) {
+        for (String entry : classPath.split(" ")) {
+          if (!entry.trim().isEmpty()) {
+            try {
+              urls.add(jarFileUrl.toURI().resolve(entry.trim()).toURL());
+            } catch (Exception e) {
+              // ignored
+            }
+          }
+        }
+      }
+      return urls;
+    }
+  }
+}
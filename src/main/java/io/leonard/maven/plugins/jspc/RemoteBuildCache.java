@@ -0,0 +1,170 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Client of a build cache shared over HTTP, such as {@link BuildCacheServer}:
+ * a file is read with a GET of its path under the url of the cache, a 404 meaning
+ * it is not there, and written with a PUT. With a token, every request carries
+ * it in an {@code Authorization: Bearer} header.
+ * <p>
+ * The requests run on a few threads of their own, so that the downloads of the
+ * next jsps go on while the workers compile or restore the previous ones, and
+ * that the uploads do not slow the workers down. The cache is only an
+ * optimization: after the first timeout or error, it is not used anymore for
+ * the rest of the build, and the jsps are compiled instead.
+ */
+public class RemoteBuildCache {
+
+  /** Number of requests sent at the same time */
+  private static final int CONNECTIONS = 8;
+
+  private final URI url;
+  private final String token;
+  private final Duration timeout;
+  private final Log log;
+  private final HttpClient client;
+  private final ExecutorService executor;
+
+  private volatile boolean disabled;
+  private volatile boolean pushDisabled;
+
+  private final LongAdder downloads = new LongAdder();
+  private final LongAdder uploads = new LongAdder();
+
+  /**
+   * @param url     root of the cache
+   * @param push    false to only read from the cache
+   * @param token   the token the server asks for, or null
+   * @param timeout maximum duration of the connection, then of each request
+   * @param log     where the errors of the cache are reported
+   */
+  public RemoteBuildCache(URI url, boolean push, String token, Duration timeout, Log log) {
+    this.url = url.getPath().endsWith("/") ? url : URI.create(url + "/");
+    this.pushDisabled = !push;
+    this.token = token;
+    this.timeout = timeout;
+    this.log = log;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(CONNECTIONS, runnable -> {
+      Thread thread = new Thread(runnable, "jspc-remote-cache-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+  }
+
+  /**
+   * @param path a file of the cache, relative to its root
+   * @return the content of the file, or null if it is not in the cache or if the
+   *         cache cannot be reached
+   */
+  public CompletableFuture<byte[]> get(String path) {
+    return CompletableFuture.supplyAsync(() -> {
+      if (disabled) {
+        return null;
+      }
+      try {
+        HttpResponse<byte[]> response = client.send(newRequest(path).GET().build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 200) {
+          downloads.increment();
+          return response.body();
+        }
+        if (response.statusCode() != 404) {
+          disable("GET " + path + " returned " + response.statusCode(), null);
+        }
+      } catch (IOException e) {
+        disable("GET " + path + " failed", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    }, executor);
+  }
+
+  /**
+   * @param path    a file of the cache, relative to its root
+   * @param content the content of the file
+   * @return true if the file was written
+   */
+  public CompletableFuture<Boolean> put(String path, byte[] content) {
+    return CompletableFuture.supplyAsync(() -> {
+      if (disabled || pushDisabled) {
+        return false;
+      }
+      try {
+        HttpResponse<Void> response = client.send(
+            newRequest(path).PUT(HttpRequest.BodyPublishers.ofByteArray(content)).build(),
+            HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() / 100 == 2) {
+          uploads.increment();
+          return true;
+        }
+        // read only for this build, the downloads still work
+        pushDisabled = true;
+        log.warn("PUT " + path + " to the remote build cache " + url + " returned " + response.statusCode()
+            + ", no more jsps will be uploaded");
+      } catch (IOException e) {
+        disable("PUT " + path + " failed", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return false;
+    }, executor);
+  }
+
+  public boolean isPushEnabled() {
+    return !disabled && !pushDisabled;
+  }
+
+  public long getDownloadCount() {
+    return downloads.sum();
+  }
+
+  public long getUploadCount() {
+    return uploads.sum();
+  }
+
+  /**
+   * Drop the requests not sent yet, the downloads of the jsps which did not need
+   * to be restored, and release the threads.
+   */
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "remote build cache " + url + ": " + getDownloadCount() + " files downloaded, " + getUploadCount()
+        + " files uploaded" + (disabled ? ", disabled after an error" : "");
+  }
+
+  private HttpRequest.Builder newRequest(String path) {
+    HttpRequest.Builder request = HttpRequest.newBuilder(url.resolve(path)).timeout(timeout);
+    if (token != null) {
+      request.header("Authorization", "Bearer " + token);
+    }
+    return request;
+  }
+
+  private void disable(String message, IOException e) {
+    if (!disabled) {
+      disabled = true;
+      log.warn(message + " on the remote build cache " + url + ", it will not be used anymore by this build"
+          + (e == null ? "" : ": " + e));
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads what the build needs to know about a generated servlet or tag handler
+ * from its class file, without loading the class: loading it would run the
+ * static initializers of the jsp and of the classes it uses at build time.
+ */
+final class ServletClassFile {
+
+  private static final int LDC = 0x12;
+  private static final int LDC_W = 0x13;
+  private static final int LDC2_W = 0x14;
+  private static final int LCONST_0 = 0x09;
+  private static final int LCONST_1 = 0x0a;
+
+  private static final int CLASS = 7;
+  private static final int LONG = 5;
+  private static final int STRING = 8;
+
+  /** Tag of each entry of the constant pool */
+  private final int[] tags;
+  /** Value of the Utf8 entries, and of the String entries once resolved */
+  private final String[] strings;
+  /** Referenced entry of the Class and String entries */
+  private final int[] references;
+  private final long[] longs;
+  /** Code of the static initializer, empty if there is none */
+  private final byte[] staticInitializer;
+
+  private ServletClassFile(byte[] classFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile))) {
+      if (in.readInt() != 0xCAFEBABE) {
+        throw new IOException("Not a class file");
+      }
+      in.readUnsignedShort();
+      in.readUnsignedShort();
+      int count = in.readUnsignedShort();
+      tags = new int[count];
+      strings = new String[count];
+      references = new int[count];
+      longs = new long[count];
+      for (int i = 1; i < count; i++) {
+        int tag = in.readUnsignedByte();
+        tags[i] = tag;
+        switch (tag) {
+        case 1: // Utf8
+          strings[i] = in.readUTF();
+          break;
+        case 7: // Class
+        case 8: // String
+          references[i] = in.readUnsignedShort();
+          break;
+        case 16: // MethodType
+        case 19: // Module
+        case 20: // Package
+          in.readUnsignedShort();
+          break;
+        case 15: // MethodHandle
+          in.readUnsignedByte();
+          in.readUnsignedShort();
+          break;
+        case 3: // Integer
+        case 4: // Float
+        case 9: // Fieldref
+        case 10: // Methodref
+        case 11: // InterfaceMethodref
+        case 12: // NameAndType
+        case 17: // Dynamic
+        case 18: // InvokeDynamic
+          in.readInt();
+          break;
+        case 5: // Long
+        case 6: // Double
+          longs[i] = in.readLong();
+          i++;
+          break;
+        default:
+          throw new IOException("Unknown constant pool tag " + tag);
+        }
+      }
+      for (int i = 1; i < count; i++) {
+        if (tags[i] == STRING) {
+          strings[i] = strings[references[i]];
+        }
+      }
+      staticInitializer = readStaticInitializer(in);
+    }
+  }
+
+  private byte[] readStaticInitializer(DataInputStream in) throws IOException {
+    in.readUnsignedShort(); // access flags
+    in.readUnsignedShort(); // this class
+    in.readUnsignedShort(); // super class
+    in.skipBytes(in.readUnsignedShort() * 2);
+    int fieldCount = in.readUnsignedShort();
+    for (int i = 0; i < fieldCount; i++) {
+      in.skipBytes(6);
+      skipAttributes(in);
+    }
+    int methodCount = in.readUnsignedShort();
+    for (int i = 0; i < methodCount; i++) {
+      in.readUnsignedShort();
+      String name = strings[in.readUnsignedShort()];
+      in.readUnsignedShort();
+      if (!"<clinit>".equals(name)) {
+        skipAttributes(in);
+        continue;
+      }
+      int attributeCount = in.readUnsignedShort();
+      for (int j = 0; j < attributeCount; j++) {
+        String attributeName = strings[in.readUnsignedShort()];
+        int length = in.readInt();
+        if ("Code".equals(attributeName)) {
+          in.skipBytes(4); // max stack and max locals
+          byte[] code = new byte[in.readInt()];
+          in.readFully(code);
+          return code;
+        }
+        in.skipBytes(length);
+      }
+    }
+    return new byte[0];
+  }
+
+  private static void skipAttributes(DataInputStream in) throws IOException {
+    int attributeCount = in.readUnsignedShort();
+    for (int i = 0; i < attributeCount; i++) {
+      in.readUnsignedShort();
+      in.skipBytes(in.readInt());
+    }
+  }
+
+  /**
+   * @param classFile a class file
+   * @return the internal names of the classes it references, such as
+   *         org/apache/jsp/tag/web/header_tag
+   */
+  static Set<String> getReferencedClasses(byte[] classFile) throws IOException {
+    ServletClassFile servletClassFile = new ServletClassFile(classFile);
+    Set<String> referenced = new HashSet<>();
+    for (int i = 1; i < servletClassFile.tags.length; i++) {
+      if (servletClassFile.tags[i] == CLASS && servletClassFile.strings[servletClassFile.references[i]] != null) {
+        referenced.add(servletClassFile.strings[servletClassFile.references[i]]);
+      }
+    }
+    return referenced;
+  }
+
+  /**
+   * Jasper generates the dependants as calls such as
+   * {@code _jspx_dependants.put("/WEB-INF/tags/header.tag", Long.valueOf(1700000000000L))}
+   * in the static initializer of the servlet: they are the String constants
+   * immediately followed by a long constant.
+   *
+   * @param classFile the class file of a generated servlet or tag handler
+   * @return the same dependants as its getDependants(), empty if it has none
+   */
+  static Map<String, Long> getDependants(byte[] classFile) throws IOException {
+    ServletClassFile servletClassFile = new ServletClassFile(classFile);
+    byte[] code = servletClassFile.staticInitializer;
+    Map<String, Long> dependants = new LinkedHashMap<>();
+    for (int i = 0; i < code.length; i++) {
+      int opcode = code[i] & 0xff;
+      int index;
+      int next;
+      if (opcode == LDC && i + 1 < code.length) {
+        index = code[i + 1] & 0xff;
+        next = i + 2;
+      } else if (opcode == LDC_W && i + 2 < code.length) {
+        index = readIndex(code, i + 1);
+        next = i + 3;
+      } else {
+        continue;
+      }
+      if (next >= code.length || !servletClassFile.isConstant(index, STRING)) {
+        continue;
+      }
+      int nextOpcode = code[next] & 0xff;
+      if (nextOpcode == LDC2_W && next + 2 < code.length
+          && servletClassFile.isConstant(readIndex(code, next + 1), LONG)) {
+        dependants.put(servletClassFile.strings[index], servletClassFile.longs[readIndex(code, next + 1)]);
+      } else if (nextOpcode == LCONST_0 || nextOpcode == LCONST_1) {
+        dependants.put(servletClassFile.strings[index], (long) (nextOpcode - LCONST_0));
+      }
+    }
+    return dependants;
+  }
+
+  private boolean isConstant(int index, int tag) {
+    return index > 0 && index < tags.length && tags[index] == tag && (tag != STRING || strings[index] != null);
+  }
+
+  private static int readIndex(byte[] code, int offset) {
+    return (code[offset] & 0xff) << 8 | code[offset + 1] & 0xff;
+  }
+}
@@ -0,0 +1,347 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jakarta.servlet.ServletContext;
+
+import org.apache.jasper.compiler.JspConfig;
+
+/**
+ * Finds the uris of the taglibs used by jsps without parsing them: the taglib
+ * directives and the xmlns declarations of the jsps, of their static includes,
+ * preludes and codas and of the tag files of the tag directories they use are
+ * read with regular expressions. The result may contain a few uris that Jasper
+ * would not look for, such as the namespaces of the XHTML templates, never
+ * fewer.
+ * <p>
+ * The uris which are paths to a resource of the webapp are left out, they do
+ * not need the jars to be resolved.
+ * <p>
+ * The custom tags of the files are read as well, to find out which tag files of
+ * the tag directories the jsps use.
+ */
+public class TaglibUriScanner {
+
+  private static final String URN_JSPTAGDIR = "urn:jsptagdir:";
+  private static final String URN_JSPTLD = "urn:jsptld:";
+  private static final String JSP_NAMESPACE = "http://java.sun.com/JSP/Page";
+
+  private static final Pattern COMMENT = Pattern.compile("<%--.*?--%>", Pattern.DOTALL);
+  private static final Pattern DIRECTIVE = Pattern
+      .compile("<(?:%@\\s*|jsp:directive\\.)(taglib|include)\\b(.*?)(?:%>|/?>)", Pattern.DOTALL);
+  private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:.-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+  private static final Pattern XMLNS = Pattern.compile("\\bxmlns:([\\w.-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+  private static final Pattern CUSTOM_TAG = Pattern.compile("<([\\w.-]+):([\\w.-]+)");
+
+  private final ServletContext context;
+  private final JspConfig jspConfig;
+  private final Set<String> scannedPaths = new HashSet<>();
+  private final Set<String> taglibUris = new LinkedHashSet<>();
+  private final Set<String> jspPaths = new LinkedHashSet<>();
+  /** Tag directories declared with each prefix by the files scanned */
+  private final Map<String, Set<String>> tagDirectories = new HashMap<>();
+  /** Custom tags, as prefix:name, used by each file */
+  private final Map<String, Set<String>> customTags = new HashMap<>();
+  /** Files included by each file, with the preludes and codas of the jsps */
+  private final Map<String, Set<String>> includes = new HashMap<>();
+
+  public TaglibUriScanner(ServletContext context) {
+    this.context = context;
+    this.jspConfig = new JspConfig(context);
+  }
+
+  /**
+   * @param jspUris the jsps, relative to the webapp root
+   * @return the uris of the taglibs they use, in the order they were found
+   * @throws IOException if a jsp could not be read
+   */
+  public Set<String> scan(Collection<String> jspUris) throws IOException {
+    for (String jspUri : jspUris) {
+      String path = jspUri.replace('\\', '/');
+      if (!path.startsWith("/")) {
+        path = "/" + path;
+      }
+      JspConfig.JspProperty jspProperty = jspConfig.findJspProperty(path);
+      jspPaths.add(path);
+      scanResources(path, jspProperty.getIncludePrelude());
+      scanResource(path);
+      scanResources(path, jspProperty.getIncludeCoda());
+    }
+    return taglibUris;
+  }
+
+  /**
+   * A custom tag is looked up in all the tag directories declared with its
+   * prefix by any of the files scanned, so that a few tag files may be found
+   * that the jsps do not actually use, never fewer.
+   *
+   * @return the tag files of the tag directories of the webapp used by the jsps
+   *         scanned so far, directly or through other tag files, each with the
+   *         tag files it uses
+   */
+  public Map<String, Set<String>> getTagFiles() {
+    Map<String, Set<String>> tagFiles = new LinkedHashMap<>();
+    Deque<String> toResolve = new ArrayDeque<>();
+    for (String jspPath : jspPaths) {
+      toResolve.addAll(getUsedTagFiles(jspPath));
+    }
+    while (!toResolve.isEmpty()) {
+      String tagFile = toResolve.poll();
+      if (!tagFiles.containsKey(tagFile)) {
+        Set<String> usedTagFiles = getUsedTagFiles(tagFile);
+        tagFiles.put(tagFile, usedTagFiles);
+        toResolve.addAll(usedTagFiles);
+      }
+    }
+    return tagFiles;
+  }
+
+  /**
+   * @return the tag files used by the file and by the files it includes
+   */
+  private Set<String> getUsedTagFiles(String path) {
+    Set<String> usedTagFiles = new LinkedHashSet<>();
+    Set<String> files = new HashSet<>();
+    Deque<String> toVisit = new ArrayDeque<>();
+    toVisit.add(path);
+    while (!toVisit.isEmpty()) {
+      String file = toVisit.poll();
+      if (!files.add(file)) {
+        continue;
+      }
+      toVisit.addAll(includes.getOrDefault(file, Collections.emptySet()));
+      for (String customTag : customTags.getOrDefault(file, Collections.emptySet())) {
+        int colon = customTag.indexOf(':');
+        String name = customTag.substring(colon + 1);
+        for (String directory : tagDirectories.getOrDefault(customTag.substring(0, colon), Collections.emptySet())) {
+          String tagFile = findTagFile(directory, name);
+          if (tagFile != null) {
+            usedTagFiles.add(tagFile);
+          }
+        }
+      }
+    }
+    return usedTagFiles;
+  }
+
+  /**
+   * @return the path of the tag file, null if the directory has none of that
+   *         name
+   */
+  private String findTagFile(String directory, String name) {
+    for (String suffix : new String[] {".tag", ".tagx"}) {
+      try {
+        if (context.getResource(directory + name + suffix) != null) {
+          return directory + name + suffix;
+        }
+      } catch (MalformedURLException e) {
+        // not a tag file
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Same as {@link #scan(Collection)} for a tag file of the webapp, such as one
+   * declared by a TLD.
+   *
+   * @param path path of the tag file in the webapp
+   * @return the uris of the taglibs used by all the files scanned so far
+   * @throws IOException if the tag file could not be read
+   */
+  public Set<String> scanTagFile(String path) throws IOException {
+    scanResource(path);
+    return taglibUris;
+  }
+
+  /**
+   * Same as {@link #scan(Collection)} for a tag file which is not in the
+   * webapp, such as one of a jar: its includes and tag directories are not
+   * followed and all the uris are kept.
+   *
+   * @param content the content of the tag file
+   * @return the uris of the taglibs used by all the files scanned so far
+   */
+  public Set<String> scanTagFile(byte[] content) {
+    scan(null, new String(content, StandardCharsets.ISO_8859_1));
+    return taglibUris;
+  }
+
+  /**
+   * @param jspPath path of the jsp they are included in
+   * @param paths   paths of the files in the webapp, null for none
+   */
+  private void scanResources(String jspPath, Collection<String> paths) throws IOException {
+    if (paths != null) {
+      for (String path : paths) {
+        includes.computeIfAbsent(jspPath, key -> new LinkedHashSet<>()).add(path);
+        scanResource(path);
+      }
+    }
+  }
+
+  /**
+   * @param path path of the file in the webapp
+   */
+  private void scanResource(String path) throws IOException {
+    if (!scannedPaths.add(path)) {
+      return;
+    }
+    byte[] content;
+    try (InputStream in = context.getResourceAsStream(path)) {
+      if (in == null) {
+        // Jasper reports it when compiling
+        return;
+      }
+      content = in.readAllBytes();
+    }
+    // the directives are plain ASCII whatever the page encoding
+    scan(path, new String(content, StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * @param path path of the file in the webapp, or null if it is not in the
+   *             webapp
+   */
+  private void scan(String path, String content) {
+    String code = COMMENT.matcher(content).replaceAll("");
+    Matcher directive = DIRECTIVE.matcher(code);
+    while (directive.find()) {
+      String uri = null;
+      String tagdir = null;
+      String prefix = null;
+      String file = null;
+      Matcher attribute = ATTRIBUTE.matcher(directive.group(2));
+      while (attribute.find()) {
+        String value = attribute.group(2) != null ? attribute.group(2) : attribute.group(3);
+        switch (attribute.group(1)) {
+        case "uri":
+          uri = value;
+          break;
+        case "tagdir":
+          tagdir = value;
+          break;
+        case "prefix":
+          prefix = value;
+          break;
+        case "file":
+          file = value;
+          break;
+        default:
+          break;
+        }
+      }
+      if ("taglib".equals(directive.group(1))) {
+        if (uri != null) {
+          addUri(path, uri);
+        } else if (tagdir != null) {
+          scanTagDirectory(path, prefix, tagdir);
+        }
+      } else if (file != null && path != null) {
+        scanInclude(path, file);
+      }
+    }
+    Matcher xmlns = XMLNS.matcher(code);
+    while (xmlns.find()) {
+      String uri = xmlns.group(2) != null ? xmlns.group(2) : xmlns.group(3);
+      if (uri.startsWith(URN_JSPTAGDIR)) {
+        scanTagDirectory(path, xmlns.group(1), uri.substring(URN_JSPTAGDIR.length()));
+      } else if (!JSP_NAMESPACE.equals(uri)) {
+        addUri(path, uri.startsWith(URN_JSPTLD) ? uri.substring(URN_JSPTLD.length()) : uri);
+      }
+    }
+    if (path != null) {
+      Matcher customTag = CUSTOM_TAG.matcher(code);
+      while (customTag.find()) {
+        customTags.computeIfAbsent(path, key -> new HashSet<>()).add(customTag.group(1) + ":" + customTag.group(2));
+      }
+    }
+  }
+
+  private void scanInclude(String path, String file) {
+    String includePath = resolve(path, file);
+    if (includePath != null) {
+      includes.computeIfAbsent(path, key -> new LinkedHashSet<>()).add(includePath);
+      scanQuietly(includePath);
+    }
+  }
+
+  /**
+   * @param prefix prefix of the tag directory, null if none is declared
+   */
+  private void scanTagDirectory(String path, String prefix, String tagdir) {
+    if (path == null || tagdir.isEmpty()) {
+      return;
+    }
+    String directory = resolve(path, tagdir.endsWith("/") ? tagdir : tagdir + "/");
+    Set<String> tagFiles = directory == null ? null : context.getResourcePaths(directory);
+    if (tagFiles == null) {
+      return;
+    }
+    if (prefix != null) {
+      tagDirectories.computeIfAbsent(prefix, key -> new HashSet<>()).add(directory);
+    }
+    for (String tagFile : tagFiles) {
+      if (tagFile.endsWith(".tag") || tagFile.endsWith(".tagx")) {
+        scanQuietly(tagFile);
+      }
+    }
+  }
+
+  private void scanQuietly(String path) {
+    try {
+      scanResource(path);
+    } catch (IOException e) {
+      // Jasper reports it when compiling
+    }
+  }
+
+  private void addUri(String path, String uri) {
+    if (uri.isEmpty()) {
+      return;
+    }
+    if (path != null && uri.indexOf(':') < 0) {
+      // Jasper resolves it as a path when no TLD declares it
+      String resourcePath = resolve(path, uri);
+      try {
+        if (resourcePath != null && context.getResource(resourcePath) != null) {
+          return;
+        }
+      } catch (MalformedURLException e) {
+        // not a path
+      }
+    }
+    taglibUris.add(uri);
+  }
+
+  /**
+   * @return the path of the webapp resource, relative to the file if it does not
+   *         start with a /, null if it is not a path
+   */
+  private static String resolve(String path, String relativePath) {
+    try {
+      URI base = new URI(null, null, path, null);
+      String resolved = base.resolve(new URI(null, null, relativePath, null)).getPath();
+      return resolved != null && resolved.startsWith("/") ? resolved : null;
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+}
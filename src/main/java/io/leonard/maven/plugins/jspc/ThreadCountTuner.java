@@ -0,0 +1,181 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Sizes the thread pool for <code>threads=auto</code> and, while the jsps are
+ * compiled, limits how many of the threads may work at the same time.
+ * <p>
+ * The pool is first sized from the available processors, the maximum heap and
+ * the number of jsps. Once the first jsps have been compiled, the heap still
+ * used after garbage collection tells how much memory a thread really needs;
+ * if the heap cannot hold that many threads, some of them are parked until the
+ * end of the build. Threads are parked as well whenever the heap is almost
+ * full.
+ */
+public class ThreadCountTuner {
+
+  public static final String AUTO = "auto";
+
+  /** Memory a thread is supposed to need until it has been measured */
+  static final long DEFAULT_MEMORY_PER_THREAD = 128L * 1024 * 1024;
+
+  /** Part of the heap the threads may use, the rest is kept for the garbage collector */
+  private static final double USABLE_HEAP_RATIO = 0.75;
+
+  /** Below this part of free heap, a thread is parked */
+  private static final double LOW_HEAP_RATIO = 0.1;
+
+  private final Log log;
+  private final int maxThreads;
+  private final int calibrationJsps;
+  private final long baselineUsedMemory;
+  private final long maxMemory;
+  private final ReduciblePermits permits;
+  private final AtomicInteger activeThreads;
+  private final AtomicInteger compiledJsps = new AtomicInteger();
+
+  /**
+   * @param maxThreads      size of the pool
+   * @param calibrationJsps number of jsps compiled before the pool is adjusted
+   * @param log             where the adjustments are reported
+   */
+  public ThreadCountTuner(int maxThreads, int calibrationJsps, Log log) {
+    this.maxThreads = maxThreads;
+    this.calibrationJsps = calibrationJsps;
+    this.log = log;
+    this.baselineUsedMemory = getUsedMemory();
+    this.maxMemory = Runtime.getRuntime().maxMemory();
+    this.permits = new ReduciblePermits(maxThreads);
+    this.activeThreads = new AtomicInteger(maxThreads);
+  }
+
+  /**
+   * @param threads              a number of threads, a multiple of the available
+   *                             processors such as "1.5C", or "auto"
+   * @param jspCount             number of jsps to compile
+   * @param availableProcessors  number of processors of the machine
+   * @param maxMemory            maximum heap
+   * @return number of threads of the pool
+   * @throws IllegalArgumentException if threads cannot be parsed
+   */
+  public static int getThreadCount(String threads, int jspCount, int availableProcessors, long maxMemory) {
+    String value = threads == null ? "1" : threads.trim();
+    int threadCount;
+    try {
+      if (AUTO.equalsIgnoreCase(value)) {
+        long heapLimit = (long) (maxMemory * USABLE_HEAP_RATIO / DEFAULT_MEMORY_PER_THREAD);
+        threadCount = (int) Math.min(Math.min(availableProcessors, jspCount), heapLimit);
+      } else if (value.endsWith("C") || value.endsWith("c")) {
+        threadCount = (int) (Float.parseFloat(value.substring(0, value.length() - 1)) * availableProcessors);
+      } else {
+        threadCount = Integer.parseInt(value);
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid threads value '" + threads
+          + "', expected a number, a multiple of the processors such as '1.5C' or '" + AUTO + "'", e);
+    }
+    return Math.max(1, threadCount);
+  }
+
+  /**
+   * Wait until this thread may take a jsp from the queue.
+   */
+  public void acquire() throws InterruptedException {
+    permits.acquire();
+  }
+
+  /**
+   * Called by each thread after {@link #acquire()}, once its jsp is compiled or
+   * when the queue was empty.
+   *
+   * @param compiledJsp true if a jsp has been compiled
+   */
+  public void release(boolean compiledJsp) {
+    if (!compiledJsp) {
+      permits.release();
+      return;
+    }
+    try {
+      int compiled = compiledJsps.incrementAndGet();
+      if (compiled == calibrationJsps) {
+        calibrate(compiled);
+      } else if (compiled > calibrationJsps && maxMemory - getUsedMemory() < maxMemory * LOW_HEAP_RATIO) {
+        park(activeThreads.get() - 1, "heap almost full");
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * @return number of threads allowed to work at the same time
+   */
+  public int getActiveThreads() {
+    return activeThreads.get();
+  }
+
+  private void calibrate(int compiled) {
+    long usedByThreads = Math.max(0, getUsedMemory() - baselineUsedMemory);
+    long memoryPerThread = Math.max(usedByThreads / maxThreads, 1);
+    long usableMemory = (long) ((maxMemory - baselineUsedMemory) * USABLE_HEAP_RATIO);
+    int affordableThreads = (int) Math.min(maxThreads, usableMemory / memoryPerThread);
+    log.info("Calibration after " + compiled + " jsps: about " + memoryPerThread / (1024 * 1024)
+        + " MB of heap per thread, " + Math.max(1, affordableThreads) + " of " + maxThreads + " threads affordable");
+    park(affordableThreads, "not enough heap");
+  }
+
+  private synchronized void park(int threads, String reason) {
+    int target = Math.max(1, threads);
+    int current = activeThreads.get();
+    if (target < current) {
+      permits.reducePermits(current - target);
+      activeThreads.set(target);
+      log.info("Only " + target + " threads will compile jsps from now on: " + reason);
+    }
+  }
+
+  /**
+   * @return heap used after the last garbage collection when the JVM tells it,
+   *         currently used heap otherwise
+   */
+  static long getUsedMemory() {
+    long used = 0;
+    boolean collected = false;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage != null) {
+          used += usage.getUsed();
+          collected = true;
+        }
+      }
+    }
+    if (!collected || used == 0) {
+      Runtime runtime = Runtime.getRuntime();
+      used = runtime.totalMemory() - runtime.freeMemory();
+    }
+    return used;
+  }
+
+  private static class ReduciblePermits extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    ReduciblePermits(int permits) {
+      super(permits);
+    }
+
+    @Override
+    protected void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+}
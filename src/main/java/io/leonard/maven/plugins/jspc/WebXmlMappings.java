@@ -0,0 +1,75 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.jasper.compiler.Localizer;
+
+/**
+ * The &lt;servlet&gt; and &lt;servlet-mapping&gt; entries of the jsps, added by
+ * all the threads while they compile and written once the compilation is over.
+ * <p>
+ * The entries are sorted by url pattern, so that the web.xml fragment is the
+ * same whatever the number of threads and the order in which the jsps were
+ * compiled. The text is the one Jasper writes itself.
+ */
+public class WebXmlMappings {
+
+  /** Servlet names by url pattern */
+  private final Map<String, String> servletNames = new ConcurrentSkipListMap<>();
+
+  /**
+   * @param servletName fully qualified name of the generated servlet
+   * @param urlPattern  path of the jsp, relative to the webapp root
+   */
+  public void add(String servletName, String urlPattern) {
+    servletNames.put(urlPattern, servletName);
+  }
+
+  public int size() {
+    return servletNames.size();
+  }
+
+  /**
+   * Write the entries between the comments Jasper puts around them.
+   */
+  public void writeTo(Writer writer) throws IOException {
+    writer.write(Localizer.getMessage("jspc.webinc.header"));
+    for (String servletName : servletNames.values()) {
+      writer.write("\n    <servlet>\n        <servlet-name>");
+      writer.write(servletName);
+      writer.write("</servlet-name>\n        <servlet-class>");
+      writer.write(servletName);
+      writer.write("</servlet-class>\n    </servlet>\n");
+    }
+    for (Map.Entry<String, String> mapping : servletNames.entrySet()) {
+      writer.write("\n    <servlet-mapping>\n        <servlet-name>");
+      writer.write(mapping.getValue());
+      writer.write("</servlet-name>\n        <url-pattern>");
+      writer.write(mapping.getKey());
+      writer.write("</url-pattern>\n    </servlet-mapping>\n");
+    }
+    writer.write(Localizer.getMessage("jspc.webinc.footer"));
+  }
+
+  /**
+   * Write the web.xml fragment.
+   *
+   * @param file the fragment, replaced if it exists
+   */
+  public void writeTo(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      writeTo(writer);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.apache.tomcat.util.descriptor.DigesterFactory;
+import org.apache.tomcat.util.descriptor.LocalResolver;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * Resolves the web.xml schemas and DTDs to the copies shipped with the servlet
+ * API, the catalog of Tomcat itself, so that validating the merged web.xml needs
+ * no network. Schemas which are not part of the catalog are still downloaded.
+ * <p>
+ * The compiled schemas are kept for the lifetime of the JVM, they are shared by
+ * the modules of a build and by the builds of a Maven daemon.
+ */
+public final class WebXmlSchemas {
+
+  private static final Map<String, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+  private WebXmlSchemas() {
+  }
+
+  /**
+   * @return a resolver for the parsers validating a web.xml against its DTD
+   */
+  public static EntityResolver2 newEntityResolver() {
+    return new LocalResolver(DigesterFactory.SERVLET_API_PUBLIC_IDS, DigesterFactory.SERVLET_API_SYSTEM_IDS, false);
+  }
+
+  /**
+   * @param schemaUrl location of the schema
+   * @return true if the schema, and the ones it imports, are read from the
+   *         servlet API
+   */
+  public static boolean isLocal(String schemaUrl) {
+    return DigesterFactory.SERVLET_API_SYSTEM_IDS.containsKey(schemaUrl);
+  }
+
+  /**
+   * @param schemaUrl location of the schema
+   * @return true if the schema has already been compiled by this JVM
+   */
+  public static boolean isCached(String schemaUrl) {
+    return SCHEMAS.containsKey(schemaUrl);
+  }
+
+  /**
+   * @param schemaUrl location of the schema
+   * @return the compiled schema, thread safe
+   * @throws SAXException if the schema cannot be read or compiled
+   */
+  public static Schema getSchema(String schemaUrl) throws SAXException {
+    Schema schema = SCHEMAS.get(schemaUrl);
+    if (schema == null) {
+      // compiled twice at worst, which is cheaper than holding a lock
+      schema = newSchema(schemaUrl);
+      Schema previous = SCHEMAS.putIfAbsent(schemaUrl, schema);
+      if (previous != null) {
+        schema = previous;
+      }
+    }
+    return schema;
+  }
+
+  private static Schema newSchema(String schemaUrl) throws SAXException {
+    SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+    schemaFactory.setResourceResolver(new ResourceResolver());
+    String location = DigesterFactory.SERVLET_API_SYSTEM_IDS.getOrDefault(schemaUrl, schemaUrl);
+    return schemaFactory.newSchema(new StreamSource(location));
+  }
+
+  /**
+   * The schemas of the catalog import each other with relative locations, and
+   * xml.xsd with its absolute one.
+   */
+  private static class ResourceResolver implements LSResourceResolver {
+
+    private final EntityResolver2 entityResolver = newEntityResolver();
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId,
+        String baseURI) {
+      if (systemId == null) {
+        return null;
+      }
+      try {
+        InputSource source = entityResolver.resolveEntity(null, publicId, baseURI, systemId);
+        if (source == null || source.getSystemId() == null) {
+          return null;
+        }
+        return new Input(publicId, source.getSystemId(), baseURI);
+      } catch (SAXException | IOException e) {
+        // let the schema factory try by itself
+        return null;
+      }
+    }
+  }
+
+  private static class Input implements LSInput {
+
+    private String publicId;
+    private String systemId;
+    private String baseURI;
+
+    Input(String publicId, String systemId, String baseURI) {
+      this.publicId = publicId;
+      this.systemId = systemId;
+      this.baseURI = baseURI;
+    }
+
+    @Override
+    public Reader getCharacterStream() {
+      return null;
+    }
+
+    @Override
+    public void setCharacterStream(Reader characterStream) {
+    }
+
+    @Override
+    public InputStream getByteStream() {
+      return null;
+    }
+
+    @Override
+    public void setByteStream(InputStream byteStream) {
+    }
+
+    @Override
+    public String getStringData() {
+      return null;
+    }
+
+    @Override
+    public void setStringData(String stringData) {
+    }
+
+    @Override
+    public String getSystemId() {
+      return systemId;
+    }
+
+    @Override
+    public void setSystemId(String systemId) {
+      this.systemId = systemId;
+    }
+
+    @Override
+    public String getPublicId() {
+      return publicId;
+    }
+
+    @Override
+    public void setPublicId(String publicId) {
+      this.publicId = publicId;
+    }
+
+    @Override
+    public String getBaseURI() {
+      return baseURI;
+    }
+
+    @Override
+    public void setBaseURI(String baseURI) {
+      this.baseURI = baseURI;
+    }
+
+    @Override
+    public String getEncoding() {
+      return null;
+    }
+
+    @Override
+    public void setEncoding(String encoding) {
+    }
+
+    @Override
+    public boolean getCertifiedText() {
+      return false;
+    }
+
+    @Override
+    public void setCertifiedText(boolean certifiedText) {
+    }
+  }
+}
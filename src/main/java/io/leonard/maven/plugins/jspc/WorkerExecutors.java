@@ -0,0 +1,69 @@
+package io.leonard.maven.plugins.jspc;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Creates the executor running the {@link JspcWorker}s.
+ * <ul>
+ * <li>fixed: a pool of platform threads, one per worker (default)</li>
+ * <li>forkjoin: a {@link ForkJoinPool} with the same parallelism</li>
+ * <li>virtual: one virtual thread per worker, only when the plugin runs on a
+ * JDK providing them (21+), a fixed pool otherwise</li>
+ * </ul>
+ * Whatever the executor, the jsps are shared between the workers by the
+ * {@link JspWorkQueue}, the executor only decides which threads run them.
+ */
+public final class WorkerExecutors {
+
+  public static final String FIXED = "fixed";
+  public static final String FORK_JOIN = "forkjoin";
+  public static final String VIRTUAL = "virtual";
+
+  private WorkerExecutors() {
+  }
+
+  /**
+   * @param strategy one of {@link #FIXED}, {@link #FORK_JOIN} or {@link #VIRTUAL}
+   * @param threads  number of workers
+   * @param log      where a fallback to the fixed pool is reported
+   * @return the executor
+   * @throws IllegalArgumentException if the strategy is unknown
+   */
+  public static ExecutorService create(String strategy, int threads, Log log) {
+    String value = strategy == null ? FIXED : strategy.trim().toLowerCase(Locale.ROOT);
+    switch (value) {
+    case FIXED:
+      return Executors.newFixedThreadPool(threads);
+    case FORK_JOIN:
+      return new ForkJoinPool(threads);
+    case VIRTUAL:
+      ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+      if (virtual != null) {
+        return virtual;
+      }
+      log.warn("Virtual threads need Java 21 or later, running on " + System.getProperty("java.version")
+          + ": using a fixed thread pool");
+      return Executors.newFixedThreadPool(threads);
+    default:
+      throw new IllegalArgumentException(
+          "Invalid executor '" + strategy + "', expected " + FIXED + ", " + FORK_JOIN + " or " + VIRTUAL);
+    }
+  }
+
+  /**
+   * The plugin is compiled for older JDKs, so the factory method is looked up at
+   * runtime.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
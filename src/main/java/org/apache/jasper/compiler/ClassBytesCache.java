@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Uncompressed dependency class files read by the compilers during the previous
+ * builds, kept in a single file which is read at once when the build starts,
+ * so that a new JVM finds the classes it needs without inflating them from the
+ * jars or asking the class loader of the JDK. The file is read rather than
+ * mapped: Windows does not let {@link #save(Path)} replace a mapped file.<br>
+ * Each class belongs to a source, a jar or the JDK, with the checksum the
+ * source had when the class was read. A class is served only if its source is
+ * part of the classpath of the build with the same checksum, and the classes of
+ * the sources which are not are dropped when the cache is saved.
+ * <p>
+ * The parsed form of the classes is not kept: {@code ClassFileReader} has no
+ * stable serialized form, and it reads its fields lazily from the bytes.
+ */
+public class ClassBytesCache {
+
+	private static final int MAGIC = 0x4a535043;
+	private static final int VERSION = 1;
+
+	private final Log log = LogFactory.getLog(ClassBytesCache.class); // must not be static
+
+	/** Classes of the cache file, read only */
+	private final Map<String, Entry> entries;
+	/** Content of the cache file, null if it did not exist */
+	private final ByteBuffer data;
+
+	/** Sources of the classpath of the build, with their checksums */
+	private final Map<String, Long> sources = new ConcurrentHashMap<>();
+	/** Classes read during this build which were not in the cache */
+	private final Map<String, Entry> addedEntries = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+
+	private ClassBytesCache(Map<String, Entry> entries, ByteBuffer data) {
+		this.entries = entries;
+		this.data = data;
+	}
+
+	/**
+	 * Read the cache file. If it does not exist or cannot be read, an empty cache
+	 * is returned.
+	 *
+	 * @param file the cache file
+	 * @return the classes of the previous builds
+	 */
+	public static ClassBytesCache load(Path file) {
+		if (!Files.isRegularFile(file)) {
+			return new ClassBytesCache(new HashMap<>(), null);
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+			return new ClassBytesCache(readEntries(buffer), buffer);
+		} catch (IOException | RuntimeException e) {
+			LogFactory.getLog(ClassBytesCache.class).warn("Unable to read the class cache " + file + ", ignoring it",
+					e);
+			return new ClassBytesCache(new HashMap<>(), null);
+		}
+	}
+
+	/**
+	 * Declare a source of the classpath of the build, so that its cached classes
+	 * are served and kept.
+	 *
+	 * @param source   the absolute path of a jar, or a name for the JDK
+	 * @param checksum the checksum of the source, which changes with its content
+	 */
+	public void addSource(String source, long checksum) {
+		sources.put(source, checksum);
+	}
+
+	/**
+	 * @param source    where the class is
+	 * @param className a fully qualified name
+	 * @return the class file, or null if it is not cached or if its source
+	 *         changed
+	 */
+	public byte[] get(String source, String className) {
+		Entry entry = addedEntries.get(className);
+		if (entry == null) {
+			entry = entries.get(className);
+		}
+		if (entry == null || !entry.source.equals(source) || !isValid(entry)) {
+			return null;
+		}
+		hits.increment();
+		return entry.getBytes(data);
+	}
+
+	/**
+	 * @param source     where the class was read, declared with
+	 *                   {@link #addSource(String, long)}
+	 * @param className  a fully qualified name
+	 * @param classBytes the class file
+	 */
+	public void put(String source, String className, byte[] classBytes) {
+		Long checksum = sources.get(source);
+		if (checksum != null) {
+			addedEntries.put(className, new Entry(source, checksum, classBytes));
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public int getAddedCount() {
+		return addedEntries.size();
+	}
+
+	/**
+	 * Write the classes of the sources of this build, those of the file and those
+	 * added. The file is replaced at once, builds running at the same time read
+	 * either the old or the new one.
+	 *
+	 * @param file the cache file
+	 */
+	public void save(Path file) throws IOException {
+		Map<String, Entry> saved = new LinkedHashMap<>();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (isValid(entry.getValue())) {
+				saved.put(entry.getKey(), entry.getValue());
+			}
+		}
+		saved.putAll(addedEntries);
+
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp);
+					DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out))) {
+				write(saved, dataOut);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Saved " + saved.size() + " classes in " + file);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "class cache: " + size() + " classes loaded, " + getHitCount() + " hits, " + getAddedCount()
+				+ " classes added";
+	}
+
+	private boolean isValid(Entry entry) {
+		Long checksum = sources.get(entry.source);
+		return checksum != null && checksum == entry.checksum;
+	}
+
+	/**
+	 * The file holds the sources, then the classes with the source, offset and
+	 * length of their bytes, then the bytes.
+	 */
+	private void write(Map<String, Entry> saved, DataOutputStream out) throws IOException {
+		Map<String, Integer> sourceIndexes = new LinkedHashMap<>();
+		List<Entry> sourceEntries = new ArrayList<>();
+		for (Entry entry : saved.values()) {
+			if (sourceIndexes.putIfAbsent(entry.source, sourceIndexes.size()) == null) {
+				sourceEntries.add(entry);
+			}
+		}
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(sourceEntries.size());
+		for (Entry entry : sourceEntries) {
+			writeString(out, entry.source);
+			out.writeLong(entry.checksum);
+		}
+		out.writeInt(saved.size());
+		int offset = 0;
+		for (Map.Entry<String, Entry> entry : saved.entrySet()) {
+			writeString(out, entry.getKey());
+			out.writeInt(sourceIndexes.get(entry.getValue().source));
+			out.writeInt(offset);
+			out.writeInt(entry.getValue().length);
+			offset += entry.getValue().length;
+		}
+		for (Entry entry : saved.values()) {
+			out.write(entry.getBytes(data));
+		}
+	}
+
+	private static Map<String, Entry> readEntries(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a class cache of this version");
+		}
+		int sourceCount = buffer.getInt();
+		String[] sourceNames = new String[sourceCount];
+		long[] checksums = new long[sourceCount];
+		for (int i = 0; i < sourceCount; i++) {
+			sourceNames[i] = readString(buffer);
+			checksums[i] = buffer.getLong();
+		}
+		int classCount = buffer.getInt();
+		Map<String, Entry> entries = new HashMap<>(classCount * 4 / 3 + 1);
+		List<Entry> read = new ArrayList<>(classCount);
+		for (int i = 0; i < classCount; i++) {
+			String className = readString(buffer);
+			int source = buffer.getInt();
+			Entry entry = new Entry(sourceNames[source], checksums[source], buffer.getInt(), buffer.getInt());
+			entries.put(className, entry);
+			read.add(entry);
+		}
+		int start = buffer.position();
+		for (Entry entry : read) {
+			if (entry.offset < 0 || (long) start + entry.offset + entry.length > buffer.limit()) {
+				throw new IOException("Truncated class cache");
+			}
+			entry.offset += start;
+		}
+		return entries;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A class, either in the content of the cache file or read during this build.
+	 */
+	private static final class Entry {
+
+		private final String source;
+		private final long checksum;
+		private int offset;
+		private final int length;
+		private final byte[] bytes;
+
+		Entry(String source, long checksum, int offset, int length) {
+			this.source = source;
+			this.checksum = checksum;
+			this.offset = offset;
+			this.length = length;
+			this.bytes = null;
+		}
+
+		Entry(String source, long checksum, byte[] bytes) {
+			this.source = source;
+			this.checksum = checksum;
+			this.offset = -1;
+			this.length = bytes.length;
+			this.bytes = bytes;
+		}
+
+		byte[] getBytes(ByteBuffer data) {
+			if (bytes != null) {
+				return bytes;
+			}
+			byte[] copy = new byte[length];
+			ByteBuffer slice = data.duplicate();
+			slice.position(offset).limit(offset + length);
+			slice.get(copy);
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+
+/**
+ * Parsed class files of the dependencies (servlet API, JDK, taglibs...) shared by
+ * all the {@link ParallelJDTCompiler} of a build, so that each type is read and
+ * parsed once per build instead of once per jsp.<br>
+ * The cache is bounded: it is split in segments, each one evicting its least
+ * recently used entry when full, so that threads looking up different types
+ * rarely wait for each other.
+ */
+public class ClassFileCache {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxEntries maximum number of class files kept in memory
+	 */
+	public ClassFileCache(int maxEntries) {
+		int segmentSize = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * @param className fully qualified name of the class
+	 * @return the cached class file, or null if it must be read again
+	 */
+	public ClassFileReader get(String className) {
+		Segment segment = segmentFor(className);
+		ClassFileReader reader;
+		synchronized (segment) {
+			reader = segment.get(className);
+		}
+		if (reader == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return reader;
+	}
+
+	/**
+	 * @param className fully qualified name of the class
+	 * @param reader    fully initialized class file, so that it can be shared
+	 *                  between threads without being modified
+	 */
+	public void put(String className, ClassFileReader reader) {
+		Segment segment = segmentFor(className);
+		synchronized (segment) {
+			segment.put(className, reader);
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		long hitCount = getHitCount();
+		long lookups = hitCount + getMissCount();
+		return "class file cache: " + size() + " entries, " + lookups + " lookups, " + hitCount + " hits ("
+				+ (lookups == 0 ? 0 : hitCount * 100 / lookups) + "%), " + getEvictionCount() + " evictions";
+	}
+
+	private Segment segmentFor(String className) {
+		int hash = className.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	private class Segment extends LinkedHashMap<String, ClassFileReader> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxEntries;
+
+		Segment(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ClassFileReader> eldest) {
+			if (size() > maxEntries) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Index of the packages and classes of the compilation classpath, built once
+ * per build from the central directories of the jars, so that the compilers can
+ * answer
+ * {@link org.eclipse.jdt.internal.compiler.env.INameEnvironment#isPackage(char[][], char[])}
+ * without asking the class loader. The class directories are listed one package
+ * at a time, the first time a name of that package is looked up, since most of
+ * their classes, the jsps compiled earlier for example, are never asked for.<br>
+ * Names the index does not know (classes provided by a parent class loader for
+ * example) are probed once with the class loader and the answer is kept for the
+ * rest of the build.
+ * <p>
+ * The index also knows where each class is, so that
+ * {@link #getClassBytes(String)} reads it straight from its entry in the jar,
+ * or from its file, instead of asking every jar of the class loader in
+ * turn. When several elements of the classpath define the same class, the first
+ * one wins, as with the class loader. The classes of the packages of the JDK are
+ * always read by the class loader, which gives them precedence.<br>
+ * With a {@link ClassBytesCache}, the classes read from the jars and from the JDK
+ * are kept from one build to the next.
+ */
+public class ClasspathIndex {
+
+	private final Log log = LogFactory.getLog(ClasspathIndex.class); // must not be static
+
+	/** Source of the classes of the JDK in the {@link ClassBytesCache} */
+	private static final String PLATFORM_SOURCE = "jrt:" + System.getProperty("java.home");
+
+	private final Set<String> packages = ConcurrentHashMap.newKeySet();
+	private final Set<String> platformPackages = ConcurrentHashMap.newKeySet();
+	private final Map<String, ClassLocation> classes = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> probedNames = new ConcurrentHashMap<>();
+	/** Class directories by position in the classpath */
+	private final Map<Integer, Path> directories = new ConcurrentHashMap<>();
+	/** Packages whose directories have been listed */
+	private final Map<String, Boolean> listedPackages = new ConcurrentHashMap<>();
+
+	private final LongAdder indexHits = new LongAdder();
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder indexReads = new LongAdder();
+
+	private final ClassBytesCache classBytesCache;
+
+	private ClasspathIndex(ClassBytesCache classBytesCache) {
+		this.classBytesCache = classBytesCache;
+	}
+
+	/**
+	 * @param classpath jars and class directories to index, in the order the
+	 *                  class loader searches them
+	 * @return the index of the classpath and of the packages of the JDK
+	 */
+	public static ClasspathIndex build(List<URL> classpath) {
+		return build(classpath, null);
+	}
+
+	/**
+	 * @param classpath       jars and class directories to index, in the order
+	 *                        the class loader searches them
+	 * @param classBytesCache the classes of the previous builds, null to read
+	 *                        them all from the classpath
+	 * @return the index of the classpath and of the packages of the JDK
+	 */
+	public static ClasspathIndex build(List<URL> classpath, ClassBytesCache classBytesCache) {
+		ClasspathIndex index = new ClasspathIndex(classBytesCache);
+		index.addPlatformPackages();
+		if (classBytesCache != null) {
+			CRC32 version = new CRC32();
+			version.update(System.getProperty("java.runtime.version", "").getBytes(StandardCharsets.UTF_8));
+			classBytesCache.addSource(PLATFORM_SOURCE, version.getValue());
+		}
+		IntStream.range(0, classpath.size()).parallel().forEach(order -> index.add(classpath.get(order), order));
+		return index;
+	}
+
+	/**
+	 * @param name     a fully qualified name
+	 * @param probeWith class loader used when the index does not know the name
+	 * @return false if name is a class, true otherwise (same contract as the
+	 *         class loader based implementation of the compilers)
+	 */
+	public boolean isPackage(String name, ClassLoader probeWith) {
+		listDirectories(name);
+		if (classes.containsKey(name)) {
+			indexHits.increment();
+			return false;
+		}
+		if (packages.contains(name)) {
+			indexHits.increment();
+			return true;
+		}
+		Boolean isPackage = probedNames.get(name);
+		if (isPackage == null) {
+			probes.increment();
+			isPackage = !exists(name, probeWith);
+			probedNames.put(name, isPackage);
+		}
+		return isPackage;
+	}
+
+	/**
+	 * @param name a fully qualified name
+	 * @return true if the class is part of the indexed classpath
+	 */
+	public boolean containsClass(String name) {
+		listDirectories(name);
+		return classes.containsKey(name);
+	}
+
+	/**
+	 * @param className a fully qualified name
+	 * @return the class file, or null if the index does not know where the class
+	 *         is and the class loader must be asked
+	 * @throws IOException if the class file cannot be read
+	 */
+	public byte[] getClassBytes(String className) throws IOException {
+		byte[] classBytes;
+		if (isPlatformClass(className)) {
+			classBytes = classBytesCache == null ? null : classBytesCache.get(PLATFORM_SOURCE, className);
+		} else {
+			listDirectories(className);
+			ClassLocation location = classes.get(className);
+			classBytes = location == null ? null : location.read(className, classBytesCache);
+		}
+		if (classBytes != null) {
+			indexReads.increment();
+		}
+		return classBytes;
+	}
+
+	/**
+	 * Keep a class the class loader read because the index could not, for the
+	 * next builds. Only the classes of the JDK are kept.
+	 *
+	 * @param className  a fully qualified name
+	 * @param classBytes its class file
+	 */
+	public void addLoadedClass(String className, byte[] classBytes) {
+		if (classBytesCache != null && isPlatformClass(className)) {
+			classBytesCache.put(PLATFORM_SOURCE, className, classBytes);
+		}
+	}
+
+	/**
+	 * @param className a fully qualified name
+	 * @return true if the class is known not to exist, because the class loader
+	 *         did not find it earlier in the build
+	 */
+	public boolean isMissingClass(String className) {
+		listDirectories(className);
+		return Boolean.TRUE.equals(probedNames.get(className)) && !classes.containsKey(className);
+	}
+
+	/**
+	 * Remember that the class loader does not know the class, so that the next
+	 * lookups of the build do not search the classpath again.
+	 *
+	 * @param className a fully qualified name
+	 */
+	public void addMissingClass(String className) {
+		listDirectories(className);
+		if (!classes.containsKey(className)) {
+			probedNames.put(className, Boolean.TRUE);
+		}
+	}
+
+	public int getPackageCount() {
+		return packages.size();
+	}
+
+	public int getClassCount() {
+		return classes.size();
+	}
+
+	public long getIndexHitCount() {
+		return indexHits.sum();
+	}
+
+	public long getProbeCount() {
+		return probes.sum();
+	}
+
+	public long getIndexReadCount() {
+		return indexReads.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "classpath index: " + packages.size() + " packages, " + classes.size() + " classes, "
+				+ getIndexHitCount() + " answers from the index, " + getProbeCount() + " class loader probes, "
+				+ getIndexReadCount() + " class files read from the index";
+	}
+
+	private boolean isPlatformClass(String className) {
+		int dot = className.lastIndexOf('.');
+		return dot > 0 && platformPackages.contains(className.substring(0, dot));
+	}
+
+	private static boolean exists(String name, ClassLoader classLoader) {
+		String resourceName = name.replace('.', '/') + ".class";
+		try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
+			return is != null;
+		} catch (IOException e) {
+			// we are here, since close on is failed. That means it was not null
+			return true;
+		}
+	}
+
+	private void add(URL url, int order) {
+		File file;
+		try {
+			file = new File(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			file = new File(url.getFile());
+		}
+		try {
+			if (file.isDirectory()) {
+				directories.put(order, file.toPath());
+			} else if (file.isFile()) {
+				addJar(file, order);
+			}
+		} catch (IOException e) {
+			log.warn("Unable to index " + file + ", its classes will be looked up with the class loader", e);
+		}
+	}
+
+	private void addJar(File jar, int order) throws IOException {
+		IndexedJar indexedJar = null;
+		try {
+			indexedJar = IndexedJar.open(jar);
+		} catch (IOException e) {
+			log.debug("Unable to read the central directory of " + jar + ", its classes will be read by the class loader",
+					e);
+		}
+		if (indexedJar != null && !isMultiRelease(indexedJar)) {
+			IndexedJar indexed = indexedJar;
+			if (classBytesCache != null) {
+				classBytesCache.addSource(jar.getAbsolutePath(), indexed.getChecksum());
+			}
+			indexed.forEachEntry((entryName, header) -> addEntry(entryName, new ClassLocation(order, indexed, header)));
+			return;
+		}
+		ClassLocation notIndexed = new ClassLocation(order, null, -1);
+		try (ZipFile zipFile = new ZipFile(jar)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				addEntry(entries.nextElement().getName(), notIndexed);
+			}
+		}
+	}
+
+	/**
+	 * The class loader reads the classes of a multi-release jar from the
+	 * directory of the running version, which the index does not resolve.
+	 */
+	private static boolean isMultiRelease(IndexedJar jar) throws IOException {
+		boolean[] multiRelease = new boolean[1];
+		jar.forEachEntry((entryName, header) -> multiRelease[0] |= entryName.startsWith("META-INF/versions/"));
+		return multiRelease[0];
+	}
+
+	/**
+	 * List the package of name in the class directories, unless it has been
+	 * listed already: its classes and its sub packages, among which name if it is
+	 * a package. The threads looking up the same package wait for its listing.
+	 */
+	private void listDirectories(String name) {
+		if (directories.isEmpty()) {
+			return;
+		}
+		int dot = name.lastIndexOf('.');
+		listedPackages.computeIfAbsent(dot < 0 ? "" : name.substring(0, dot), this::listPackage);
+	}
+
+	private Boolean listPackage(String packageName) {
+		String packagePath = packageName.replace('.', '/');
+		directories.forEach((order, directory) -> {
+			Path packageDirectory = packageName.isEmpty() ? directory : directory.resolve(packagePath);
+			if (!Files.isDirectory(packageDirectory)) {
+				return;
+			}
+			try (Stream<Path> files = Files.list(packageDirectory)) {
+				files.forEach(f -> {
+					String fileName = f.getFileName().toString();
+					String entryName = packageName.isEmpty() ? fileName : packagePath + '/' + fileName;
+					if (Files.isDirectory(f)) {
+						String subPackage = entryName.replace('/', '.');
+						if (packages.add(subPackage)) {
+							addPackages(subPackage);
+						}
+					} else {
+						addEntry(entryName, new ClassLocation(order, f));
+					}
+				});
+			} catch (IOException | UncheckedIOException e) {
+				log.warn("Unable to list " + packageDirectory + ", its classes will be looked up with the class loader",
+						e);
+			}
+		});
+		return Boolean.TRUE;
+	}
+
+	private void addEntry(String entryName, ClassLocation location) {
+		if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/")
+				|| entryName.endsWith("module-info.class")) {
+			return;
+		}
+		String className = entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+		classes.merge(className, location, (previous, added) -> previous.order <= added.order ? previous : added);
+		addPackages(className);
+	}
+
+	private void addPackages(String className) {
+		int dot = className.lastIndexOf('.');
+		while (dot > 0) {
+			if (!packages.add(className.substring(0, dot))) {
+				return;
+			}
+			dot = className.lastIndexOf('.', dot - 1);
+		}
+	}
+
+	/**
+	 * The JDK classes are not on the classpath, but the jrt file system lists
+	 * their packages cheaply.
+	 */
+	private void addPlatformPackages() {
+		try {
+			FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+			try (Stream<Path> platformPackages = Files.list(jrt.getPath("/packages"))) {
+				platformPackages.forEach(p -> {
+					String packageName = p.getFileName().toString();
+					this.platformPackages.add(packageName);
+					if (packages.add(packageName)) {
+						addPackages(packageName);
+					}
+				});
+			}
+		} catch (IOException | RuntimeException e) {
+			log.debug("Unable to index the packages of the JDK", e);
+		}
+	}
+
+	/**
+	 * Where a class is: an entry of an indexed jar, a file of a class directory,
+	 * or a jar the index could not read, whose classes are left to the class
+	 * loader.
+	 */
+	private static final class ClassLocation {
+
+		/** Position of the jar or directory in the classpath */
+		private final int order;
+		private final IndexedJar jar;
+		private final int header;
+		private final Path file;
+
+		ClassLocation(int order, IndexedJar jar, int header) {
+			this.order = order;
+			this.jar = jar;
+			this.header = header;
+			this.file = null;
+		}
+
+		ClassLocation(int order, Path file) {
+			this.order = order;
+			this.jar = null;
+			this.header = -1;
+			this.file = file;
+		}
+
+		byte[] read(String className, ClassBytesCache classBytesCache) throws IOException {
+			if (jar != null) {
+				if (classBytesCache == null) {
+					return jar.read(header);
+				}
+				String source = jar.getFile().getAbsolutePath();
+				byte[] classBytes = classBytesCache.get(source, className);
+				if (classBytes == null) {
+					classBytes = jar.read(header);
+					if (classBytes != null) {
+						classBytesCache.put(source, className, classBytes);
+					}
+				}
+				return classBytes;
+			}
+			if (file != null) {
+				try {
+					return Files.readAllBytes(file);
+				} catch (NoSuchFileException e) {
+					// deleted since the index was built
+					return null;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jasper.JasperException;
+
+/**
+ * Pages of one thread whose java sources have been generated by
+ * {@link ParallelJDTCompiler} but not compiled yet.<br>
+ * Compiling them together lets JDT resolve the servlet API and the taglibs once
+ * per batch instead of once per page. A batch is not thread safe, each thread
+ * must own its batch.
+ */
+public class CompilationBatch {
+
+	private final int maxSize;
+	private final List<ParallelJDTCompiler> pages = new ArrayList<>();
+
+	/**
+	 * @param maxSize number of pages compiled together
+	 */
+	public CompilationBatch(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	void add(ParallelJDTCompiler page) {
+		pages.add(page);
+	}
+
+	public boolean isFull() {
+		return pages.size() >= maxSize;
+	}
+
+	public boolean isEmpty() {
+		return pages.isEmpty();
+	}
+
+	/**
+	 * @param jspFile uri of a jsp
+	 * @return true if the jsp has been generated but not compiled yet
+	 */
+	public boolean contains(String jspFile) {
+		for (ParallelJDTCompiler page : pages) {
+			if (page.getJspFile().equals(jspFile)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return uris of the jsps waiting to be compiled
+	 */
+	public List<String> getJspFiles() {
+		List<String> jspFiles = new ArrayList<>();
+		for (ParallelJDTCompiler page : pages) {
+			jspFiles.add(page.getJspFile());
+		}
+		return jspFiles;
+	}
+
+	/**
+	 * Compile all the pending pages and empty the batch.
+	 *
+	 * @return the errors of the pages that could not be compiled, by jsp uri
+	 * @throws Exception if the compilation itself failed
+	 */
+	public Map<String, JasperException> compile() throws Exception {
+		List<ParallelJDTCompiler> compiled = new ArrayList<>(pages);
+		pages.clear();
+		return ParallelJDTCompiler.compile(compiled, true);
+	}
+}
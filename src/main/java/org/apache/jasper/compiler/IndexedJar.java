@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A jar whose central directory is read once into the heap, so that its entries
+ * are read straight from the file at the offsets of the central directory,
+ * without the buffers and the search of the jars of a class loader.<br>
+ * The central directory is read only and shared by all the threads. The jar is
+ * only open while its central directory or one of its entries is read, so that
+ * it is neither mapped nor locked after the build.
+ * <p>
+ * Only the plain zip format is handled: {@link #open(File)} returns null for
+ * zip64 archives, which are left to the class loader.
+ */
+final class IndexedJar {
+
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int END_SIZE = 22;
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_SIZE = 46;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_SIZE = 30;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int ENCRYPTED = 1;
+
+	private final File file;
+	private final ByteBuffer central;
+	/** Offset of the central directory in the jar, where the entries end */
+	private final long centralOffset;
+	private final long checksum;
+
+	private IndexedJar(File file, ByteBuffer central, long centralOffset, long size) {
+		this.file = file;
+		this.central = central;
+		this.centralOffset = centralOffset;
+		CRC32 crc = new CRC32();
+		crc.update(central.duplicate());
+		this.checksum = size << 32 ^ crc.getValue();
+	}
+
+	/**
+	 * @param file a jar
+	 * @return the jar with its central directory, or null if its format is not
+	 *         handled
+	 * @throws IOException if the jar cannot be read or is not a zip file
+	 */
+	static IndexedJar open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			// the end of central directory record is followed by a comment of at
+			// most 64 KB
+			int tailSize = (int) Math.min(size, END_SIZE + 0xFFFF);
+			ByteBuffer tail = read(channel, size - tailSize, tailSize);
+			int end = findEnd(tail);
+			if (end < 0) {
+				throw new IOException("No central directory in " + file);
+			}
+			int entryCount = getUnsignedShort(tail, end + 10);
+			long centralSize = getUnsignedInt(tail, end + 12);
+			long centralOffset = getUnsignedInt(tail, end + 16);
+			if (entryCount == 0xFFFF || centralSize == 0xFFFFFFFFL || centralOffset == 0xFFFFFFFFL) {
+				// zip64
+				return null;
+			}
+			if (centralOffset + centralSize > size - tailSize + end) {
+				throw new IOException("Invalid central directory in " + file);
+			}
+			return new IndexedJar(file, read(channel, centralOffset, (int) centralSize), centralOffset, size);
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return a checksum of the central directory, which holds the name, the
+	 *         size and the CRC of every entry, and of the size of the jar
+	 */
+	long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @param consumer called with the name of every entry and the position of
+	 *                 its header in the central directory
+	 * @throws IOException if the central directory is corrupted
+	 */
+	void forEachEntry(ObjIntConsumer<String> consumer) throws IOException {
+		int position = 0;
+		while (position + CENTRAL_SIZE <= central.limit()) {
+			if (central.getInt(position) != CENTRAL_SIGNATURE) {
+				throw new IOException("Invalid central directory in " + file);
+			}
+			int nameLength = getUnsignedShort(central, position + 28);
+			int extraLength = getUnsignedShort(central, position + 30);
+			int commentLength = getUnsignedShort(central, position + 32);
+			if (position + CENTRAL_SIZE + nameLength > central.limit()) {
+				throw new IOException("Invalid central directory in " + file);
+			}
+			byte[] name = new byte[nameLength];
+			ByteBuffer slice = central.duplicate();
+			slice.position(position + CENTRAL_SIZE).limit(position + CENTRAL_SIZE + nameLength);
+			slice.get(name);
+			consumer.accept(new String(name, StandardCharsets.UTF_8), position);
+			position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	/**
+	 * @param header position of the header of the entry in the central directory,
+	 *               as given by {@link #forEachEntry(ObjIntConsumer)}
+	 * @return the uncompressed content of the entry, or null if it is encrypted
+	 *         or compressed with another method than deflate
+	 * @throws IOException if the entry is corrupted
+	 */
+	byte[] read(int header) throws IOException {
+		int flags = getUnsignedShort(central, header + 8);
+		int method = getUnsignedShort(central, header + 10);
+		long compressedSize = getUnsignedInt(central, header + 20);
+		long size = getUnsignedInt(central, header + 24);
+		long localOffset = getUnsignedInt(central, header + 42);
+		if ((flags & ENCRYPTED) != 0 || (method != STORED && method != DEFLATED) || size > Integer.MAX_VALUE
+				|| compressedSize > Integer.MAX_VALUE || localOffset + LOCAL_SIZE > centralOffset) {
+			return null;
+		}
+		ByteBuffer content;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer local = read(channel, localOffset, LOCAL_SIZE);
+			if (local.getInt(0) != LOCAL_SIGNATURE) {
+				throw new IOException("Invalid local header in " + file);
+			}
+			long data = localOffset + LOCAL_SIZE + getUnsignedShort(local, 26) + getUnsignedShort(local, 28);
+			if (data + compressedSize > centralOffset) {
+				throw new IOException("Invalid entry size in " + file);
+			}
+			content = read(channel, data, (int) compressedSize);
+		}
+		byte[] bytes = new byte[(int) size];
+		if (method == STORED) {
+			content.get(bytes);
+			return bytes;
+		}
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(content);
+			int count = 0;
+			while (count < bytes.length) {
+				int inflated = inflater.inflate(bytes, count, bytes.length - count);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated entry in " + file);
+				}
+				count += inflated;
+			}
+			return bytes;
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed entry in " + file, e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return length bytes of the channel from position, in a heap buffer
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static int findEnd(ByteBuffer tail) {
+		int last = tail.limit() - END_SIZE;
+		for (int position = last; position >= 0; position--) {
+			if (tail.getInt(position) == END_SIGNATURE
+					&& position + END_SIZE + getUnsignedShort(tail, position + 20) == tail.limit()) {
+				return position;
+			}
+		}
+		return -1;
+	}
+
+	private static int getUnsignedShort(ByteBuffer buffer, int position) {
+		return buffer.getShort(position) & 0xFFFF;
+	}
+
+	private static long getUnsignedInt(ByteBuffer buffer, int position) {
+		return buffer.getInt(position) & 0xFFFFFFFFL;
+	}
+}
@@ -19,6 +19,7 @@ package org.apache.jasper.compiler;
 import java.io.*;
 import java.util.*;
 
+import io.leonard.maven.plugins.jspc.JspCContextAccessor;
 import org.apache.jasper.JasperException;
 import org.apache.juli.logging.*;
 import org.eclipse.jdt.core.compiler.IProblem;
@@ -37,6 +38,27 @@ public class JspcMojoJDTCompiler extends org.apache.jasper.compiler.Compiler {
 
 	private final Log log = LogFactory.getLog(JspcMojoJDTCompiler.class); // must not be static
 
+    /**
+     * @return the index shared by all the compilers of the build, or null if the
+     *         compiler is not run by this plugin
+     */
+    private ClasspathIndex getClasspathIndex() {
+        if (options instanceof JspCContextAccessor) {
+            return ((JspCContextAccessor) options).getClasspathIndex();
+        }
+        return null;
+    }
+
+    /**
+     * The servlets and tag handlers generated during the build are not part of
+     * the index.
+     */
+    private boolean isGeneratedClass(String className) {
+        return className.startsWith(ctxt.getBasePackageName() + ".")
+                || className.startsWith(options.getGeneratedJspPackageName() + ".")
+                || className.startsWith(options.getGeneratedTagFilePackageName() + ".");
+    }
+
 	 /**
      * Compile the servlet from .java file to .class file
      */
@@ -56,6 +78,7 @@ public class JspcMojoJDTCompiler extends org.apache.jasper.compiler.Compiler {
             ((packageName.length() != 0) ? (packageName + ".") : "")
                     + ctxt.getServletClassName();
         final ClassLoader classLoader = ctxt.getJspLoader();
+        final ClasspathIndex classpathIndex = getClasspathIndex();
         String[] fileNames = new String[] {sourceFile};
         String[] classNames = new String[] {targetClassName};
         final List<JavacErrorDetail> problemList = new ArrayList<>();
@@ -164,21 +187,27 @@ public class JspcMojoJDTCompiler extends org.apache.jasper.compiler.Compiler {
                             new NameEnvironmentAnswer(compilationUnit, null);
                     }
 
+                    boolean indexed = classpathIndex != null && !isGeneratedClass(className);
+                    if (indexed && classpathIndex.isMissingClass(className)) {
+                        return null;
+                    }
+
                     String resourceName =
                             className.replace('.', '/') + ".class";
 
-                    try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
-                        if (is != null) {
-                            byte[] classBytes;
-                            byte[] buf = new byte[8192];
-                            ByteArrayOutputStream baos =
-                                new ByteArrayOutputStream(buf.length);
-                            int count;
-                            while ((count = is.read(buf, 0, buf.length)) > 0) {
-                                baos.write(buf, 0, count);
+                    try {
+                        byte[] classBytes = indexed ? classpathIndex.getClassBytes(className) : null;
+                        if (classBytes == null) {
+                            try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
+                                if (is != null) {
+                                    classBytes = is.readAllBytes();
+                                    if (indexed) {
+                                        classpathIndex.addLoadedClass(className, classBytes);
+                                    }
+                                }
                             }
-                            baos.flush();
-                            classBytes = baos.toByteArray();
+                        }
+                        if (classBytes != null) {
                             char[] fileName = className.toCharArray();
                             ClassFileReader classFileReader =
                                 new ClassFileReader(classBytes, fileName,
@@ -186,6 +215,9 @@ public class JspcMojoJDTCompiler extends org.apache.jasper.compiler.Compiler {
                             return
                                 new NameEnvironmentAnswer(classFileReader, null);
                         }
+                        if (indexed) {
+                            classpathIndex.addMissingClass(className);
+                        }
                     } catch (IOException exc) {
                         log.error(Localizer.getMessage("jsp.error.compilation.dependent", className), exc);
                     } catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
@@ -198,6 +230,9 @@ public class JspcMojoJDTCompiler extends org.apache.jasper.compiler.Compiler {
                     if (result.equals(targetClassName)) {
                         return false;
                     }
+                    if (classpathIndex != null && !isGeneratedClass(result)) {
+                        return classpathIndex.isPackage(result, classLoader);
+                    }
                     String resourceName = result.replace('.', '/') + ".class";
                     try (InputStream is =
                         classLoader.getResourceAsStream(resourceName)) {
@@ -18,8 +18,12 @@ package org.apache.jasper.compiler;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+import io.leonard.maven.plugins.jspc.JspCContextAccessor;
+import io.leonard.maven.plugins.jspc.JspCompileReport;
 import org.apache.jasper.JasperException;
+import org.apache.jasper.TrimSpacesOption;
 import org.apache.juli.logging.*;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.eclipse.jdt.internal.compiler.*;
@@ -31,12 +35,32 @@ import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
 
 /**
  * Based on {@link JDTCompiler}.<br>
- * Try to avoid some synchronization with this compiler when it use in parallel (with more than 4 threads)
+ * Try to avoid some synchronization with this compiler when it use in parallel (with more than 4 threads)<br>
+ * When a {@link CompilationBatch} is configured, the generated servlets are not
+ * compiled one by one but handed to the batch, which compiles them together with
+ * a single JDT compiler.<br>
+ * When the sources are kept in memory, the generated servlets are handed to JDT
+ * without being written to the disk.<br>
+ * The time spent in each phase is recorded in the {@link JspCompileReport} of
+ * the build, if any.
  */
 public class ParallelJDTCompiler extends org.apache.jasper.compiler.Compiler {
 
 	private final Log log = LogFactory.getLog(ParallelJDTCompiler.class); // must not be static
 
+	/*
+	 * Compiler#compile() forgets about the page as soon as generateClass()
+	 * returns, a batched page must keep what is needed to report its errors.
+	 */
+	private Map<String, SmapStratum> pendingSmaps;
+	private Node.Nodes pendingPageNodes;
+	private ErrorDispatcher pendingErrDispatcher;
+
+	/*
+	 * Generated servlet, when it is not written to the disk
+	 */
+	private char[] pendingSource;
+
 	public boolean isCheckFileNecessary(char[] packageName) {
 		if (Character.isUpperCase(packageName[0])) {
 			return false;
@@ -47,197 +71,513 @@ public class ParallelJDTCompiler extends org.apache.jasper.compiler.Compiler {
 	}
 
 	/**
-	 * Compile the servlet from .java file to .class file
+	 * @return the cache shared by all the compilers of the build, or null if the
+	 *         compiler is not run by this plugin
 	 */
-	@Override
-	protected void generateClass(Map<String, SmapStratum> smaps)
-			throws FileNotFoundException, JasperException, Exception {
+	private ClassFileCache getClassFileCache() {
+		if (options instanceof JspCContextAccessor) {
+			return ((JspCContextAccessor) options).getResourcesCache();
+		}
+		return null;
+	}
 
-		long t1 = 0;
-		if (log.isDebugEnabled()) {
-			t1 = System.currentTimeMillis();
+	/**
+	 * @return the index shared by all the compilers of the build, or null if the
+	 *         compiler is not run by this plugin
+	 */
+	private ClasspathIndex getClasspathIndex() {
+		if (options instanceof JspCContextAccessor) {
+			return ((JspCContextAccessor) options).getClasspathIndex();
 		}
+		return null;
+	}
+
+	/**
+	 * @return the batch of the thread running this compiler, or null if the pages
+	 *         must be compiled one by one
+	 */
+	private CompilationBatch getCompilationBatch() {
+		if (options instanceof JspCContextAccessor) {
+			return ((JspCContextAccessor) options).getCompilationBatch();
+		}
+		return null;
+	}
+
+	/**
+	 * The servlets and tag handlers generated during the build may be written
+	 * again, so they must always be read from the disk.
+	 */
+	private boolean isGeneratedClass(String className) {
+		return className.startsWith(ctxt.getBasePackageName() + ".")
+				|| className.startsWith(options.getGeneratedJspPackageName() + ".")
+				|| className.startsWith(options.getGeneratedTagFilePackageName() + ".");
+	}
 
-		final String sourceFile = ctxt.getServletJavaFileName();
-		final String outputDir = ctxt.getOptions().getScratchDir().getAbsolutePath();
+	private String getTargetClassName() {
 		String packageName = ctxt.getServletPackageName();
-		final String targetClassName = ((packageName.length() != 0) ? (packageName + ".") : "")
-				+ ctxt.getServletClassName();
-		final ClassLoader classLoader = ctxt.getJspLoader();
-		String[] fileNames = new String[] { sourceFile };
-		String[] classNames = new String[] { targetClassName };
-		final List<JavacErrorDetail> problemList = new ArrayList<>();
+		return ((packageName.length() != 0) ? (packageName + ".") : "") + ctxt.getServletClassName();
+	}
 
-		class CompilationUnit implements ICompilationUnit {
+	String getJspFile() {
+		return ctxt.getJspFile();
+	}
 
-			private final String className;
-			private final String sourceFile;
+	/**
+	 * @return the report of the build, or null if the compiler is not run by this
+	 *         plugin or if the tag file being compiled is not a jsp of the build
+	 */
+	private JspCompileReport getCompileReport() {
+		if (options instanceof JspCContextAccessor && !ctxt.isTagFile()) {
+			return ((JspCContextAccessor) options).getCompileReport();
+		}
+		return null;
+	}
 
-			CompilationUnit(String sourceFile, String className) {
-				this.className = className;
-				this.sourceFile = sourceFile;
-			}
+	private void reportTime(JspCompileReport.Phase phase, long nanos) {
+		JspCompileReport report = getCompileReport();
+		if (report != null) {
+			report.addTime(getJspFile(), phase, nanos);
+		}
+	}
 
-			@Override
-			public char[] getFileName() {
-				return sourceFile.toCharArray();
-			}
+	/**
+	 * @return true if the generated servlets must not be written to the disk
+	 */
+	private boolean isSourceInMemory() {
+		if (options instanceof JspCContextAccessor) {
+			return ((JspCContextAccessor) options).isSourcesInMemory();
+		}
+		return false;
+	}
 
-			@Override
-			public char[] getContents() {
-				char[] result = null;
-				try (FileInputStream is = new FileInputStream(sourceFile);
-						InputStreamReader isr = new InputStreamReader(is, ctxt.getOptions().getJavaEncoding());
-						Reader reader = new BufferedReader(isr)) {
-					char[] chars = new char[8192];
-					StringBuilder buf = new StringBuilder();
-					int count;
-					while ((count = reader.read(chars, 0, chars.length)) > 0) {
-						buf.append(chars, 0, count);
+	/**
+	 * Same as {@link org.apache.jasper.compiler.Compiler#compile(boolean, boolean)}
+	 * but without the .java file when the sources are kept in memory.
+	 */
+	@Override
+	public void compile(boolean compileClass, boolean jspcMode)
+			throws FileNotFoundException, JasperException, Exception {
+		if (!isSourceInMemory()) {
+			super.compile(compileClass, jspcMode);
+			return;
+		}
+
+		if (errDispatcher == null) {
+			this.errDispatcher = new ErrorDispatcher(jspcMode);
+		}
+
+		try {
+			final Long jspLastModified = ctxt.getLastModified(ctxt.getJspFile());
+			Map<String, SmapStratum> smaps = generateJava();
+			if (compileClass) {
+				generateClass(smaps);
+				// Fix for bugzilla 41606
+				// Set JspServletWrapper.servletClassLastModifiedTime after successful compile
+				File targetFile = new File(ctxt.getClassFileName());
+				if (targetFile.exists()) {
+					if (!targetFile.setLastModified(jspLastModified.longValue())) {
+						throw new JasperException(Localizer.getMessage("jsp.error.setLastModified", targetFile));
+					}
+					if (jsw != null) {
+						jsw.setServletClassLastModifiedTime(jspLastModified.longValue());
 					}
-					result = new char[buf.length()];
-					buf.getChars(0, result.length, result, 0);
-				} catch (IOException e) {
-					log.error("Compilation error", e);
 				}
-				return result;
 			}
-
-			@Override
-			public char[] getMainTypeName() {
-				int dot = className.lastIndexOf('.');
-				if (dot > 0) {
-					return className.substring(dot + 1).toCharArray();
-				}
-				return className.toCharArray();
+		} finally {
+			if (tfp != null && ctxt.isPrototypeMode()) {
+				tfp.removeProtoTypeFiles(null);
 			}
-
-			@Override
-			public char[][] getPackageName() {
-				StringTokenizer izer = new StringTokenizer(className, ".");
-				char[][] result = new char[izer.countTokens() - 1][];
-				for (int i = 0; i < result.length; i++) {
-					String tok = izer.nextToken();
-					result[i] = tok.toCharArray();
-				}
-				return result;
+			// Make sure these object which are only used during the
+			// generation and compilation of the JSP page get
+			// dereferenced so that they can be GC'd and reduce the
+			// memory footprint.
+			tfp = null;
+			errDispatcher = null;
+			pageInfo = null;
+			pageNodes = null;
+
+			if (ctxt.getWriter() != null) {
+				ctxt.getWriter().close();
+				ctxt.setWriter(null);
 			}
+		}
+	}
 
-			@Override
-			public boolean ignoreOptionalProblems() {
-				return false;
-			}
+	/**
+	 * Same as {@link org.apache.jasper.compiler.Compiler#generateJava()} but the
+	 * servlet is generated in memory when the sources are kept in memory. Jasper
+	 * generates it otherwise, its parse and generation times are then reported
+	 * together as the generation time.
+	 */
+	@Override
+	protected Map<String, SmapStratum> generateJava() throws Exception {
+		long t1 = System.nanoTime();
+		if (!isSourceInMemory()) {
+			Map<String, SmapStratum> smaps = super.generateJava();
+			reportTime(JspCompileReport.Phase.GENERATE, System.nanoTime() - t1);
+			return smaps;
 		}
 
-		final INameEnvironment env = new INameEnvironment() {
+		// Setup page info area
+		pageInfo = new PageInfo(new BeanRepository(ctxt.getClassLoader(), errDispatcher), ctxt);
 
-			@Override
-			public NameEnvironmentAnswer findType(char[][] compoundTypeName) {
-				StringBuilder result = new StringBuilder();
-				for (int i = 0; i < compoundTypeName.length; i++) {
-					if (i > 0)
-						result.append('.');
-					result.append(compoundTypeName[i]);
+		JspConfig jspConfig = options.getJspConfig();
+		JspConfig.JspProperty jspProperty = jspConfig.findJspProperty(ctxt.getJspFile());
+
+		/*
+		 * If the current uri is matched by a pattern specified in a jsp-property-group
+		 * in web.xml, initialize pageInfo with those properties.
+		 */
+		if (jspProperty.isELIgnored() != null) {
+			pageInfo.setELIgnored(JspUtil.booleanValue(jspProperty.isELIgnored()));
+		}
+		if (jspProperty.getErrorOnELNotFound() != null) {
+			pageInfo.setErrorOnELNotFound(JspUtil.booleanValue(jspProperty.getErrorOnELNotFound()));
+		}
+		if (jspProperty.isScriptingInvalid() != null) {
+			pageInfo.setScriptingInvalid(JspUtil.booleanValue(jspProperty.isScriptingInvalid()));
+		}
+		if (jspProperty.getIncludePrelude() != null) {
+			pageInfo.setIncludePrelude(jspProperty.getIncludePrelude());
+		}
+		if (jspProperty.getIncludeCoda() != null) {
+			pageInfo.setIncludeCoda(jspProperty.getIncludeCoda());
+		}
+		if (jspProperty.isDeferedSyntaxAllowedAsLiteral() != null) {
+			pageInfo.setDeferredSyntaxAllowedAsLiteral(
+					JspUtil.booleanValue(jspProperty.isDeferedSyntaxAllowedAsLiteral()));
+		}
+		if (jspProperty.isTrimDirectiveWhitespaces() != null) {
+			pageInfo.setTrimDirectiveWhitespaces(JspUtil.booleanValue(jspProperty.isTrimDirectiveWhitespaces()));
+		}
+		// Default ContentType processing is deferred until after the page has
+		// been parsed
+		if (jspProperty.getBuffer() != null) {
+			pageInfo.setBufferValue(jspProperty.getBuffer(), null, errDispatcher);
+		}
+		if (jspProperty.isErrorOnUndeclaredNamespace() != null) {
+			pageInfo.setErrorOnUndeclaredNamespace(JspUtil.booleanValue(jspProperty.isErrorOnUndeclaredNamespace()));
+		}
+		if (ctxt.isTagFile()) {
+			try {
+				double libraryVersion = Double.parseDouble(ctxt.getTagInfo().getTagLibrary().getRequiredVersion());
+				if (libraryVersion < 2.0) {
+					pageInfo.setIsELIgnored("true", null, errDispatcher, true);
+				}
+				if (libraryVersion < 2.1) {
+					pageInfo.setDeferredSyntaxAllowedAsLiteral("true", null, errDispatcher, true);
 				}
-				return findType(result.toString());
+			} catch (NumberFormatException ex) {
+				errDispatcher.jspError(ex);
 			}
+		}
 
-			@Override
-			public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
-				StringBuilder result = new StringBuilder();
-				int i = 0;
-				for (; i < packageName.length; i++) {
-					if (i > 0)
-						result.append('.');
-					result.append(packageName[i]);
-				}
-				if (i > 0)
-					result.append('.');
-				result.append(typeName);
-				return findType(result.toString());
+		// the class files are still written to the output directory
+		ctxt.checkOutputDir();
+
+		// Parse the file
+		ParserController parserCtl = new ParserController(ctxt, this);
+
+		// Pass 1 - the directives
+		Node.Nodes directives = parserCtl.parseDirectives(ctxt.getJspFile());
+		Validator.validateDirectives(this, directives);
+
+		// Pass 2 - the whole translation unit
+		pageNodes = parserCtl.parse(ctxt.getJspFile());
+
+		long t2 = System.nanoTime();
+		reportTime(JspCompileReport.Phase.PARSE, t2 - t1);
+
+		// Leave this until now since it can only be set once - bug 49726
+		if (pageInfo.getContentType() == null && jspProperty.getDefaultContentType() != null) {
+			pageInfo.setContentType(jspProperty.getDefaultContentType());
+		}
+
+		CharArrayWriter source = new CharArrayWriter(16 * 1024);
+		if (ctxt.isPrototypeMode()) {
+			// generate prototype .java file for the tag file
+			try (ServletWriter writer = setupContextWriter(source)) {
+				Generator.generate(writer, this, pageNodes);
 			}
+			pendingSource = source.toCharArray();
+			return null;
+		}
 
-			private NameEnvironmentAnswer findType(String className) {
+		// Validate and process attributes - don't re-validate the
+		// directives we validated in pass 1
+		Validator.validateExDirectives(this, pageNodes);
 
-				if (className.equals(targetClassName)) {
-					ICompilationUnit compilationUnit = new CompilationUnit(sourceFile, className);
-					return new NameEnvironmentAnswer(compilationUnit, null);
-				}
+		// Collect page info
+		Collector.collect(this, pageNodes);
+
+		// Compile (if necessary) and load the tag files referenced in
+		// this compilation unit.
+		tfp = new TagFileProcessor();
+		tfp.loadTagFiles(this, pageNodes);
+
+		// Determine which custom tag needs to declare which scripting vars
+		ScriptingVariabler.set(pageNodes, errDispatcher);
+
+		// Optimizations by Tag Plugins
+		TagPluginManager tagPluginManager = options.getTagPluginManager();
+		tagPluginManager.apply(pageNodes, errDispatcher, pageInfo);
+
+		// Optimization: concatenate contiguous template texts.
+		TextOptimizer.concatenate(this, pageNodes);
+
+		// Generate static function mapper codes.
+		ELFunctionMapper.map(pageNodes);
+
+		// generate servlet .java file
+		try (ServletWriter writer = setupContextWriter(source)) {
+			Generator.generate(writer, this, pageNodes);
+		}
+		pendingSource = source.toCharArray();
+
+		// The writer is only used during the compile, dereference
+		// it in the JspCompilationContext when done to allow it
+		// to be GC'd and save memory.
+		ctxt.setWriter(null);
+
+		if (log.isTraceEnabled()) {
+			log.trace("Generated " + ctxt.getServletJavaFileName() + ", " + pendingSource.length + " chars");
+		}
+		Map<String, SmapStratum> smaps = null;
+
+		// JSR45 Support
+		if (!options.isSmapSuppressed()) {
+			smaps = SmapUtil.generateSmap(ctxt, pageNodes);
+			// Add them to the web application wide cache for future lookup in
+			// error handling etc.
+			ctxt.getRuntimeContext().getSmaps().putAll(smaps);
+		}
+
+		// If any proto type .java and .class files was generated,
+		// the prototype .java may have been replaced by the current
+		// compilation (if the tag file is self referencing), but the
+		// .class file need to be removed, to make sure that javac would
+		// generate .class again from the new .java file just generated.
+		tfp.removeProtoTypeFiles(ctxt.getClassFileName());
+
+		reportTime(JspCompileReport.Phase.GENERATE, System.nanoTime() - t2);
+		return smaps;
+	}
+
+	private ServletWriter setupContextWriter(Writer source) {
+		ServletWriter writer;
+		if (ctxt.getOptions().getTrimSpaces().equals(TrimSpacesOption.EXTENDED)) {
+			writer = new NewlineReductionServletWriter(new PrintWriter(source));
+		} else {
+			writer = new ServletWriter(new PrintWriter(source));
+		}
+		ctxt.setWriter(writer);
+		return writer;
+	}
+
+	/**
+	 * Write the servlet kept in memory, {@link JavacErrorDetail} reads it to show
+	 * the part of the jsp in error.
+	 */
+	private void writePendingSource() {
+		File javaFile = new File(ctxt.getServletJavaFileName());
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(javaFile),
+				ctxt.getOptions().getJavaEncoding())) {
+			writer.write(pendingSource);
+		} catch (IOException e) {
+			log.warn("Cannot write " + javaFile, e);
+		}
+	}
+
+	/**
+	 * Compile the servlet from .java file to .class file
+	 */
+	@Override
+	protected void generateClass(Map<String, SmapStratum> smaps)
+			throws FileNotFoundException, JasperException, Exception {
+
+		pendingSmaps = smaps;
+		pendingPageNodes = pageNodes;
+		pendingErrDispatcher = errDispatcher;
+
+		// tag files are loaded as soon as they are generated, they can't wait
+		CompilationBatch batch = getCompilationBatch();
+		if (batch != null && !ctxt.isTagFile() && !ctxt.isPrototypeMode()) {
+			batch.add(this);
+			return;
+		}
+
+		JasperException failure = compile(Collections.singletonList(this), false).get(getJspFile());
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Compile the .java files of several pages with a single JDT compiler, so that
+	 * the types they depend on are resolved once for all of them.
+	 *
+	 * @param pages   compilers whose java files have been generated
+	 * @param batched true if {@link org.apache.jasper.compiler.Compiler#compile(boolean, boolean)}
+	 *                returned before the pages were compiled
+	 * @return the errors of the pages that could not be compiled, by jsp
+	 */
+	static Map<String, JasperException> compile(List<ParallelJDTCompiler> pages, boolean batched)
+			throws FileNotFoundException, JasperException, Exception {
+
+		ParallelJDTCompiler first = pages.get(0);
+		Log log = first.log;
+
+		long t1 = System.nanoTime();
+		final long[] writeNanos = new long[1];
+
+		final String outputDir = first.ctxt.getOptions().getScratchDir().getAbsolutePath();
+		final String javaEncoding = first.ctxt.getOptions().getJavaEncoding();
+		final Map<String, ICompilationUnit> compilationUnits = new LinkedHashMap<>();
+		final Map<String, ParallelJDTCompiler> pagesBySourceFile = new HashMap<>();
+		final Map<ParallelJDTCompiler, List<JavacErrorDetail>> pageProblems = new HashMap<>();
+		for (ParallelJDTCompiler page : pages) {
+			String sourceFile = page.ctxt.getServletJavaFileName();
+			String className = page.getTargetClassName();
+			compilationUnits.put(className,
+					new CompilationUnit(sourceFile, className, javaEncoding, page.pendingSource, log));
+			pagesBySourceFile.put(sourceFile, page);
+			pageProblems.put(page, new ArrayList<>());
+		}
+
+		final INameEnvironment env = first.new NameEnvironment(compilationUnits);
 
-				String resourceName = className.replace('.', '/') + ".class";
+		final IErrorHandlingPolicy policy = DefaultErrorHandlingPolicies.proceedWithAllProblems();
+
+		final IProblemFactory problemFactory = new DefaultProblemFactory(Locale.getDefault());
 
-				try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
-					if (is != null) {
-						byte[] classBytes;
-						byte[] buf = new byte[8192];
-						ByteArrayOutputStream baos = new ByteArrayOutputStream(buf.length);
-						int count;
-						while ((count = is.read(buf, 0, buf.length)) > 0) {
-							baos.write(buf, 0, count);
+		final ICompilerRequestor requestor = new ICompilerRequestor() {
+			@Override
+			public void acceptResult(CompilationResult result) {
+				ParallelJDTCompiler page = pagesBySourceFile.get(new String(result.getFileName()));
+				List<JavacErrorDetail> problemList = pageProblems.get(page);
+				try {
+					if (result.hasProblems()) {
+						IProblem[] problems = result.getProblems();
+						if (page.pendingSource != null && result.hasErrors()) {
+							page.writePendingSource();
+						}
+						for (int i = 0; i < problems.length; i++) {
+							IProblem problem = problems[i];
+							if (problem.isError()) {
+								String name = new String(problems[i].getOriginatingFileName());
+								try {
+									problemList.add(ErrorDispatcher.createJavacError(name, page.pendingPageNodes,
+											new StringBuilder(problem.getMessage()), problem.getSourceLineNumber(),
+											page.ctxt));
+								} catch (JasperException e) {
+									log.error("Error visiting node", e);
+								}
+							}
 						}
-						baos.flush();
-						classBytes = baos.toByteArray();
-						char[] fileName = className.toCharArray();
-						ClassFileReader classFileReader = new ClassFileReader(classBytes, fileName, true);
-						return new NameEnvironmentAnswer(classFileReader, null);
+					}
+					if (problemList.isEmpty()) {
+						long writeStart = System.nanoTime();
+						JspCompileReport report = page.getCompileReport();
+						ClassFile[] classFiles = result.getClassFiles();
+						for (int i = 0; i < classFiles.length; i++) {
+							ClassFile classFile = classFiles[i];
+							char[][] compoundName = classFile.getCompoundName();
+							StringBuilder classFileName = new StringBuilder(outputDir).append('/');
+							for (int j = 0; j < compoundName.length; j++) {
+								if (j > 0)
+									classFileName.append('/');
+								classFileName.append(compoundName[j]);
+							}
+							byte[] bytes = classFile.getBytes();
+							classFileName.append(".class");
+							try (FileOutputStream fout = new FileOutputStream(classFileName.toString());
+									BufferedOutputStream bos = new BufferedOutputStream(fout)) {
+								bos.write(bytes);
+							}
+							if (report != null) {
+								report.addClassSize(page.getJspFile(), bytes.length);
+							}
+						}
+						long nanos = System.nanoTime() - writeStart;
+						writeNanos[0] += nanos;
+						page.reportTime(JspCompileReport.Phase.WRITE, nanos);
 					}
 				} catch (IOException exc) {
 					log.error("Compilation error", exc);
-				} catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
-					log.error("Compilation error", exc);
 				}
-				return null;
 			}
+		};
 
-			private boolean isPackage(String result) {
-				if (result.equals(targetClassName)) {
-					return false;
-				}
-				String resourceName = result.replace('.', '/') + ".class";
-				try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
-					return is == null;
-				} catch (IOException e) {
-					// we are here, since close on is failed. That means it was not null
-					return false;
-				}
-			}
+		CompilerOptions cOptions = new CompilerOptions(first.getCompilerSettings());
+		cOptions.parseLiteralExpressionsAsConstants = true;
+		Compiler compiler = new Compiler(env, policy, cOptions, requestor, problemFactory);
+		compiler.compile(compilationUnits.values().toArray(new ICompilationUnit[0]));
 
-			@Override
-			public boolean isPackage(char[][] parentPackageName, char[] packageName) {
-				if (!isCheckFileNecessary(packageName)) {
-					return false;
-				}
+		long t2 = System.nanoTime();
+		if (log.isDebugEnabled()) {
+			log.debug("Compiled " + pages.size() + " page(s) starting with " + first.ctxt.getServletJavaFileName() + " "
+					+ TimeUnit.NANOSECONDS.toMillis(t2 - t1) + "ms");
+		}
+		for (ParallelJDTCompiler page : pages) {
+			page.reportTime(JspCompileReport.Phase.COMPILE, (t2 - t1 - writeNanos[0]) / pages.size());
+		}
 
-				StringBuilder result = new StringBuilder();
-				int i = 0;
-				if (parentPackageName != null) {
-					for (; i < parentPackageName.length; i++) {
-						if (i > 0)
-							result.append('.');
-						result.append(parentPackageName[i]);
-					}
-				}
+		Map<String, JasperException> failures = new LinkedHashMap<>();
+		for (ParallelJDTCompiler page : pages) {
+			try {
+				page.completeCompilation(pageProblems.get(page), batched);
+			} catch (JasperException e) {
+				failures.put(page.getJspFile(), e);
+			}
+		}
+		return failures;
+	}
 
-				if (Character.isUpperCase(packageName[0])) {
-					if (!isPackage(result.toString())) {
-						return false;
-					}
-				}
-				if (i > 0)
-					result.append('.');
-				result.append(packageName);
+	private void completeCompilation(List<JavacErrorDetail> problemList, boolean batched) throws Exception {
+		Map<String, SmapStratum> smaps = pendingSmaps;
+		ErrorDispatcher errorDispatcher = pendingErrDispatcher;
+		pendingSmaps = null;
+		pendingPageNodes = null;
+		pendingErrDispatcher = null;
 
-				return isPackage(result.toString());
+		if (pendingSource != null) {
+			pendingSource = null;
+			// only written to show the errors
+			File javaFile = new File(ctxt.getServletJavaFileName());
+			if (javaFile.exists() && !javaFile.delete()) {
+				throw new JasperException(Localizer.getMessage("jsp.warning.compiler.javafile.delete.fail", javaFile));
 			}
-
-			@Override
-			public void cleanup() {
+		} else if (!ctxt.keepGenerated()) {
+			File javaFile = new File(ctxt.getServletJavaFileName());
+			if (!javaFile.delete()) {
+				throw new JasperException(Localizer.getMessage("jsp.warning.compiler.javafile.delete.fail", javaFile));
 			}
+		}
 
-		};
+		if (!problemList.isEmpty()) {
+			JavacErrorDetail[] jeds = problemList.toArray(new JavacErrorDetail[0]);
+			errorDispatcher.javacError(jeds);
+		}
 
-		final IErrorHandlingPolicy policy = DefaultErrorHandlingPolicies.proceedWithAllProblems();
+		if (ctxt.isPrototypeMode()) {
+			return;
+		}
+
+		// JSR45 Support
+		if (!options.isSmapSuppressed()) {
+			SmapUtil.installSmap(smaps);
+		}
 
+		if (batched) {
+			// done by Compiler#compile when the page is not batched
+			File targetFile = new File(ctxt.getClassFileName());
+			if (targetFile.exists() && !targetFile.setLastModified(ctxt.getLastModified(ctxt.getJspFile()))) {
+				throw new JasperException(Localizer.getMessage("jsp.error.setLastModified", targetFile));
+			}
+		}
+	}
+
+	private Map<String, String> getCompilerSettings() {
 		final Map<String, String> settings = new HashMap<>();
 		settings.put(CompilerOptions.OPTION_LineNumberAttribute, CompilerOptions.GENERATE);
 		settings.put(CompilerOptions.OPTION_SourceFileAttribute, CompilerOptions.GENERATE);
@@ -323,88 +663,232 @@ public class ParallelJDTCompiler extends org.apache.jasper.compiler.Compiler {
 			settings.put(CompilerOptions.OPTION_TargetPlatform, CompilerOptions.VERSION_1_8);
 			settings.put(CompilerOptions.OPTION_Compliance, CompilerOptions.VERSION_1_8);
 		}
+		return settings;
+	}
 
-		final IProblemFactory problemFactory = new DefaultProblemFactory(Locale.getDefault());
+	/*
+	 * package private for the benchmarks
+	 */
+	static class CompilationUnit implements ICompilationUnit {
+
+		private final String className;
+		private final String sourceFile;
+		private final String javaEncoding;
+		private final char[] contents;
+		private final Log log;
+
+		/**
+		 * @param contents the source when it is kept in memory, null to read the
+		 *                 source file
+		 */
+		CompilationUnit(String sourceFile, String className, String javaEncoding, char[] contents, Log log) {
+			this.className = className;
+			this.sourceFile = sourceFile;
+			this.javaEncoding = javaEncoding;
+			this.contents = contents;
+			this.log = log;
+		}
 
-		final ICompilerRequestor requestor = new ICompilerRequestor() {
-			@Override
-			public void acceptResult(CompilationResult result) {
-				try {
-					if (result.hasProblems()) {
-						IProblem[] problems = result.getProblems();
-						for (int i = 0; i < problems.length; i++) {
-							IProblem problem = problems[i];
-							if (problem.isError()) {
-								String name = new String(problems[i].getOriginatingFileName());
-								try {
-									problemList.add(ErrorDispatcher.createJavacError(name, pageNodes,
-											new StringBuilder(problem.getMessage()), problem.getSourceLineNumber(),
-											ctxt));
-								} catch (JasperException e) {
-									log.error("Error visiting node", e);
-								}
-							}
-						}
-					}
-					if (problemList.isEmpty()) {
-						ClassFile[] classFiles = result.getClassFiles();
-						for (int i = 0; i < classFiles.length; i++) {
-							ClassFile classFile = classFiles[i];
-							char[][] compoundName = classFile.getCompoundName();
-							StringBuilder classFileName = new StringBuilder(outputDir).append('/');
-							for (int j = 0; j < compoundName.length; j++) {
-								if (j > 0)
-									classFileName.append('/');
-								classFileName.append(compoundName[j]);
-							}
-							byte[] bytes = classFile.getBytes();
-							classFileName.append(".class");
-							try (FileOutputStream fout = new FileOutputStream(classFileName.toString());
-									BufferedOutputStream bos = new BufferedOutputStream(fout)) {
-								bos.write(bytes);
-							}
-						}
-					}
-				} catch (IOException exc) {
-					log.error("Compilation error", exc);
+		@Override
+		public char[] getFileName() {
+			return sourceFile.toCharArray();
+		}
+
+		@Override
+		public char[] getContents() {
+			if (contents != null) {
+				return contents;
+			}
+			char[] result = null;
+			try (FileInputStream is = new FileInputStream(sourceFile);
+					InputStreamReader isr = new InputStreamReader(is, javaEncoding);
+					Reader reader = new BufferedReader(isr)) {
+				char[] chars = new char[8192];
+				StringBuilder buf = new StringBuilder();
+				int count;
+				while ((count = reader.read(chars, 0, chars.length)) > 0) {
+					buf.append(chars, 0, count);
 				}
+				result = new char[buf.length()];
+				buf.getChars(0, result.length, result, 0);
+			} catch (IOException e) {
+				log.error("Compilation error", e);
 			}
-		};
+			return result;
+		}
 
-		ICompilationUnit[] compilationUnits = new ICompilationUnit[classNames.length];
-		for (int i = 0; i < compilationUnits.length; i++) {
-			String className = classNames[i];
-			compilationUnits[i] = new CompilationUnit(fileNames[i], className);
+		@Override
+		public char[] getMainTypeName() {
+			int dot = className.lastIndexOf('.');
+			if (dot > 0) {
+				return className.substring(dot + 1).toCharArray();
+			}
+			return className.toCharArray();
 		}
-		CompilerOptions cOptions = new CompilerOptions(settings);
-		cOptions.parseLiteralExpressionsAsConstants = true;
-		Compiler compiler = new Compiler(env, policy, cOptions, requestor, problemFactory);
-		compiler.compile(compilationUnits);
 
-		if (!ctxt.keepGenerated()) {
-			File javaFile = new File(ctxt.getServletJavaFileName());
-			if (!javaFile.delete()) {
-				throw new JasperException(Localizer.getMessage("jsp.warning.compiler.javafile.delete.fail", javaFile));
+		@Override
+		public char[][] getPackageName() {
+			StringTokenizer izer = new StringTokenizer(className, ".");
+			char[][] result = new char[izer.countTokens() - 1][];
+			for (int i = 0; i < result.length; i++) {
+				String tok = izer.nextToken();
+				result[i] = tok.toCharArray();
 			}
+			return result;
 		}
 
-		if (!problemList.isEmpty()) {
-			JavacErrorDetail[] jeds = problemList.toArray(new JavacErrorDetail[0]);
-			errDispatcher.javacError(jeds);
+		@Override
+		public boolean ignoreOptionalProblems() {
+			return false;
 		}
+	}
 
-		if (log.isDebugEnabled()) {
-			long t2 = System.currentTimeMillis();
-			log.debug("Compiled " + ctxt.getServletJavaFileName() + " " + (t2 - t1) + "ms");
+	/*
+	 * package private for the benchmarks
+	 */
+	class NameEnvironment implements INameEnvironment {
+
+		private final Map<String, ICompilationUnit> compilationUnits;
+		private final ClassLoader classLoader = ctxt.getJspLoader();
+		private final ClassFileCache classFileCache = getClassFileCache();
+		private final ClasspathIndex classpathIndex = getClasspathIndex();
+
+		/**
+		 * @param compilationUnits the units being compiled, by class name
+		 */
+		NameEnvironment(Map<String, ICompilationUnit> compilationUnits) {
+			this.compilationUnits = compilationUnits;
 		}
 
-		if (ctxt.isPrototypeMode()) {
-			return;
+		@Override
+		public NameEnvironmentAnswer findType(char[][] compoundTypeName) {
+			StringBuilder result = new StringBuilder();
+			for (int i = 0; i < compoundTypeName.length; i++) {
+				if (i > 0)
+					result.append('.');
+				result.append(compoundTypeName[i]);
+			}
+			return findType(result.toString());
 		}
 
-		// JSR45 Support
-		if (!options.isSmapSuppressed()) {
-			SmapUtil.installSmap(smaps);
+		@Override
+		public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
+			StringBuilder result = new StringBuilder();
+			int i = 0;
+			for (; i < packageName.length; i++) {
+				if (i > 0)
+					result.append('.');
+				result.append(packageName[i]);
+			}
+			if (i > 0)
+				result.append('.');
+			result.append(typeName);
+			return findType(result.toString());
+		}
+
+		private NameEnvironmentAnswer findType(String className) {
+
+			ICompilationUnit compilationUnit = compilationUnits.get(className);
+			if (compilationUnit != null) {
+				return new NameEnvironmentAnswer(compilationUnit, null);
+			}
+
+			boolean cacheable = classFileCache != null && !isGeneratedClass(className);
+			if (cacheable) {
+				ClassFileReader classFileReader = classFileCache.get(className);
+				if (classFileReader != null) {
+					return new NameEnvironmentAnswer(classFileReader, null);
+				}
+			}
+
+			boolean indexed = classpathIndex != null && !isGeneratedClass(className);
+			if (indexed && classpathIndex.isMissingClass(className)) {
+				return null;
+			}
+
+			try {
+				byte[] classBytes = indexed ? classpathIndex.getClassBytes(className) : null;
+				if (classBytes == null) {
+					classBytes = readClassBytes(className);
+					if (classBytes != null && indexed) {
+						classpathIndex.addLoadedClass(className, classBytes);
+					}
+				}
+				if (classBytes != null) {
+					char[] fileName = className.toCharArray();
+					ClassFileReader classFileReader = new ClassFileReader(classBytes, fileName, true);
+					if (cacheable) {
+						classFileCache.put(className, classFileReader);
+					}
+					return new NameEnvironmentAnswer(classFileReader, null);
+				}
+				if (indexed) {
+					classpathIndex.addMissingClass(className);
+				}
+			} catch (IOException exc) {
+				log.error("Compilation error", exc);
+			} catch (org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException exc) {
+				log.error("Compilation error", exc);
+			}
+			return null;
+		}
+
+		/**
+		 * @return the class file found by the class loader, or null
+		 */
+		private byte[] readClassBytes(String className) throws IOException {
+			String resourceName = className.replace('.', '/') + ".class";
+			try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
+				return is == null ? null : is.readAllBytes();
+			}
+		}
+
+		private boolean isPackage(String result) {
+			if (compilationUnits.containsKey(result)) {
+				return false;
+			}
+			if (classpathIndex != null && !isGeneratedClass(result)) {
+				return classpathIndex.isPackage(result, classLoader);
+			}
+			String resourceName = result.replace('.', '/') + ".class";
+			try (InputStream is = classLoader.getResourceAsStream(resourceName)) {
+				return is == null;
+			} catch (IOException e) {
+				// we are here, since close on is failed. That means it was not null
+				return false;
+			}
+		}
+
+		@Override
+		public boolean isPackage(char[][] parentPackageName, char[] packageName) {
+			if (!isCheckFileNecessary(packageName)) {
+				return false;
+			}
+
+			StringBuilder result = new StringBuilder();
+			int i = 0;
+			if (parentPackageName != null) {
+				for (; i < parentPackageName.length; i++) {
+					if (i > 0)
+						result.append('.');
+					result.append(parentPackageName[i]);
+				}
+			}
+
+			if (Character.isUpperCase(packageName[0])) {
+				if (!isPackage(result.toString())) {
+					return false;
+				}
+			}
+			if (i > 0)
+				result.append('.');
+			result.append(packageName);
+
+			return isPackage(result.toString());
+		}
+
+		@Override
+		public void cleanup() {
 		}
 	}
 }
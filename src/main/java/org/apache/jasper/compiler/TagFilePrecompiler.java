@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.jsp.tagext.TagFileInfo;
+import jakarta.servlet.jsp.tagext.TagInfo;
+
+import org.apache.jasper.JasperException;
+import org.apache.jasper.JspCompilationContext;
+import org.apache.jasper.Options;
+import org.apache.jasper.servlet.JspServletWrapper;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Compiles the tag files of the webapp before the jsps, so that the threads
+ * compiling the jsps only load their classes.
+ * <p>
+ * Jasper compiles a tag file the first time a jsp uses it, while holding the
+ * lock of the {@link JspRuntimeContext} shared by all the threads: the other
+ * threads wait for it even when their jsps do not use that tag file. Here the
+ * tag files are compiled at the same time on several threads, a tag file once
+ * the tag files it uses are compiled, and each of them is added to the runtime
+ * context once compiled, where Jasper finds it.
+ * <p>
+ * The tag files in a cycle, the ones using them and the ones which failed to
+ * compile are left to Jasper, which compiles them as before and reports their
+ * errors against the jsps.
+ */
+public class TagFilePrecompiler {
+
+	private final Log log = LogFactory.getLog(TagFilePrecompiler.class); // must not be static
+
+	private final Options options;
+	private final ServletContext context;
+	private final JspRuntimeContext rctxt;
+	private final ClassLoader loader;
+	private final String classPath;
+
+	public TagFilePrecompiler(Options options, ServletContext context, JspRuntimeContext rctxt, ClassLoader loader,
+			String classPath) {
+		this.options = options;
+		this.context = context;
+		this.rctxt = rctxt;
+		this.loader = loader;
+		this.classPath = classPath;
+	}
+
+	/**
+	 * @param tagFiles paths of the tag files in the webapp, each with the tag
+	 *                 files it uses
+	 * @param executor threads compiling them
+	 * @return the number of tag files compiled, or loaded when their classes were
+	 *         up to date
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public int compile(Map<String, Set<String>> tagFiles, Executor executor) throws InterruptedException {
+		Map<String, CompletableFuture<Boolean>> compilations = new HashMap<>();
+		for (String tagFile : sort(tagFiles)) {
+			List<CompletableFuture<Boolean>> dependencies = new ArrayList<>();
+			for (String usedTagFile : tagFiles.get(tagFile)) {
+				if (tagFiles.containsKey(usedTagFile)) {
+					dependencies.add(compilations.get(usedTagFile));
+				}
+			}
+			CompletableFuture<Boolean> compilation = CompletableFuture
+					.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+					.thenApplyAsync(done -> dependencies.stream().allMatch(CompletableFuture::join) && compile(tagFile),
+							executor);
+			compilations.put(tagFile, compilation);
+		}
+		int count = 0;
+		for (CompletableFuture<Boolean> compilation : compilations.values()) {
+			try {
+				if (compilation.get()) {
+					count++;
+				}
+			} catch (ExecutionException e) {
+				// left to Jasper
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the tag files in an order where each one comes after the tag files
+	 *         it uses, without the tag files in a cycle and the ones using them
+	 */
+	private static List<String> sort(Map<String, Set<String>> tagFiles) {
+		List<String> sorted = new ArrayList<>();
+		Map<String, Integer> pendingCounts = new HashMap<>();
+		Map<String, List<String>> users = new HashMap<>();
+		for (Map.Entry<String, Set<String>> entry : tagFiles.entrySet()) {
+			int pendingCount = 0;
+			for (String usedTagFile : entry.getValue()) {
+				if (tagFiles.containsKey(usedTagFile)) {
+					users.computeIfAbsent(usedTagFile, key -> new ArrayList<>()).add(entry.getKey());
+					pendingCount++;
+				}
+			}
+			pendingCounts.put(entry.getKey(), pendingCount);
+			if (pendingCount == 0) {
+				sorted.add(entry.getKey());
+			}
+		}
+		for (int index = 0; index < sorted.size(); index++) {
+			for (String user : users.getOrDefault(sorted.get(index), new ArrayList<>())) {
+				if (pendingCounts.merge(user, -1, Integer::sum) == 0) {
+					sorted.add(user);
+				}
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * Compile the tag file with a wrapper of its own, which the other threads
+	 * cannot lock, and add it to the runtime context once compiled.
+	 *
+	 * @return false if the tag file failed to compile
+	 */
+	private boolean compile(String tagFilePath) {
+		synchronized (rctxt) {
+			if (rctxt.getWrapper(tagFilePath) != null) {
+				// already compiled by Jasper for a tag file using it
+				return true;
+			}
+		}
+		try {
+			JspServletWrapper wrapper = new JspServletWrapper(context, options, tagFilePath,
+					parseTagFileDirectives(tagFilePath), rctxt, null);
+			wrapper.getJspEngineContext().setClassLoader(loader);
+			wrapper.getJspEngineContext().setClassPath(classPath);
+			wrapper.loadTagFile();
+			synchronized (rctxt) {
+				if (rctxt.getWrapper(tagFilePath) == null) {
+					rctxt.addWrapper(tagFilePath, wrapper);
+				}
+			}
+			return true;
+		} catch (JasperException | RuntimeException e) {
+			if (log.isDebugEnabled()) {
+				log.debug("Unable to compile " + tagFilePath + " before the jsps", e);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @return the tag info of the tag file, as built by Jasper when a jsp
+	 *         declares its tag directory
+	 */
+	private TagInfo parseTagFileDirectives(String tagFilePath) throws JasperException {
+		int slash = tagFilePath.lastIndexOf('/');
+		String tagdir = tagFilePath.substring(0, slash);
+		String name = tagFilePath.substring(slash + 1, tagFilePath.lastIndexOf('.'));
+		JspCompilationContext ctxt = new JspCompilationContext(tagFilePath, options, context, null, rctxt);
+		ctxt.setClassLoader(loader);
+		ctxt.setClassPath(classPath);
+		Compiler compiler = ctxt.createCompiler();
+		compiler.pageInfo = new PageInfo(new BeanRepository(loader, compiler.getErrorDispatcher()), ctxt);
+		ImplicitTagLibraryInfo tagLibrary = new ImplicitTagLibraryInfo(ctxt, new ParserController(ctxt, compiler),
+				compiler.pageInfo, "tags", tagdir, compiler.getErrorDispatcher());
+		TagFileInfo tagFile = tagLibrary.getTagFile(name);
+		if (tagFile == null) {
+			throw new JasperException("No tag file " + tagFilePath);
+		}
+		return tagFile.getTagInfo();
+	}
+}
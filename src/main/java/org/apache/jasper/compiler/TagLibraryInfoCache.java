@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.servlet.jsp.tagext.TagLibraryInfo;
+
+/**
+ * Tag libraries built by the Jasper parsers for the taglib directives of the
+ * jsps, shared by all the threads of a build, so that the TLD of each taglib,
+ * its tag extra infos and the directives of its tag files are processed once
+ * per build instead of once per thread.
+ * <p>
+ * The parsers look a taglib up in {@link Options#getCache()} and add it once
+ * built: each thread sees the cache through its own {@link #newThreadCache()
+ * map}. A thread looking up a taglib that another thread is building waits for
+ * it instead of building it again, unless that thread is itself waiting for one
+ * of its taglibs. The taglibs with a validator are only kept by their thread,
+ * since validators such as the JSTL ones are not thread safe.
+ */
+public class TagLibraryInfoCache {
+
+	/** Guarded by this */
+	private final Map<String, TagLibraryInfo> tagLibraries = new HashMap<>();
+	/** Thread building each taglib, guarded by this */
+	private final Map<String, Thread> builders = new HashMap<>();
+	/** Taglib each thread is waiting for, guarded by this */
+	private final Map<Thread, String> waiters = new HashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @return the cache of a thread, to be returned by its
+	 *         {@link Options#getCache()}
+	 */
+	public Map<String, TagLibraryInfo> newThreadCache() {
+		return new ThreadCache();
+	}
+
+	/**
+	 * Stop building the taglibs the current thread started to build, so that the
+	 * other threads build them if it failed to. Called once the thread is done
+	 * with a jsp.
+	 */
+	public synchronized void release() {
+		if (builders.values().removeIf(builder -> builder == Thread.currentThread())) {
+			notifyAll();
+		}
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of taglibs built by the threads
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	public synchronized int size() {
+		return tagLibraries.size();
+	}
+
+	@Override
+	public String toString() {
+		long hitCount = getHitCount();
+		long lookups = hitCount + getMissCount();
+		return "tag library cache: " + size() + " entries, " + lookups + " lookups, " + hitCount + " hits ("
+				+ (lookups == 0 ? 0 : hitCount * 100 / lookups) + "%)";
+	}
+
+	/**
+	 * @return the taglib, or null if the current thread must build it
+	 */
+	private synchronized TagLibraryInfo get(String uri) {
+		Thread current = Thread.currentThread();
+		while (true) {
+			TagLibraryInfo tagLibrary = tagLibraries.get(uri);
+			if (tagLibrary != null) {
+				hits.increment();
+				return tagLibrary;
+			}
+			Thread builder = builders.putIfAbsent(uri, current);
+			if (builder == null || builder == current || isWaitingFor(builder, current)) {
+				misses.increment();
+				return null;
+			}
+			waiters.put(current, uri);
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				current.interrupt();
+				misses.increment();
+				return null;
+			} finally {
+				waiters.remove(current);
+			}
+		}
+	}
+
+	private synchronized void put(String uri, TagLibraryInfo tagLibrary) {
+		if (!hasValidator(tagLibrary)) {
+			tagLibraries.putIfAbsent(uri, tagLibrary);
+		}
+		builders.remove(uri, Thread.currentThread());
+		notifyAll();
+	}
+
+	/**
+	 * @return true if the thread waits, directly or through other threads, for a
+	 *         taglib the waiter builds, so that the waiter must not wait for it
+	 */
+	private boolean isWaitingFor(Thread thread, Thread waiter) {
+		for (int depth = 0; depth <= waiters.size(); depth++) {
+			String uri = waiters.get(thread);
+			thread = uri == null ? null : builders.get(uri);
+			if (thread == null) {
+				return false;
+			}
+			if (thread == waiter) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasValidator(TagLibraryInfo tagLibrary) {
+		return tagLibrary instanceof TagLibraryInfoImpl
+				&& ((TagLibraryInfoImpl) tagLibrary).getTagLibraryValidator() != null;
+	}
+
+	/**
+	 * Cache of a thread: the shared taglibs and the ones with a validator it
+	 * built.
+	 */
+	private class ThreadCache extends AbstractMap<String, TagLibraryInfo> {
+
+		private final Map<String, TagLibraryInfo> ownTagLibraries = new HashMap<>();
+
+		@Override
+		public TagLibraryInfo get(Object uri) {
+			TagLibraryInfo tagLibrary = ownTagLibraries.get(uri);
+			if (tagLibrary == null && uri instanceof String) {
+				tagLibrary = TagLibraryInfoCache.this.get((String) uri);
+			}
+			return tagLibrary;
+		}
+
+		@Override
+		public TagLibraryInfo put(String uri, TagLibraryInfo tagLibrary) {
+			if (hasValidator(tagLibrary)) {
+				ownTagLibraries.put(uri, tagLibrary);
+			}
+			TagLibraryInfoCache.this.put(uri, tagLibrary);
+			return null;
+		}
+
+		@Override
+		public Set<Entry<String, TagLibraryInfo>> entrySet() {
+			Map<String, TagLibraryInfo> entries;
+			synchronized (TagLibraryInfoCache.this) {
+				entries = new HashMap<>(tagLibraries);
+			}
+			entries.putAll(ownTagLibraries);
+			return entries.entrySet();
+		}
+	}
+}
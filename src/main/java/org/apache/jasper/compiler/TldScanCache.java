@@ -0,0 +1,398 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jasper.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.servlet.jsp.tagext.FunctionInfo;
+import jakarta.servlet.jsp.tagext.TagAttributeInfo;
+import jakarta.servlet.jsp.tagext.TagVariableInfo;
+
+import org.apache.jasper.JspC;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.descriptor.tld.TagFileXml;
+import org.apache.tomcat.util.descriptor.tld.TagXml;
+import org.apache.tomcat.util.descriptor.tld.TaglibXml;
+import org.apache.tomcat.util.descriptor.tld.ValidatorXml;
+
+/**
+ * TLDs found in the jars of the classpath by the previous builds, with their
+ * parsed content, so that the TLD scan neither opens the jars which did not
+ * change nor parses their TLDs again. Most jars have no TLD at all, which is
+ * recorded as well.<br>
+ * A jar is unchanged when its size, its modification time and the checksum of
+ * its central directory are the same as when it was scanned. The jars which
+ * are not scanned by a build are dropped when the cache is saved.
+ */
+public class TldScanCache {
+
+	private static final int MAGIC = 0x4a535054;
+	private static final int VERSION = 1;
+	/** The parsed form of the TLDs may change from one Jasper to the other */
+	private static final String JASPER_VERSION = String.valueOf(JspC.class.getPackage().getImplementationVersion());
+
+	private final Log log = LogFactory.getLog(TldScanCache.class); // must not be static
+
+	/** Jars of the cache file, by absolute path */
+	private final Map<String, JarEntry> entries;
+	/** Jars scanned by this build, found in the cache or added */
+	private final Map<String, JarEntry> usedEntries = new ConcurrentHashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private TldScanCache(Map<String, JarEntry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * Read the cache file. If it does not exist or cannot be read, an empty cache
+	 * is returned.
+	 *
+	 * @param file the cache file
+	 * @return the TLDs of the previous builds
+	 */
+	public static TldScanCache load(Path file) {
+		if (!Files.isRegularFile(file)) {
+			return new TldScanCache(new HashMap<>());
+		}
+		try (InputStream in = Files.newInputStream(file);
+				DataInputStream dataIn = new DataInputStream(new BufferedInputStream(in))) {
+			return new TldScanCache(readEntries(dataIn));
+		} catch (IOException | RuntimeException e) {
+			LogFactory.getLog(TldScanCache.class).warn("Unable to read the TLD scan cache " + file + ", ignoring it",
+					e);
+			return new TldScanCache(new HashMap<>());
+		}
+	}
+
+	/**
+	 * @param jar a jar of the classpath
+	 * @return the TLDs of the jar, by entry name in the order they were found, or
+	 *         null if the jar is not in the cache or changed since it was scanned
+	 */
+	public Map<String, TaglibXml> get(File jar) {
+		String key = jar.getAbsolutePath();
+		JarEntry entry = entries.get(key);
+		if (entry == null || entry.size != jar.length() || entry.lastModified != jar.lastModified()
+				|| entry.checksum != getChecksum(jar)) {
+			misses.increment();
+			return null;
+		}
+		usedEntries.put(key, entry);
+		hits.increment();
+		return entry.tlds;
+	}
+
+	/**
+	 * @param jar  a jar which was scanned
+	 * @param tlds its TLDs, by entry name, empty if it has none
+	 */
+	public void put(File jar, Map<String, TaglibXml> tlds) {
+		long checksum = getChecksum(jar);
+		if (checksum != -1) {
+			usedEntries.put(jar.getAbsolutePath(),
+					new JarEntry(jar.length(), jar.lastModified(), checksum, new LinkedHashMap<>(tlds)));
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Write the jars scanned by this build. The file is replaced at once, builds
+	 * running at the same time read either the old or the new one.
+	 *
+	 * @param file the cache file
+	 */
+	public void save(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp);
+					DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out))) {
+				write(new HashMap<>(usedEntries), dataOut);
+			}
+			try {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Saved the TLDs of " + usedEntries.size() + " jars in " + file);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TLD scan cache: " + getHitCount() + " jars unchanged, " + getMissCount() + " jars scanned";
+	}
+
+	/**
+	 * @return the checksum of the central directory of the jar, -1 if it cannot be
+	 *         read or its format is not handled
+	 */
+	private static long getChecksum(File jar) {
+		try {
+			IndexedJar indexedJar = IndexedJar.open(jar);
+			return indexedJar == null ? -1 : indexedJar.getChecksum();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private static void write(Map<String, JarEntry> saved, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(JASPER_VERSION);
+		out.writeInt(saved.size());
+		for (Map.Entry<String, JarEntry> entry : saved.entrySet()) {
+			JarEntry jar = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeLong(jar.size);
+			out.writeLong(jar.lastModified);
+			out.writeLong(jar.checksum);
+			out.writeInt(jar.tlds.size());
+			for (Map.Entry<String, TaglibXml> tld : jar.tlds.entrySet()) {
+				out.writeUTF(tld.getKey());
+				writeTaglib(out, tld.getValue());
+			}
+		}
+	}
+
+	private static Map<String, JarEntry> readEntries(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(JASPER_VERSION)) {
+			throw new IOException("Not a TLD scan cache of this version");
+		}
+		int jarCount = in.readInt();
+		Map<String, JarEntry> entries = new HashMap<>(jarCount * 4 / 3 + 1);
+		for (int i = 0; i < jarCount; i++) {
+			String path = in.readUTF();
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			long checksum = in.readLong();
+			int tldCount = in.readInt();
+			Map<String, TaglibXml> tlds = new LinkedHashMap<>();
+			for (int j = 0; j < tldCount; j++) {
+				tlds.put(in.readUTF(), readTaglib(in));
+			}
+			entries.put(path, new JarEntry(size, lastModified, checksum, tlds));
+		}
+		return entries;
+	}
+
+	private static void writeTaglib(DataOutputStream out, TaglibXml taglib) throws IOException {
+		writeString(out, taglib.getTlibVersion());
+		writeString(out, taglib.getJspVersion());
+		writeString(out, taglib.getShortName());
+		writeString(out, taglib.getUri());
+		writeString(out, taglib.getInfo());
+		ValidatorXml validator = taglib.getValidator();
+		out.writeBoolean(validator != null);
+		if (validator != null) {
+			writeString(out, validator.getValidatorClass());
+			out.writeInt(validator.getInitParams().size());
+			for (Map.Entry<String, String> param : validator.getInitParams().entrySet()) {
+				writeString(out, param.getKey());
+				writeString(out, param.getValue());
+			}
+		}
+		out.writeInt(taglib.getTags().size());
+		for (TagXml tag : taglib.getTags()) {
+			writeTag(out, tag);
+		}
+		out.writeInt(taglib.getTagFiles().size());
+		for (TagFileXml tagFile : taglib.getTagFiles()) {
+			writeString(out, tagFile.getName());
+			writeString(out, tagFile.getPath());
+			writeString(out, tagFile.getDisplayName());
+			writeString(out, tagFile.getSmallIcon());
+			writeString(out, tagFile.getLargeIcon());
+			writeString(out, tagFile.getInfo());
+		}
+		out.writeInt(taglib.getListeners().size());
+		for (String listener : taglib.getListeners()) {
+			writeString(out, listener);
+		}
+		out.writeInt(taglib.getFunctions().size());
+		for (FunctionInfo function : taglib.getFunctions()) {
+			writeString(out, function.getName());
+			writeString(out, function.getFunctionClass());
+			writeString(out, function.getFunctionSignature());
+		}
+	}
+
+	private static TaglibXml readTaglib(DataInputStream in) throws IOException {
+		TaglibXml taglib = new TaglibXml();
+		taglib.setTlibVersion(readString(in));
+		taglib.setJspVersion(readString(in));
+		taglib.setShortName(readString(in));
+		taglib.setUri(readString(in));
+		taglib.setInfo(readString(in));
+		if (in.readBoolean()) {
+			ValidatorXml validator = new ValidatorXml();
+			validator.setValidatorClass(readString(in));
+			int paramCount = in.readInt();
+			for (int i = 0; i < paramCount; i++) {
+				validator.addInitParam(readString(in), readString(in));
+			}
+			taglib.setValidator(validator);
+		}
+		int tagCount = in.readInt();
+		for (int i = 0; i < tagCount; i++) {
+			taglib.addTag(readTag(in));
+		}
+		int tagFileCount = in.readInt();
+		for (int i = 0; i < tagFileCount; i++) {
+			TagFileXml tagFile = new TagFileXml();
+			tagFile.setName(readString(in));
+			tagFile.setPath(readString(in));
+			tagFile.setDisplayName(readString(in));
+			tagFile.setSmallIcon(readString(in));
+			tagFile.setLargeIcon(readString(in));
+			tagFile.setInfo(readString(in));
+			taglib.addTagFile(tagFile);
+		}
+		int listenerCount = in.readInt();
+		for (int i = 0; i < listenerCount; i++) {
+			taglib.addListener(readString(in));
+		}
+		int functionCount = in.readInt();
+		for (int i = 0; i < functionCount; i++) {
+			taglib.addFunction(readString(in), readString(in), readString(in));
+		}
+		return taglib;
+	}
+
+	private static void writeTag(DataOutputStream out, TagXml tag) throws IOException {
+		writeString(out, tag.getName());
+		writeString(out, tag.getTagClass());
+		writeString(out, tag.getTeiClass());
+		writeString(out, tag.getBodyContent());
+		writeString(out, tag.getDisplayName());
+		writeString(out, tag.getSmallIcon());
+		writeString(out, tag.getLargeIcon());
+		writeString(out, tag.getInfo());
+		out.writeBoolean(tag.hasDynamicAttributes());
+		out.writeInt(tag.getAttributes().size());
+		for (TagAttributeInfo attribute : tag.getAttributes()) {
+			writeString(out, attribute.getName());
+			out.writeBoolean(attribute.isRequired());
+			writeString(out, attribute.getTypeName());
+			out.writeBoolean(attribute.canBeRequestTime());
+			out.writeBoolean(attribute.isFragment());
+			writeString(out, attribute.getDescription());
+			out.writeBoolean(attribute.isDeferredValue());
+			out.writeBoolean(attribute.isDeferredMethod());
+			writeString(out, attribute.getExpectedTypeName());
+			writeString(out, attribute.getMethodSignature());
+		}
+		out.writeInt(tag.getVariables().size());
+		for (TagVariableInfo variable : tag.getVariables()) {
+			writeString(out, variable.getNameGiven());
+			writeString(out, variable.getNameFromAttribute());
+			writeString(out, variable.getClassName());
+			out.writeBoolean(variable.getDeclare());
+			out.writeInt(variable.getScope());
+		}
+	}
+
+	private static TagXml readTag(DataInputStream in) throws IOException {
+		TagXml tag = new TagXml();
+		tag.setName(readString(in));
+		tag.setTagClass(readString(in));
+		tag.setTeiClass(readString(in));
+		tag.setBodyContent(readString(in));
+		tag.setDisplayName(readString(in));
+		tag.setSmallIcon(readString(in));
+		tag.setLargeIcon(readString(in));
+		tag.setInfo(readString(in));
+		tag.setDynamicAttributes(in.readBoolean());
+		int attributeCount = in.readInt();
+		for (int i = 0; i < attributeCount; i++) {
+			tag.getAttributes().add(new TagAttributeInfo(readString(in), in.readBoolean(), readString(in),
+					in.readBoolean(), in.readBoolean(), readString(in), in.readBoolean(), in.readBoolean(),
+					readString(in), readString(in)));
+		}
+		int variableCount = in.readInt();
+		for (int i = 0; i < variableCount; i++) {
+			tag.getVariables().add(new TagVariableInfo(readString(in), readString(in), readString(in),
+					in.readBoolean(), in.readInt()));
+		}
+		return tag;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * A jar as it was when it was scanned, with its TLDs.
+	 */
+	private static final class JarEntry {
+
+		private final long size;
+		private final long lastModified;
+		private final long checksum;
+		private final Map<String, TaglibXml> tlds;
+
+		JarEntry(long size, long lastModified, long checksum, Map<String, TaglibXml> tlds) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+			this.tlds = Collections.unmodifiableMap(tlds);
+		}
+	}
+}
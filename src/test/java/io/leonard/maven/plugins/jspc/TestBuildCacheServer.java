@@ -0,0 +1,77 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBuildCacheServer {
+
+  private static final byte[] CONTENT = { 1, 2, 3 };
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @Test
+  public void should_listen_to_loopback_address_only_when_no_address_is_given() throws Exception {
+    // Given
+    Path directory = temporaryFolder.newFolder("cache").toPath();
+
+    // When
+    try (BuildCacheServer server = BuildCacheServer.start(directory, 0)) {
+
+      // Then
+      assertThat(InetAddress.getByName(server.getUrl().getHost()).isLoopbackAddress()).isTrue();
+      assertThat(put(server.getUrl(), null)).isEqualTo(201);
+    }
+  }
+
+  @Test
+  public void should_refuse_put_when_token_is_missing_or_wrong() throws Exception {
+    // Given
+    Path directory = temporaryFolder.newFolder("cache").toPath();
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    try (BuildCacheServer server = BuildCacheServer.start(directory, address, "secret")) {
+
+      // When
+      int withoutToken = put(server.getUrl(), null);
+      int withWrongToken = put(server.getUrl(), "guess");
+      int getAfterRefusedPuts = get(server.getUrl()).statusCode();
+      int withToken = put(server.getUrl(), "secret");
+      HttpResponse<byte[]> getAfterPut = get(server.getUrl());
+
+      // Then
+      assertThat(withoutToken).isEqualTo(401);
+      assertThat(withWrongToken).isEqualTo(401);
+      assertThat(getAfterRefusedPuts).isEqualTo(404);
+      assertThat(withToken).isEqualTo(201);
+      assertThat(getAfterPut.statusCode()).isEqualTo(200);
+      assertThat(getAfterPut.body()).isEqualTo(CONTENT);
+    }
+  }
+
+  private int put(URI url, String token) throws Exception {
+    HttpRequest.Builder request = HttpRequest.newBuilder(url.resolve("entries/ab"))
+        .PUT(HttpRequest.BodyPublishers.ofByteArray(CONTENT));
+    if (token != null) {
+      request.header("Authorization", "Bearer " + token);
+    }
+    return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+
+  private HttpResponse<byte[]> get(URI url) throws Exception {
+    return client.send(HttpRequest.newBuilder(url.resolve("entries/ab")).GET().build(),
+        HttpResponse.BodyHandlers.ofByteArray());
+  }
+}
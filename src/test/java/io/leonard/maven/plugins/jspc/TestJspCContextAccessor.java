@@ -0,0 +1,114 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestJspCContextAccessor {
+
+  private static final String WEBAPP_PATH = "target/test-classes/unit/project_build_cache/src/main/webapp";
+  private static final String TAG_FILES_WEBAPP_PATH = "target/test-classes/unit/project_tag_files/src/main/webapp";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void should_share_context_of_top_jspc_when_workers_are_initialized_concurrently() throws Exception {
+    // Given
+    JspCContextAccessor topJspC = new JspCContextAccessor();
+    topJspC.setUriroot(new File(WEBAPP_PATH).getAbsolutePath());
+    topJspC.initClassLoader();
+    topJspC.initServletContext();
+
+    // When
+    CompletableFuture<JspCContextAccessor> first = CompletableFuture.supplyAsync(() -> newWorker(topJspC));
+    CompletableFuture<JspCContextAccessor> second = CompletableFuture.supplyAsync(() -> newWorker(topJspC));
+
+    // Then
+    for (JspCContextAccessor worker : new JspCContextAccessor[] {first.get(), second.get()}) {
+      assertThat(worker.getContext()).isSameAs(topJspC.getContext());
+      assertThat(worker.getTldCache()).isSameAs(topJspC.getTldCache());
+      assertThat(worker.getJspConfig()).isSameAs(topJspC.getJspConfig());
+      assertThat(worker.getTagPluginManager()).isSameAs(topJspC.getTagPluginManager());
+    }
+  }
+
+  @Test
+  public void should_compile_tag_files_used_by_jsps_before_the_jsps() throws Exception {
+    // Given
+    JspCContextAccessor topJspC = new JspCContextAccessor();
+    topJspC.setUriroot(new File(TAG_FILES_WEBAPP_PATH).getAbsolutePath());
+    topJspC.setOutputDir(temporaryFolder.getRoot().getAbsolutePath());
+    topJspC.setCompile(true);
+    topJspC.initClassLoader();
+    topJspC.initServletContext();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    // When
+    int count;
+    try {
+      count = topJspC.compileTagFiles(Arrays.asList("jsp/01.jsp", "jsp/02.jsp"), executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    // Then
+    assertThat(count).isEqualTo(2);
+    File tagClasses = new File(temporaryFolder.getRoot(), "org/apache/jsp/tag/web");
+    assertThat(new File(tagClasses, "box_tag.class")).isFile();
+    assertThat(new File(tagClasses, "panel_tag.class")).isFile();
+    assertThat(new File(temporaryFolder.getRoot(), "jsp")).doesNotExist();
+  }
+
+  @Test
+  public void should_only_load_tag_files_compiled_before_the_jsps_when_jsps_are_compiled() throws Exception {
+    // Given
+    JspCContextAccessor topJspC = new JspCContextAccessor();
+    topJspC.setUriroot(new File(TAG_FILES_WEBAPP_PATH).getAbsolutePath());
+    topJspC.setOutputDir(temporaryFolder.getRoot().getAbsolutePath());
+    topJspC.setCompile(true);
+    topJspC.initClassLoader();
+    topJspC.initServletContext();
+    List<String> jspFiles = Arrays.asList("jsp/01.jsp", "jsp/02.jsp");
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      topJspC.compileTagFiles(jspFiles, executor);
+    } finally {
+      executor.shutdown();
+    }
+    File tagClasses = new File(temporaryFolder.getRoot(), "org/apache/jsp/tag/web");
+    File[] tagClassFiles = { new File(tagClasses, "box_tag.class"), new File(tagClasses, "panel_tag.class") };
+    for (File tagClassFile : tagClassFiles) {
+      // older than the tag files: compiling them again would write them
+      assertThat(tagClassFile.setLastModified(0)).isTrue();
+    }
+
+    // When
+    topJspC.execute(new JspWorkQueue(Collections.singletonList(jspFiles)), 0);
+
+    // Then
+    File jspClasses = new File(temporaryFolder.getRoot(), "org/apache/jsp/jsp");
+    assertThat(new File(jspClasses, "_01_jsp.class")).isFile();
+    assertThat(new File(jspClasses, "_02_jsp.class")).isFile();
+    for (File tagClassFile : tagClassFiles) {
+      assertThat(tagClassFile.lastModified()).isZero();
+    }
+  }
+
+  private static JspCContextAccessor newWorker(JspCContextAccessor topJspC) {
+    JspCContextAccessor worker = new JspCContextAccessor();
+    worker.setUriroot(new File(WEBAPP_PATH).getAbsolutePath());
+    worker.initContext(topJspC);
+    return worker;
+  }
+}
@@ -0,0 +1,72 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test {@link JspCompileReport}
+ */
+public class TestJspCompileReport {
+
+  @Test
+  public void should_write_most_expensive_jsps_first_in_csv() throws Exception {
+    // Given
+    JspCompileReport report = new JspCompileReport();
+    report.addTotalTime("/cheap.jsp", TimeUnit.MILLISECONDS.toNanos(5));
+    report.setStatus("/cheap.jsp", JspCompileReport.Status.UP_TO_DATE, null);
+    report.addTotalTime("/expensive.jsp", TimeUnit.MILLISECONDS.toNanos(120));
+    report.addTime("/expensive.jsp", JspCompileReport.Phase.PARSE, TimeUnit.MILLISECONDS.toNanos(20));
+    report.addTime("/expensive.jsp", JspCompileReport.Phase.COMPILE, TimeUnit.MILLISECONDS.toNanos(90));
+    report.addClassSize("/expensive.jsp", 1000);
+    report.addClassSize("/expensive.jsp", 24);
+    report.setStatus("/expensive.jsp", JspCompileReport.Status.COMPILED, null);
+    StringWriter csv = new StringWriter();
+
+    // When
+    report.writeCsv(csv);
+
+    // Then
+    assertThat(csv.toString().split("\n")).containsExactly(
+        "jsp,status,totalMillis,parseMillis,generateMillis,compileMillis,writeMillis,classSize,error",
+        "\"/expensive.jsp\",\"compiled\",120,20,,90,,1024,",
+        "\"/cheap.jsp\",\"upToDate\",5,,,,,,");
+  }
+
+  @Test
+  public void should_escape_errors_in_json() throws Exception {
+    // Given
+    JspCompileReport report = new JspCompileReport();
+    report.addTotalTime("/broken.jsp", TimeUnit.MILLISECONDS.toNanos(7));
+    report.setStatus("/broken.jsp", JspCompileReport.Status.FAILED, new IllegalStateException("line 3: \"x\"\n"));
+    StringWriter json = new StringWriter();
+
+    // When
+    report.writeJson(json);
+
+    // Then
+    assertThat(json.toString()).isEqualTo("{\n  \"jsps\": [\n"
+        + "    {\"jsp\": \"/broken.jsp\", \"status\": \"failed\", \"totalMillis\": 7, \"parseMillis\": null,"
+        + " \"generateMillis\": null, \"compileMillis\": null, \"writeMillis\": null, \"classSize\": null,"
+        + " \"error\": \"line 3: \\\"x\\\"\\n\"}\n  ]\n}\n");
+  }
+
+  @Test
+  public void should_count_jsps_taking_most_of_the_time() {
+    // Given
+    JspCompileReport report = new JspCompileReport();
+    report.addTotalTime("/a.jsp", 70);
+    report.addTotalTime("/b.jsp", 15);
+    report.addTotalTime("/c.jsp", 10);
+    report.addTotalTime("/d.jsp", 5);
+
+    // When
+    int costliest = report.getCostliestCount(0.8);
+
+    // Then
+    assertThat(costliest).isEqualTo(2);
+  }
+}
@@ -0,0 +1,92 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test {@link JspCostModel}
+ */
+public class TestJspCostModel {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void should_start_with_biggest_jsp_when_no_compile_time_is_known() throws Exception {
+    // Given
+    File webApp = folder.newFolder("webapp");
+    writeJsp(webApp, "small.jsp", 100, 0);
+    writeJsp(webApp, "big.jsp", 10000, 0);
+    writeJsp(webApp, "included.jsp", 100, 20);
+    JspCostModel model = JspCostModel.load(new File(folder.getRoot(), "missing.txt"));
+
+    // When
+    List<List<String>> assignments = model.schedule(Arrays.asList("small.jsp", "big.jsp", "included.jsp"), webApp, 1,
+        Collections.<String>emptySet());
+
+    // Then
+    assertThat(assignments.get(0)).containsExactly("included.jsp", "big.jsp", "small.jsp");
+  }
+
+  @Test
+  public void should_assign_longest_jsps_first_to_least_loaded_thread_when_compile_times_are_recorded()
+      throws Exception {
+    // Given
+    File webApp = folder.newFolder("webapp");
+    List<String> jsps = Arrays.asList("a.jsp", "b.jsp", "c.jsp", "d.jsp");
+    for (String jsp : jsps) {
+      writeJsp(webApp, jsp, 100, 0);
+    }
+    File costFile = new File(folder.getRoot(), "costs.txt");
+    JspCostModel previousRun = JspCostModel.load(costFile);
+    previousRun.schedule(jsps, webApp, 1, Collections.<String>emptySet());
+    previousRun.recordCompileTime("a.jsp", 30);
+    previousRun.recordCompileTime("b.jsp", 100);
+    previousRun.recordCompileTime("c.jsp", 60);
+    previousRun.recordCompileTime("d.jsp", 50);
+    previousRun.save(costFile);
+
+    // When
+    JspCostModel model = JspCostModel.load(costFile);
+    List<List<String>> assignments = model.schedule(jsps, webApp, 2, Collections.<String>emptySet());
+
+    // Then
+    assertThat(assignments.get(0)).containsExactly("b.jsp", "a.jsp");
+    assertThat(assignments.get(1)).containsExactly("c.jsp", "d.jsp");
+    assertThat(model.getPredictedMakespan()).isEqualTo(130);
+  }
+
+  @Test
+  public void should_not_count_up_to_date_jsps_when_predicting_makespan() throws Exception {
+    // Given
+    File webApp = folder.newFolder("webapp");
+    writeJsp(webApp, "a.jsp", 1024, 0);
+    writeJsp(webApp, "b.jsp", 1024, 0);
+    JspCostModel model = JspCostModel.load(new File(folder.getRoot(), "missing.txt"));
+
+    // When
+    model.schedule(Arrays.asList("a.jsp", "b.jsp"), webApp, 1, Collections.singleton("b.jsp"));
+
+    // Then
+    assertThat(model.getPredictedMakespan()).isEqualTo(5);
+  }
+
+  private static void writeJsp(File webApp, String name, int size, int includes) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < includes; i++) {
+      content.append("<%@ include file=\"header.jspf\" %>\n");
+    }
+    while (content.length() < size) {
+      content.append('x');
+    }
+    Files.write(new File(webApp, name).toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,67 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * Test {@link JspWorkQueue}
+ */
+public class TestJspWorkQueue {
+
+  @Test
+  public void should_fill_deque_of_each_worker_with_its_assignment_when_queue_is_created() {
+    // Given
+    List<List<String>> assignments = Arrays.asList(Arrays.asList("a.jsp", "b.jsp", "c.jsp"),
+        Arrays.asList("d.jsp", "e.jsp"));
+
+    // When
+    JspWorkQueue queue = new JspWorkQueue(assignments);
+
+    // Then
+    assertThat(queue.getInitialSize(0)).isEqualTo(3);
+    assertThat(queue.getInitialSize(1)).isEqualTo(2);
+    assertThat(queue.poll(0)).isEqualTo("a.jsp");
+    assertThat(queue.poll(1)).isEqualTo("d.jsp");
+  }
+
+  @Test
+  public void should_steal_from_tail_of_other_worker_when_own_deque_is_empty() {
+    // Given
+    JspWorkQueue queue = new JspWorkQueue(
+        Arrays.asList(Arrays.asList("a.jsp", "b.jsp"), Arrays.asList("c.jsp", "d.jsp")));
+    queue.poll(1);
+    queue.poll(1);
+
+    // When
+    String stolen = queue.poll(1);
+
+    // Then
+    assertThat(stolen).isEqualTo("b.jsp");
+    assertThat(queue.getStolenCount(1)).isEqualTo(1);
+    assertThat(queue.getProcessedCount(1)).isEqualTo(3);
+    assertThat(queue.poll(0)).isEqualTo("a.jsp");
+  }
+
+  @Test
+  public void should_return_each_jsp_once_when_polled_until_empty() {
+    // Given
+    List<String> jsps = Arrays.asList("a.jsp", "b.jsp", "c.jsp", "d.jsp", "e.jsp", "f.jsp", "g.jsp");
+    JspWorkQueue queue = new JspWorkQueue(
+        Arrays.asList(jsps.subList(0, 3), jsps.subList(3, 5), jsps.subList(5, 7)));
+
+    // When
+    List<String> polled = new ArrayList<>();
+    String jsp;
+    while ((jsp = queue.poll(2)) != null) {
+      polled.add(jsp);
+    }
+
+    // Then
+    assertThat(polled).containsExactlyInAnyOrderElementsOf(jsps);
+    assertThat(queue.poll(0)).isNull();
+    assertThat(queue.getStolenCount(2)).isEqualTo(5);
+  }
+}
@@ -7,6 +7,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.maven.plugin.testing.MojoRule;
 import org.junit.*;
@@ -34,6 +35,44 @@ public class TestJspcMojo {
     assertThat(indexJspPath).isNotNull();
   }
 
+  @Test
+  public void should_write_jsp_costs_only_when_jspCostFile_is_set() throws Exception {
+    // Given
+    File oneJspProject = new File("target/test-classes/unit/project_one_jsp");
+    JspcMojo.delete(new File(oneJspProject, "target"), file -> true);
+    File jspCostFile = new File(oneJspProject, "target/jspc/jsp-costs.txt");
+
+    // When
+    rule.executeMojo(oneJspProject, "compile");
+    boolean writtenByDefault = jspCostFile.exists();
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(oneJspProject, "compile");
+    rule.setVariableValueToObject(mojo, "jspCostFile", jspCostFile);
+    mojo.execute();
+
+    // Then
+    assertThat(writtenByDefault).isFalse();
+    assertThat(Files.readAllLines(jspCostFile.toPath())).anyMatch(line -> line.startsWith("jsp\t"));
+  }
+
+  @Test
+  public void should_write_compile_report_only_when_compileReport_is_set() throws Exception {
+    // Given
+    File oneJspProject = new File("target/test-classes/unit/project_one_jsp");
+    JspcMojo.delete(new File(oneJspProject, "target"), file -> true);
+    File compileReport = new File(oneJspProject, "target/jspc/compile-report.json");
+
+    // When
+    rule.executeMojo(oneJspProject, "compile");
+    boolean writtenByDefault = compileReport.exists();
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(oneJspProject, "compile");
+    rule.setVariableValueToObject(mojo, "compileReport", compileReport);
+    mojo.execute();
+
+    // Then
+    assertThat(writtenByDefault).isFalse();
+    assertThat(Files.readAllLines(compileReport.toPath())).anyMatch(line -> line.contains("/jsp/index.jsp"));
+  }
+
   @Test
   public void should_return_webfrag_equal_to_reference_when_executeMojo_on_project_one_jsp_with_no_options()
       throws Exception {
@@ -66,6 +105,26 @@ public class TestJspcMojo {
     assertThat(indexJspPath).isNotNull();
   }
 
+  @Test
+  public void should_delete_only_generated_sources_when_executeMojo_on_project_many_jsp_with_no_options()
+      throws Exception {
+    // Given
+    File manyJspProject = new File("target/test-classes/unit/project_many_jsp");
+    Path projectSource = Paths.get("target/test-classes/unit/project_many_jsp/target/classes/com/example/Project.java");
+    Files.createDirectories(projectSource.getParent());
+    Files.write(projectSource, "package com.example; class Project {}".getBytes(StandardCharsets.UTF_8));
+
+    // When
+    rule.executeMojo(manyJspProject, "compile");
+
+    // Then
+    try (Stream<Path> files = Files.walk(Paths.get("target/test-classes/unit/project_many_jsp/target/classes"))) {
+      assertThat(files.filter(file -> file.toString().endsWith(".java"))).containsExactly(projectSource);
+    }
+    assertThat(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/jsp/jsp/_01_jsp.class")).exists();
+    assertThat(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/org/apache/jsp/tag/web/response1_tag.class")).exists();
+  }
+
   @Test
   public void should_return_correct_merged_xml_when_mergeFragment_is_true() throws Exception {
     // Given
@@ -0,0 +1,69 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.MojoRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test {@link JspcMojo} with a jsp failing to compile in the last batch of
+ * org.apache.jasper.compiler.ParallelJDTCompiler, compiled once all the jsps
+ * are generated
+ */
+public class TestJspcMojoBatchWithError {
+
+  private static final String PROJECT_PATH = "target/test-classes/unit/project_batch_with_error";
+
+  @Rule
+  public MojoRule rule = new MojoRule();
+
+  @Before
+  public void deleteTarget() {
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+  }
+
+  @Test
+  public void should_report_error_on_failing_jsp_and_compile_others_when_executeMojo_with_batch() throws Exception {
+    // Given
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(new File(PROJECT_PATH), "compile");
+    List<String> errors = new ArrayList<>();
+    mojo.setLog(new SystemStreamLog() {
+      @Override
+      public void error(CharSequence content) {
+        errors.add(content.toString());
+        super.error(content);
+      }
+    });
+
+    // When
+    assertThatThrownBy(mojo::execute).isInstanceOf(MojoExecutionException.class);
+
+    // Then
+    List<String> report = Files.readAllLines(Paths.get(PROJECT_PATH + "/target/jspc/compile-report.json"));
+    assertThat(report).filteredOn(line -> line.contains("\"/jsp/02.jsp\"")).singleElement().satisfies(line -> {
+      assertThat(line).contains("\"status\": \"failed\"", "line: [4]", "[/jsp/02.jsp]");
+    });
+    for (String jsp : new String[] {"01", "03"}) {
+      assertThat(report).filteredOn(line -> line.contains("\"/jsp/" + jsp + ".jsp\"")).singleElement()
+          .satisfies(line -> assertThat(line).contains("\"status\": \"compiled\"").doesNotContain("line: ["));
+      assertThat(new File(PROJECT_PATH + "/target/classes/jsp/jsp/_" + jsp + "_jsp.class")).isFile();
+    }
+    assertThat(new File(PROJECT_PATH + "/target/classes/jsp/jsp/_02_jsp.class")).doesNotExist();
+    assertThat(errors).anyMatch(error -> error.startsWith("Generation completed with [1] errors"));
+    List<String> webXml = Files.readAllLines(Paths.get(PROJECT_PATH + "/target/webfrag.xml"));
+    assertThat(webXml).contains("        <url-pattern>/jsp/01.jsp</url-pattern>",
+        "        <url-pattern>/jsp/03.jsp</url-pattern>");
+    assertThat(webXml).noneMatch(line -> line.contains("/jsp/02.jsp"));
+  }
+}
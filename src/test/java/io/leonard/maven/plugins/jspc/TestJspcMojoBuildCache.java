@@ -0,0 +1,94 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+
+import org.apache.maven.plugin.testing.MojoRule;
+import org.junit.*;
+
+/**
+ * Test {@link JspcMojo} with the build cache
+ */
+public class TestJspcMojoBuildCache {
+
+  private static final String PROJECT_PATH = "target/test-classes/unit/project_build_cache";
+  private static final String TARGET_PATH = PROJECT_PATH + "/target/classes/";
+  private static final String INDEX_JSP_CLASS = TARGET_PATH + "jsp/jsp/index_jsp.class";
+  private static final String HELLO_TAG_CLASS = TARGET_PATH + "org/apache/jsp/tag/web/hello_tag.class";
+
+  @Rule
+  public MojoRule rule = new MojoRule();
+
+  @Before
+  public void deleteBuildCache() {
+    JspcMojo.delete(new File(PROJECT_PATH, "build-cache"), file -> true);
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+  }
+
+  @Test
+  public void should_restore_classes_of_jsp_and_tag_file_when_executeMojo_after_clean() throws Exception {
+    // Given
+    File buildCacheProject = new File(PROJECT_PATH);
+    rule.executeMojo(buildCacheProject, "compile");
+    byte[] indexJsp = Files.readAllBytes(Paths.get(INDEX_JSP_CLASS));
+    byte[] helloTag = Files.readAllBytes(Paths.get(HELLO_TAG_CLASS));
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+
+    // When
+    rule.executeMojo(buildCacheProject, "compile");
+
+    // Then
+    assertThat(Files.readAllBytes(Paths.get(INDEX_JSP_CLASS))).isEqualTo(indexJsp);
+    assertThat(Files.readAllBytes(Paths.get(HELLO_TAG_CLASS))).isEqualTo(helloTag);
+    List<String> webXml = Files.readAllLines(Paths.get(PROJECT_PATH + "/target/webfrag.xml"));
+    assertThat(webXml).contains("        <url-pattern>/jsp/index.jsp</url-pattern>");
+    String report = new String(Files.readAllBytes(Paths.get(PROJECT_PATH + "/target/jspc/compile-report.json")),
+        StandardCharsets.UTF_8);
+    assertThat(report).contains("\"jsp\": \"/jsp/index.jsp\", \"status\": \"fromCache\"");
+  }
+
+  @Test
+  public void should_restore_class_of_jsp_when_executeMojo_again_without_clean() throws Exception {
+    // Given
+    File buildCacheProject = new File(PROJECT_PATH);
+    rule.executeMojo(buildCacheProject, "compile");
+    byte[] indexJsp = Files.readAllBytes(Paths.get(INDEX_JSP_CLASS));
+    // the classes of the first build stay in the classesDirectory
+    Files.delete(Paths.get(INDEX_JSP_CLASS));
+
+    // When
+    rule.executeMojo(buildCacheProject, "compile");
+
+    // Then
+    assertThat(Files.readAllBytes(Paths.get(INDEX_JSP_CLASS))).isEqualTo(indexJsp);
+    String report = new String(Files.readAllBytes(Paths.get(PROJECT_PATH + "/target/jspc/compile-report.json")),
+        StandardCharsets.UTF_8);
+    assertThat(report).contains("\"jsp\": \"/jsp/index.jsp\", \"status\": \"fromCache\"");
+  }
+
+  @Test
+  public void should_compile_jsp_again_when_its_static_include_changed_since_it_was_stored() throws Exception {
+    // Given
+    File buildCacheProject = new File(PROJECT_PATH);
+    rule.executeMojo(buildCacheProject, "compile");
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+    Path header = Paths.get(PROJECT_PATH + "/src/main/webapp/jsp/header.jspf");
+    byte[] originalHeader = Files.readAllBytes(header);
+    Files.write(header, "<h1>Changed header</h1>".getBytes(StandardCharsets.UTF_8));
+
+    // When
+    try {
+      rule.executeMojo(buildCacheProject, "compile");
+    } finally {
+      Files.write(header, originalHeader);
+    }
+
+    // Then
+    String indexJsp = new String(Files.readAllBytes(Paths.get(INDEX_JSP_CLASS)), StandardCharsets.UTF_8);
+    assertThat(indexJsp).contains("Changed header");
+  }
+}
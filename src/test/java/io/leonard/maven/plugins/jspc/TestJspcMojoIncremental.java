@@ -0,0 +1,118 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.plugin.testing.MojoRule;
+import org.junit.*;
+
+/**
+ * Test {@link JspcMojo} in incremental mode
+ */
+public class TestJspcMojoIncremental {
+
+  private static final String PROJECT_PATH = "target/test-classes/unit/project_incremental";
+  private static final String TARGET_PATH = PROJECT_PATH + "/target/classes/jsp/jsp/";
+
+  @Rule
+  public MojoRule rule = new MojoRule();
+
+  @Test
+  public void should_skip_jsps_without_compiler_when_nothing_changed_since_manifest() throws Exception {
+    // Given
+    File incrementalProject = new File(PROJECT_PATH);
+    rule.executeMojo(incrementalProject, "compile");
+    Path indexJspPath = Paths.get(TARGET_PATH + "index_jsp.class");
+    byte[] firstIndexJsp = Files.readAllBytes(indexJspPath);
+    // Jasper alone would compile the jsp again since its class is not as old as the jsp
+    long touchedLastModified = indexJspPath.toFile().lastModified() + 10_000;
+    indexJspPath.toFile().setLastModified(touchedLastModified);
+
+    // When
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(incrementalProject, "compile");
+    mojo.execute();
+
+    // Then
+    @SuppressWarnings("unchecked")
+    Set<String> upToDateJspFiles = (Set<String>) rule.getVariableValueFromObject(mojo, "upToDateJspFiles");
+    assertThat(upToDateJspFiles).containsExactlyInAnyOrder("/jsp/index.jsp", "/jsp/other.jsp", "/jsp/static.jsp");
+    List<String> manifest = Files.readAllLines(Paths.get(PROJECT_PATH + "/target/jspc/incremental-manifest.txt"));
+    assertThat(manifest).contains("output\tjsp/jsp/index_jsp.class", "output\tjsp/jsp/other_jsp.class");
+    assertThat(Files.readAllBytes(indexJspPath)).isEqualTo(firstIndexJsp);
+    assertThat(indexJspPath.toFile().lastModified()).isEqualTo(touchedLastModified);
+    List<String> webXml = Files.readAllLines(Paths.get(PROJECT_PATH + "/target/webfrag.xml"));
+    assertThat(webXml).contains("        <url-pattern>/jsp/index.jsp</url-pattern>",
+        "        <url-pattern>/jsp/other.jsp</url-pattern>");
+  }
+
+  @Test
+  public void should_record_dependants_without_initializing_servlets_when_executeMojo() throws Exception {
+    // Given
+    File incrementalProject = new File(PROJECT_PATH);
+    System.clearProperty("jspc.test.static.initialized");
+
+    // When
+    rule.executeMojo(incrementalProject, "compile");
+
+    // Then
+    List<String> manifest = Files.readAllLines(Paths.get(PROJECT_PATH + "/target/jspc/incremental-manifest.txt"));
+    assertThat(manifest).anyMatch(line -> line.startsWith("dependant\t/jsp/header.jspf\t"));
+    assertThat(manifest).contains("output\tjsp/jsp/static_jsp.class");
+    assertThat(System.getProperty("jspc.test.static.initialized")).isNull();
+  }
+
+  @Test
+  public void should_recompile_jsp_when_only_its_static_include_changed() throws Exception {
+    // Given
+    File incrementalProject = new File(PROJECT_PATH);
+    rule.executeMojo(incrementalProject, "compile");
+    Path otherJspPath = Paths.get(TARGET_PATH + "other_jsp.class");
+    long otherJspLastModified = otherJspPath.toFile().lastModified();
+    File header = new File(PROJECT_PATH + "/src/main/webapp/jsp/header.jspf");
+    long headerLastModified = header.lastModified();
+    Files.write(header.toPath(), "<h1>Changed header</h1>".getBytes(StandardCharsets.UTF_8));
+    header.setLastModified(headerLastModified + 2000);
+
+    // When
+    rule.executeMojo(incrementalProject, "compile");
+
+    // Then
+    String indexJsp = new String(Files.readAllBytes(Paths.get(TARGET_PATH + "index_jsp.class")), StandardCharsets.UTF_8);
+    assertThat(indexJsp).contains("Changed header");
+    assertThat(otherJspPath.toFile().lastModified()).isEqualTo(otherJspLastModified);
+  }
+
+  @Test
+  public void should_recompile_jsps_when_jsp_config_of_web_xml_changed() throws Exception {
+    // Given
+    File incrementalProject = new File(PROJECT_PATH);
+    rule.executeMojo(incrementalProject, "compile");
+    Path otherJspPath = Paths.get(TARGET_PATH + "other_jsp.class");
+    assertThat(new String(Files.readAllBytes(otherJspPath), StandardCharsets.UTF_8)).doesNotContain("<h1>");
+    Path webXml = Paths.get(PROJECT_PATH + "/src/main/webapp/WEB-INF/web.xml");
+    Files.createDirectories(webXml.getParent());
+    Files.write(webXml, ("<web-app xmlns=\"https://jakarta.ee/xml/ns/jakartaee\" version=\"6.0\">\n"
+        + "  <jsp-config>\n"
+        + "    <jsp-property-group>\n"
+        + "      <url-pattern>/jsp/other.jsp</url-pattern>\n"
+        + "      <include-prelude>/jsp/header.jspf</include-prelude>\n"
+        + "    </jsp-property-group>\n"
+        + "  </jsp-config>\n"
+        + "</web-app>\n").getBytes(StandardCharsets.UTF_8));
+
+    // When
+    try {
+      rule.executeMojo(incrementalProject, "compile");
+    } finally {
+      Files.delete(webXml);
+    }
+
+    // Then
+    assertThat(new String(Files.readAllBytes(otherJspPath), StandardCharsets.UTF_8)).contains("<h1>");
+  }
+}
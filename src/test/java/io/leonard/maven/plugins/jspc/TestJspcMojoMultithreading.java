@@ -38,7 +38,40 @@ public class TestJspcMojoMultithreading {
     assertThat(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp_4_threads/target/classes/jsp/jsp/_04_jsp.class")))
       .isEqualTo(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/jsp/jsp/_04_jsp.class")));
   }
-  
+
+  @Test
+  public void should_return_same_webfrag_as_monothread_reference_when_executeMojo_on_project_many_jsp_with_4_threads() throws Exception {
+    // Given
+    File manyJspProject = new File("target/test-classes/unit/project_many_jsp");
+    File manyJspProject4Threads = new File("target/test-classes/unit/project_many_jsp_4_threads");
+
+    // When
+    rule.executeMojo(manyJspProject, "compile");
+    rule.executeMojo(manyJspProject4Threads, "compile");
+
+    // Then
+    assertThat(Paths.get("target/test-classes/unit/project_many_jsp_4_threads/target/webfrag.xml.0")).doesNotExist();
+    assertThat(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp_4_threads/target/webfrag.xml")))
+      .isEqualTo(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp/target/webfrag.xml")));
+  }
+
+  @Test
+  public void should_return_same_compiled_jsp_as_monothread_reference_when_executeMojo_on_project_many_jsp_with_auto_threads() throws Exception {
+    // Given
+    File manyJspProject = new File("target/test-classes/unit/project_many_jsp");
+    File manyJspProjectAutoThreads = new File("target/test-classes/unit/project_many_jsp_auto_threads");
+
+    // When
+    rule.executeMojo(manyJspProject, "compile");
+    rule.executeMojo(manyJspProjectAutoThreads, "compile");
+
+    // Then
+    for (String jsp : new String[] {"_01_jsp", "_02_jsp", "_03_jsp", "_04_jsp"}) {
+      assertThat(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp_auto_threads/target/classes/jsp/jsp/" + jsp + ".class")))
+        .isEqualTo(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/jsp/jsp/" + jsp + ".class")));
+    }
+  }
+
   @Test
   public void should_return_one_time_jsp_declaration_in_web_xml_when_executeMojo_on_project_one_jsp_with_4_threads() throws Exception {
     // Given
@@ -0,0 +1,113 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.stream.Stream;
+
+import org.apache.maven.plugin.testing.MojoRule;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test {@link JspcMojo} with a remote build cache served by
+ * {@link BuildCacheServer}
+ */
+public class TestJspcMojoRemoteBuildCache {
+
+  private static final String PROJECT_PATH = "target/test-classes/unit/project_build_cache";
+  private static final String INDEX_JSP_CLASS = PROJECT_PATH + "/target/classes/jsp/jsp/index_jsp.class";
+
+  @Rule
+  public MojoRule rule = new MojoRule();
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Before
+  public void deleteBuildCache() {
+    JspcMojo.delete(new File(PROJECT_PATH, "build-cache"), file -> true);
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+  }
+
+  @Test
+  public void should_restore_classes_from_remote_build_cache_when_local_build_cache_is_empty() throws Exception {
+    // Given
+    Path serverDirectory = temporaryFolder.newFolder("server").toPath();
+    try (BuildCacheServer server = BuildCacheServer.start(serverDirectory, 0)) {
+      executeMojo(server.getUrl().toString(), new File(PROJECT_PATH, "build-cache"));
+      byte[] indexJsp = Files.readAllBytes(Paths.get(INDEX_JSP_CLASS));
+      JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+
+      // When
+      executeMojo(server.getUrl().toString(), temporaryFolder.newFolder("other-machine"));
+
+      // Then
+      assertThat(Files.readAllBytes(Paths.get(INDEX_JSP_CLASS))).isEqualTo(indexJsp);
+      String report = new String(Files.readAllBytes(Paths.get(PROJECT_PATH + "/target/jspc/compile-report.json")),
+          StandardCharsets.UTF_8);
+      assertThat(report).contains("\"jsp\": \"/jsp/index.jsp\", \"status\": \"fromCache\"");
+      assertThat(countFiles(serverDirectory)).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void should_upload_to_remote_build_cache_only_when_token_is_right() throws Exception {
+    // Given
+    Path serverDirectory = temporaryFolder.newFolder("server").toPath();
+    InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    try (BuildCacheServer server = BuildCacheServer.start(serverDirectory, address, "secret")) {
+
+      // When
+      executeMojo(server.getUrl().toString(), "guess", new File(PROJECT_PATH, "build-cache"));
+      long filesWithWrongToken = countFiles(serverDirectory);
+      JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+      executeMojo(server.getUrl().toString(), "secret", temporaryFolder.newFolder("other-machine"));
+
+      // Then
+      assertThat(filesWithWrongToken).isZero();
+      assertThat(countFiles(serverDirectory)).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void should_compile_jsps_when_remote_build_cache_cannot_be_reached() throws Exception {
+    // Given
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    // When
+    executeMojo("http://localhost:" + port + "/", new File(PROJECT_PATH, "build-cache"));
+
+    // Then
+    assertThat(Paths.get(INDEX_JSP_CLASS)).exists();
+  }
+
+  private void executeMojo(String remoteBuildCacheUrl, File buildCacheDirectory) throws Exception {
+    executeMojo(remoteBuildCacheUrl, null, buildCacheDirectory);
+  }
+
+  private void executeMojo(String remoteBuildCacheUrl, String remoteBuildCacheToken, File buildCacheDirectory)
+      throws Exception {
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(new File(PROJECT_PATH), "compile");
+    rule.setVariableValueToObject(mojo, "remoteBuildCacheUrl", remoteBuildCacheUrl);
+    rule.setVariableValueToObject(mojo, "remoteBuildCacheToken", remoteBuildCacheToken);
+    rule.setVariableValueToObject(mojo, "buildCacheDirectory", buildCacheDirectory);
+    rule.setVariableValueToObject(mojo, "remoteBuildCacheTimeout", 2000L);
+    mojo.execute();
+  }
+
+  private static long countFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(Files::isRegularFile).count();
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.plugin.testing.MojoRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test {@link JspcMojo} with jsps using the same tag files on several threads
+ */
+public class TestJspcMojoTagFiles {
+
+  private static final String PROJECT_PATH = "target/test-classes/unit/project_tag_files";
+
+  @Rule
+  public MojoRule rule = new MojoRule();
+
+  @Before
+  public void deleteTarget() {
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+  }
+
+  @Test
+  public void should_compile_jsps_using_tag_files_compiled_before_them_when_executeMojo_with_4_threads()
+      throws Exception {
+    // Given
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(new File(PROJECT_PATH), "compile");
+    List<String> messages = new ArrayList<>();
+    mojo.setLog(new SystemStreamLog() {
+      @Override
+      public void info(CharSequence content) {
+        messages.add(content.toString());
+        super.info(content);
+      }
+    });
+
+    // When
+    mojo.execute();
+
+    // Then
+    int tagFilesMessage = indexOf(messages, "Compiled 2 tag files in ");
+    int firstQueueMessage = indexOf(messages, "Number of jsps queued for thread 1 ");
+    assertThat(tagFilesMessage).isNotNegative().isLessThan(firstQueueMessage);
+    assertThat(new File(PROJECT_PATH + "/target/classes/org/apache/jsp/tag/web/box_tag.class")).isFile();
+    assertThat(new File(PROJECT_PATH + "/target/classes/org/apache/jsp/tag/web/panel_tag.class")).isFile();
+    for (int index = 1; index <= 8; index++) {
+      assertThat(new File(PROJECT_PATH + "/target/classes/jsp/jsp/_0" + index + "_jsp.class")).isFile();
+    }
+  }
+
+  private static int indexOf(List<String> messages, String prefix) {
+    for (int index = 0; index < messages.size(); index++) {
+      if (messages.get(index).startsWith(prefix)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+}
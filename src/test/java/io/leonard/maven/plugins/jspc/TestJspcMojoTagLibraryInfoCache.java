@@ -0,0 +1,46 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.apache.jasper.compiler.TagLibraryInfoCache;
+import org.apache.maven.plugin.testing.MojoRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Test {@link JspcMojo} with jsps using the same taglib on several threads
+ */
+public class TestJspcMojoTagLibraryInfoCache {
+
+  private static final String PROJECT_PATH = "target/test-classes/unit/project_taglib_cache";
+
+  @Rule
+  public MojoRule rule = new MojoRule();
+
+  @Before
+  public void deleteTarget() {
+    JspcMojo.delete(new File(PROJECT_PATH, "target"), file -> true);
+  }
+
+  @Test
+  public void should_build_taglib_once_when_executeMojo_on_jsps_using_it_with_4_threads() throws Exception {
+    // Given
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(new File(PROJECT_PATH), "compile");
+
+    // When
+    mojo.execute();
+
+    // Then
+    TagLibraryInfoCache tagLibraryInfoCache = (TagLibraryInfoCache) rule.getVariableValueFromObject(mojo,
+        "tagLibraryInfoCache");
+    assertThat(tagLibraryInfoCache.getMissCount()).isEqualTo(1);
+    assertThat(tagLibraryInfoCache.getHitCount()).isEqualTo(7);
+    assertThat(tagLibraryInfoCache.size()).isEqualTo(1);
+    for (int index = 1; index <= 8; index++) {
+      assertThat(new File(PROJECT_PATH + "/target/classes/jsp/jsp/_0" + index + "_jsp.class")).isFile();
+    }
+  }
+}
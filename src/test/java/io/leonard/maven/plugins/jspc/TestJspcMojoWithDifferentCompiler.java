@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.File;
 import java.nio.file.*;
+import java.util.List;
 
 import org.apache.maven.plugin.testing.MojoRule;
 import org.junit.*;
@@ -36,4 +37,130 @@ public class TestJspcMojoWithDifferentCompiler {
     assertThat(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler/target/classes/jsp/jsp/_04_jsp.class")))
       .isEqualTo(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/jsp/jsp/_04_jsp.class")));
   }
+
+  @Test
+  public void should_return_same_compiled_jsp_as_JDTCompiler_reference_when_executeMojo_on_project_many_jsp_ParallelJDTCompiler_batch() throws Exception {
+    // Given
+    File manyJspProject = new File("target/test-classes/unit/project_many_jsp");
+    File manyJspProjectCompilerBatch = new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch");
+
+    // When
+    rule.executeMojo(manyJspProject, "compile");
+    rule.executeMojo(manyJspProjectCompilerBatch, "compile");
+
+    // Then
+    for (String jsp : new String[] {"_01_jsp", "_02_jsp", "_03_jsp", "_04_jsp"}) {
+      assertThat(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch/target/classes/jsp/jsp/" + jsp + ".class")))
+        .isEqualTo(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/jsp/jsp/" + jsp + ".class")));
+    }
+  }
+
+  @Test
+  public void should_return_same_compiled_jsp_as_JDTCompiler_reference_when_executeMojo_on_project_many_jsp_ParallelJDTCompiler_sourcesInMemory() throws Exception {
+    // Given
+    File manyJspProject = new File("target/test-classes/unit/project_many_jsp");
+    File manyJspProjectSourcesInMemory = new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_sourcesInMemory");
+
+    // When
+    rule.executeMojo(manyJspProject, "compile");
+    rule.executeMojo(manyJspProjectSourcesInMemory, "compile");
+
+    // Then
+    for (String jsp : new String[] {"_01_jsp", "_02_jsp", "_03_jsp", "_04_jsp"}) {
+      assertThat(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_sourcesInMemory/target/classes/jsp/jsp/" + jsp + ".class")))
+        .isEqualTo(Files.readAllBytes(Paths.get("target/test-classes/unit/project_many_jsp/target/classes/jsp/jsp/" + jsp + ".class")));
+      assertThat(new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_sourcesInMemory/target/classes/jsp/jsp/" + jsp + ".java")).doesNotExist();
+    }
+  }
+
+  @Test
+  public void should_report_the_phases_of_each_jsp_when_executeMojo_on_project_many_jsp_ParallelJDTCompiler_batch() throws Exception {
+    // Given
+    File manyJspProjectCompilerBatch = new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch");
+    // classes more recent than their jsp are not compiled again
+    JspcMojo.delete(new File(manyJspProjectCompilerBatch, "target/classes/jsp"), file -> true);
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(manyJspProjectCompilerBatch, "compile");
+    rule.setVariableValueToObject(mojo, "sourcesInMemory", true);
+
+    // When
+    mojo.execute();
+
+    // Then
+    List<String> report = Files.readAllLines(Paths.get("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch/target/jspc/compile-report.json"));
+    for (String jsp : new String[] {"01.jsp", "02.jsp", "03.jsp", "04.jsp"}) {
+      assertThat(report).filteredOn(line -> line.contains("/jsp/" + jsp)).hasSize(1).allSatisfy(line -> {
+        assertThat(line).contains("\"status\": \"compiled\"").doesNotContain("Millis\": null").doesNotContain("\"classSize\": null");
+      });
+    }
+  }
+
+  @Test
+  public void should_report_parse_in_generation_time_when_sources_are_not_in_memory() throws Exception {
+    // Given
+    File manyJspProjectCompilerBatch = new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch");
+    JspcMojo.delete(new File(manyJspProjectCompilerBatch, "target/classes/jsp"), file -> true);
+
+    // When
+    rule.executeMojo(manyJspProjectCompilerBatch, "compile");
+
+    // Then
+    List<String> report = Files.readAllLines(Paths.get("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch/target/jspc/compile-report.json"));
+    for (String jsp : new String[] {"01.jsp", "02.jsp", "03.jsp", "04.jsp"}) {
+      assertThat(report).filteredOn(line -> line.contains("/jsp/" + jsp)).hasSize(1).allSatisfy(line -> {
+        assertThat(line).contains("\"parseMillis\": null").doesNotContain("\"generateMillis\": null")
+            .doesNotContain("\"compileMillis\": null");
+      });
+    }
+  }
+
+  @Test
+  public void should_report_jsps_up_to_date_when_executeMojo_again_on_project_many_jsp_ParallelJDTCompiler_batch() throws Exception {
+    // Given
+    File manyJspProjectCompilerBatch = new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch");
+    JspcMojo.delete(new File(manyJspProjectCompilerBatch, "target"), file -> true);
+    rule.executeMojo(manyJspProjectCompilerBatch, "compile");
+
+    // When
+    rule.executeMojo(manyJspProjectCompilerBatch, "compile");
+
+    // Then
+    List<String> report = Files.readAllLines(Paths.get("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler_batch/target/jspc/compile-report.json"));
+    for (String jsp : new String[] {"01.jsp", "02.jsp", "03.jsp", "04.jsp"}) {
+      assertThat(report).filteredOn(line -> line.contains("/jsp/" + jsp)).hasSize(1).allSatisfy(line -> {
+        assertThat(line).contains("\"status\": \"upToDate\"", "\"compileMillis\": null");
+      });
+    }
+  }
+
+  @Test
+  public void should_not_build_classpath_index_nor_class_cache_when_executeMojo_with_JDTCompiler() throws Exception {
+    // Given
+    File oneJspProject = new File("target/test-classes/unit/project_one_jsp");
+    JspcMojo.delete(new File(oneJspProject, "target"), file -> true);
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(oneJspProject, "compile");
+
+    // When
+    mojo.execute();
+
+    // Then
+    assertThat(rule.getVariableValueFromObject(mojo, "classpathIndex")).isNull();
+    assertThat(rule.getVariableValueFromObject(mojo, "resourcesCache")).isNull();
+    assertThat(new File(oneJspProject, "target/jspc/class-cache.bin")).doesNotExist();
+  }
+
+  @Test
+  public void should_build_classpath_index_and_class_cache_when_executeMojo_with_ParallelJDTCompiler() throws Exception {
+    // Given
+    File manyJspProjectCompilerParallel = new File("target/test-classes/unit/project_many_jsp_ParallelJDTCompiler");
+    JspcMojo.delete(new File(manyJspProjectCompilerParallel, "target"), file -> true);
+    JspcMojo mojo = (JspcMojo) rule.lookupConfiguredMojo(manyJspProjectCompilerParallel, "compile");
+
+    // When
+    mojo.execute();
+
+    // Then
+    assertThat(rule.getVariableValueFromObject(mojo, "classpathIndex")).isNotNull();
+    assertThat(rule.getVariableValueFromObject(mojo, "resourcesCache")).isNotNull();
+    assertThat(new File(manyJspProjectCompilerParallel, "target/jspc/class-cache.bin")).isFile();
+  }
 }
@@ -0,0 +1,93 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.apache.jasper.compiler.TldScanCache;
+import org.apache.jasper.servlet.JspCServletContext;
+import org.apache.jasper.servlet.TldScanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestParallelTldScanner {
+
+  private static final String WEBAPP_PATH = "target/test-classes/unit/project_build_cache/src/main/webapp";
+  private static final String STRICT_QUOTE_ESCAPING_WEBAPP_PATH =
+      "target/test-classes/unit/project_strict_quote_escaping/src/main/webapp";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void should_find_same_tlds_as_jasper_when_jars_are_scanned_in_parallel() throws Exception {
+    // Given
+    JspCServletContext context = newContext();
+    TldScanner tldScanner = new TldScanner(context, true, false, true);
+    tldScanner.scan();
+
+    // When
+    ParallelTldScanner parallelTldScanner = new ParallelTldScanner(context, true, false, true, 4, null);
+    parallelTldScanner.scan();
+
+    // Then
+    assertThat(parallelTldScanner.getUriTldResourcePathMap()).isNotEmpty()
+        .isEqualTo(tldScanner.getUriTldResourcePathMap());
+    assertThat(parallelTldScanner.getTldResourcePathTaglibXmlMap().keySet())
+        .isEqualTo(tldScanner.getTldResourcePathTaglibXmlMap().keySet());
+  }
+
+  @Test
+  public void should_find_same_tlds_when_jars_are_taken_from_tld_scan_cache() throws Exception {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("tld-cache.bin");
+    JspCServletContext context = newContext();
+    TldScanCache previousBuild = TldScanCache.load(file);
+    ParallelTldScanner previousScanner = new ParallelTldScanner(context, true, false, true, 4, previousBuild);
+    previousScanner.scan();
+    previousBuild.save(file);
+
+    // When
+    TldScanCache tldScanCache = TldScanCache.load(file);
+    ParallelTldScanner parallelTldScanner = new ParallelTldScanner(context, true, false, true, 4, tldScanCache);
+    parallelTldScanner.scan();
+
+    // Then
+    assertThat(tldScanCache.getHitCount()).isPositive();
+    assertThat(parallelTldScanner.getUriTldResourcePathMap()).isEqualTo(previousScanner.getUriTldResourcePathMap());
+    assertThat(parallelTldScanner.getTldResourcePathTaglibXmlMap().keySet())
+        .isEqualTo(previousScanner.getTldResourcePathTaglibXmlMap().keySet());
+  }
+
+  @Test
+  public void should_stop_scanning_jars_when_taglibs_of_jsps_are_found() throws Exception {
+    // Given
+    JspCServletContext context = newContext(STRICT_QUOTE_ESCAPING_WEBAPP_PATH);
+    ParallelTldScanner tldScanner = new ParallelTldScanner(context, true, false, true, 4, null);
+    tldScanner.scan();
+
+    // When
+    ParallelTldScanner lazyTldScanner = new ParallelTldScanner(context, true, false, true, 4, null);
+    lazyTldScanner.setJspUris(Collections.singletonList("jsp/01.jsp"));
+    lazyTldScanner.scan();
+
+    // Then
+    assertThat(lazyTldScanner.getUriTldResourcePathMap()).containsEntry("jakarta.tags.core",
+        tldScanner.getUriTldResourcePathMap().get("jakarta.tags.core"));
+    assertThat(lazyTldScanner.getScannedJarCount()).isPositive().isLessThan(tldScanner.getScannedJarCount());
+  }
+
+  private static JspCServletContext newContext() throws Exception {
+    return newContext(WEBAPP_PATH);
+  }
+
+  private static JspCServletContext newContext(String webappPath) throws Exception {
+    return new JspCServletContext(new PrintWriter(new StringWriter()), new File(webappPath).toURI().toURL(),
+        TestParallelTldScanner.class.getClassLoader(), false, true);
+  }
+}
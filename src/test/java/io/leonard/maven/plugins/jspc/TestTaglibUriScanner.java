@@ -0,0 +1,79 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.jasper.servlet.JspCServletContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestTaglibUriScanner {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void should_find_taglib_uris_of_jsps_includes_and_tag_files() throws Exception {
+    // Given
+    write("jsp/index.jsp", "<%@ taglib prefix=\"c\" uri=\"jakarta.tags.core\" %>\n"
+        + "<%@ include file=\"header.jspf\" %>\n"
+        + "<%-- <%@ taglib prefix=\"old\" uri=\"http://example.com/old\" %> --%>\n"
+        + "<%@ taglib prefix='t' tagdir='/WEB-INF/tags' %>\n"
+        + "<%@ taglib prefix=\"l\" uri=\"/WEB-INF/local.tld\" %>\n");
+    write("jsp/header.jspf", "<%@taglib uri=\"http://example.com/header\" prefix=\"h\"%>");
+    write("jsp/page.jspx", "<jsp:root xmlns:jsp=\"http://java.sun.com/JSP/Page\" version=\"3.0\"\n"
+        + "  xmlns:fn=\"jakarta.tags.functions\" xmlns:l=\"urn:jsptld:/WEB-INF/local.tld\"/>");
+    write("WEB-INF/tags/hello.tag", "<%@ taglib prefix=\"fmt\" uri=\"jakarta.tags.fmt\" %>");
+    write("WEB-INF/local.tld", "<taglib/>");
+    write("unused.jsp", "<%@ taglib prefix=\"x\" uri=\"jakarta.tags.xml\" %>");
+    JspCServletContext context = new JspCServletContext(new PrintWriter(new StringWriter()),
+        temporaryFolder.getRoot().toURI().toURL(), getClass().getClassLoader(), false, true);
+
+    // When
+    Set<String> taglibUris = new TaglibUriScanner(context).scan(Arrays.asList("jsp/index.jsp", "jsp/page.jspx"));
+
+    // Then
+    assertThat(taglibUris).containsExactly("jakarta.tags.core", "http://example.com/header", "jakarta.tags.fmt",
+        "jakarta.tags.functions");
+  }
+
+  @Test
+  public void should_find_tag_files_used_by_jsps_and_by_other_tag_files() throws Exception {
+    // Given
+    write("index.jsp", "<%@ taglib prefix=\"t\" tagdir=\"/WEB-INF/tags\" %>\n"
+        + "<%@ include file=\"body.jspf\" %>\n");
+    write("body.jspf", "<t:panel title=\"x\"><c:out value=\"y\"/></t:panel>");
+    write("WEB-INF/tags/panel.tag", "<%@ taglib prefix=\"u\" tagdir=\"/WEB-INF/tags/util\" %>\n"
+        + "<div><u:box/><jsp:doBody/></div>");
+    write("WEB-INF/tags/unused.tag", "<u:box/>");
+    write("WEB-INF/tags/util/box.tagx", "<jsp:root xmlns:jsp=\"http://java.sun.com/JSP/Page\" version=\"3.0\"/>");
+    JspCServletContext context = new JspCServletContext(new PrintWriter(new StringWriter()),
+        temporaryFolder.getRoot().toURI().toURL(), getClass().getClassLoader(), false, true);
+    TaglibUriScanner scanner = new TaglibUriScanner(context);
+
+    // When
+    scanner.scan(Arrays.asList("index.jsp"));
+
+    // Then
+    assertThat(scanner.getTagFiles()).containsOnly(
+        entry("/WEB-INF/tags/panel.tag", Collections.singleton("/WEB-INF/tags/util/box.tagx")),
+        entry("/WEB-INF/tags/util/box.tagx", Collections.emptySet()));
+  }
+
+  private void write(String path, String content) throws IOException {
+    File file = new File(temporaryFolder.getRoot(), path);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,46 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.Test;
+
+/**
+ * Test {@link ThreadCountTuner}
+ */
+public class TestThreadCountTuner {
+
+  private static final long GB = 1024L * 1024 * 1024;
+
+  @Test
+  public void should_return_number_when_threads_is_a_number() {
+    assertThat(ThreadCountTuner.getThreadCount("4", 100, 8, 4 * GB)).isEqualTo(4);
+  }
+
+  @Test
+  public void should_multiply_processors_when_threads_ends_with_C() {
+    assertThat(ThreadCountTuner.getThreadCount("1.5C", 100, 8, 4 * GB)).isEqualTo(12);
+    assertThat(ThreadCountTuner.getThreadCount("0.1C", 100, 4, 4 * GB)).isEqualTo(1);
+  }
+
+  @Test
+  public void should_use_processors_when_threads_is_auto_and_heap_is_big_enough() {
+    assertThat(ThreadCountTuner.getThreadCount("auto", 100, 8, 4 * GB)).isEqualTo(8);
+  }
+
+  @Test
+  public void should_not_use_more_threads_than_jsps_when_threads_is_auto() {
+    assertThat(ThreadCountTuner.getThreadCount("auto", 3, 64, 16 * GB)).isEqualTo(3);
+  }
+
+  @Test
+  public void should_limit_threads_to_heap_when_threads_is_auto_and_heap_is_small() {
+    assertThat(ThreadCountTuner.getThreadCount("auto", 1000, 64, GB / 2)).isEqualTo(3);
+  }
+
+  @Test
+  public void should_throw_when_threads_is_invalid() {
+    assertThatThrownBy(() -> ThreadCountTuner.getThreadCount("many", 10, 4, GB))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,35 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Test {@link WebXmlMappings}
+ */
+public class TestWebXmlMappings {
+
+  @Test
+  public void should_write_servlets_then_mappings_sorted_by_path_whatever_the_order_they_were_added() throws Exception {
+    // Given
+    WebXmlMappings mappings = new WebXmlMappings();
+    mappings.add("jsp.jsp._02_jsp", "/jsp/02.jsp");
+    mappings.add("jsp.index_jsp", "/index.jsp");
+    mappings.add("jsp.jsp._01_jsp", "/jsp/01.jsp");
+
+    // When
+    StringWriter webXml = new StringWriter();
+    mappings.writeTo(webXml);
+
+    // Then
+    String result = webXml.toString();
+    assertThat(result).startsWith("\n<!--\nAutomatically created by Apache Tomcat JspC.\n-->\n");
+    assertThat(result).containsSubsequence("<servlet-class>jsp.index_jsp</servlet-class>",
+        "<servlet-class>jsp.jsp._01_jsp</servlet-class>", "<servlet-class>jsp.jsp._02_jsp</servlet-class>",
+        "<url-pattern>/index.jsp</url-pattern>", "<url-pattern>/jsp/01.jsp</url-pattern>",
+        "<url-pattern>/jsp/02.jsp</url-pattern>");
+    assertThat(result).endsWith("End of content automatically created by Apache Tomcat JspC.\n-->\n\n");
+  }
+}
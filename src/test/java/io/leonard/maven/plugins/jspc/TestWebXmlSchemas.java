@@ -0,0 +1,63 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Test {@link WebXmlSchemas}
+ */
+public class TestWebXmlSchemas {
+
+  private static final String WEB_APP_31 = "http://xmlns.jcp.org/xml/ns/javaee/web-app_3_1.xsd";
+
+  @Test
+  public void should_compile_web_app_schema_once_without_network() throws Exception {
+    // Given
+    assertThat(WebXmlSchemas.isLocal(WEB_APP_31)).isTrue();
+
+    // When
+    Schema schema = WebXmlSchemas.getSchema(WEB_APP_31);
+
+    // Then
+    assertThat(WebXmlSchemas.isCached(WEB_APP_31)).isTrue();
+    assertThat(WebXmlSchemas.getSchema(WEB_APP_31)).isSameAs(schema);
+  }
+
+  @Test
+  public void should_reject_invalid_web_xml() throws Exception {
+    // Given
+    Schema schema = WebXmlSchemas.getSchema(WEB_APP_31);
+    String webXml = "<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"3.1\">"
+        + "<servlet><servlet-class>jsp.index_jsp</servlet-class></servlet></web-app>";
+
+    // When / Then
+    assertThatThrownBy(() -> schema.newValidator().validate(new StreamSource(new StringReader(webXml))))
+        .isInstanceOf(SAXException.class);
+  }
+
+  @Test
+  public void should_read_web_app_dtd_without_network() throws Exception {
+    // Given
+    String webXml = "<!DOCTYPE web-app PUBLIC \"-//Sun Microsystems, Inc.//DTD Web Application 2.3//EN\" "
+        + "\"http://java.sun.com/dtd/web-app_2_3.dtd\"><web-app></web-app>";
+    DocumentBuilder parser = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+
+    // When
+    parser.setEntityResolver(WebXmlSchemas.newEntityResolver());
+
+    // Then
+    assertThat(parser.parse(new InputSource(new StringReader(webXml))).getDocumentElement().getTagName())
+        .isEqualTo("web-app");
+  }
+}
@@ -0,0 +1,55 @@
+package io.leonard.maven.plugins.jspc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Test;
+
+/**
+ * Test {@link WorkerExecutors}
+ */
+public class TestWorkerExecutors {
+
+  @Test
+  public void should_create_thread_pool_when_executor_is_fixed() {
+    ExecutorService executor = WorkerExecutors.create("fixed", 2, new SystemStreamLog());
+    try {
+      assertThat(executor).isInstanceOf(ThreadPoolExecutor.class);
+      assertThat(((ThreadPoolExecutor) executor).getMaximumPoolSize()).isEqualTo(2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void should_create_fork_join_pool_when_executor_is_forkjoin() {
+    ExecutorService executor = WorkerExecutors.create("ForkJoin", 3, new SystemStreamLog());
+    try {
+      assertThat(executor).isInstanceOf(ForkJoinPool.class);
+      assertThat(((ForkJoinPool) executor).getParallelism()).isEqualTo(3);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void should_create_an_executor_whatever_the_jdk_when_executor_is_virtual() throws Exception {
+    ExecutorService executor = WorkerExecutors.create("virtual", 2, new SystemStreamLog());
+    try {
+      assertThat(executor.submit(() -> "done").get()).isEqualTo("done");
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void should_throw_when_executor_is_unknown() {
+    assertThatThrownBy(() -> WorkerExecutors.create("cached", 2, new SystemStreamLog()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -0,0 +1,121 @@
+package org.apache.jasper.compiler;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestClassBytesCache {
+
+  private static final byte[] CLASS_BYTES = { (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, 1, 2, 3 };
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void should_return_class_of_previous_build_when_source_did_not_change() throws IOException {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("class-cache.bin");
+    ClassBytesCache previousBuild = ClassBytesCache.load(file);
+    previousBuild.addSource("lib.jar", 42);
+    previousBuild.put("lib.jar", "lib.Type", CLASS_BYTES);
+    previousBuild.save(file);
+
+    // When
+    ClassBytesCache cache = ClassBytesCache.load(file);
+    cache.addSource("lib.jar", 42);
+    byte[] classBytes = cache.get("lib.jar", "lib.Type");
+
+    // Then
+    Assertions.assertThat(cache.size()).isEqualTo(1);
+    Assertions.assertThat(classBytes).isEqualTo(CLASS_BYTES);
+    Assertions.assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_drop_class_of_previous_build_when_source_changed() throws IOException {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("class-cache.bin");
+    ClassBytesCache previousBuild = ClassBytesCache.load(file);
+    previousBuild.addSource("lib.jar", 42);
+    previousBuild.put("lib.jar", "lib.Type", CLASS_BYTES);
+    previousBuild.save(file);
+
+    // When
+    ClassBytesCache cache = ClassBytesCache.load(file);
+    cache.addSource("lib.jar", 43);
+    byte[] classBytes = cache.get("lib.jar", "lib.Type");
+    cache.save(file);
+
+    // Then
+    Assertions.assertThat(classBytes).isNull();
+    Assertions.assertThat(ClassBytesCache.load(file).size()).isZero();
+  }
+
+  @Test
+  public void should_replace_file_when_cache_loaded_from_it_is_saved() throws IOException {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("class-cache.bin");
+    ClassBytesCache previousBuild = ClassBytesCache.load(file);
+    previousBuild.addSource("lib.jar", 42);
+    previousBuild.put("lib.jar", "lib.Type", CLASS_BYTES);
+    previousBuild.save(file);
+    ClassBytesCache cache = ClassBytesCache.load(file);
+    cache.addSource("lib.jar", 42);
+    cache.addSource("other.jar", 7);
+    cache.put("other.jar", "other.Type", CLASS_BYTES);
+
+    // When
+    cache.save(file);
+    byte[] classBytesAfterSave = cache.get("lib.jar", "lib.Type");
+    ClassBytesCache nextBuild = ClassBytesCache.load(file);
+    nextBuild.addSource("lib.jar", 42);
+    nextBuild.addSource("other.jar", 7);
+
+    // Then
+    Assertions.assertThat(classBytesAfterSave).isEqualTo(CLASS_BYTES);
+    Assertions.assertThat(nextBuild.size()).isEqualTo(2);
+    Assertions.assertThat(nextBuild.get("lib.jar", "lib.Type")).isEqualTo(CLASS_BYTES);
+    Assertions.assertThat(nextBuild.get("other.jar", "other.Type")).isEqualTo(CLASS_BYTES);
+  }
+
+  @Test
+  public void should_return_empty_cache_when_file_is_corrupted() throws IOException {
+    // Given
+    Path file = temporaryFolder.newFile("class-cache.bin").toPath();
+    Files.write(file, CLASS_BYTES);
+
+    // When
+    ClassBytesCache cache = ClassBytesCache.load(file);
+
+    // Then
+    Assertions.assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void should_read_classes_of_jars_from_cache_when_index_is_built_again() throws IOException {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("class-cache.bin");
+    URL junit = Test.class.getProtectionDomain().getCodeSource().getLocation();
+    ClassBytesCache previousBuild = ClassBytesCache.load(file);
+    byte[] classBytes = ClasspathIndex.build(Collections.singletonList(junit), previousBuild)
+        .getClassBytes(Test.class.getName());
+    previousBuild.save(file);
+
+    // When
+    ClassBytesCache cache = ClassBytesCache.load(file);
+    byte[] cachedClassBytes = ClasspathIndex.build(Collections.singletonList(junit), cache)
+        .getClassBytes(Test.class.getName());
+
+    // Then
+    Assertions.assertThat(previousBuild.getAddedCount()).isEqualTo(1);
+    Assertions.assertThat(cachedClassBytes).isEqualTo(classBytes);
+    Assertions.assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+}
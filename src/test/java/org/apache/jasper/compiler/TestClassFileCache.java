@@ -0,0 +1,62 @@
+package org.apache.jasper.compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.junit.Test;
+
+public class TestClassFileCache {
+
+  @Test
+  public void should_return_cached_class_file_and_count_hit_when_get_after_put() throws Exception {
+    // Given
+    ClassFileCache cache = new ClassFileCache(100);
+    ClassFileReader reader = read(String.class);
+    cache.put(String.class.getName(), reader);
+
+    // When
+    ClassFileReader cached = cache.get(String.class.getName());
+
+    // Then
+    Assertions.assertThat(cached).isSameAs(reader);
+    Assertions.assertThat(cache.getHitCount()).isEqualTo(1);
+    Assertions.assertThat(cache.getMissCount()).isZero();
+  }
+
+  @Test
+  public void should_return_null_and_count_miss_when_get_unknown_class() {
+    // Given
+    ClassFileCache cache = new ClassFileCache(100);
+
+    // When
+    ClassFileReader cached = cache.get("java.lang.Unknown");
+
+    // Then
+    Assertions.assertThat(cached).isNull();
+    Assertions.assertThat(cache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_evict_entries_when_more_classes_than_max_entries_are_put() throws Exception {
+    // Given
+    ClassFileCache cache = new ClassFileCache(16);
+    ClassFileReader reader = read(String.class);
+
+    // When
+    for (int i = 0; i < 100; i++) {
+      cache.put("java.lang.Type" + i, reader);
+    }
+
+    // Then
+    Assertions.assertThat(cache.size()).isLessThanOrEqualTo(16);
+    Assertions.assertThat(cache.getEvictionCount()).isEqualTo(100 - cache.size());
+  }
+
+  private ClassFileReader read(Class<?> type) throws IOException, Exception {
+    try (InputStream is = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+      return new ClassFileReader(is.readAllBytes(), type.getName().toCharArray(), true);
+    }
+  }
+}
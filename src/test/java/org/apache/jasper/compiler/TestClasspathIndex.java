@@ -0,0 +1,214 @@
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestClasspathIndex {
+
+  private static final ClassLoader CLASS_LOADER = TestClasspathIndex.class.getClassLoader();
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void should_answer_from_index_when_name_is_in_indexed_jar() {
+    // Given
+    ClasspathIndex index = ClasspathIndex.build(Collections.singletonList(locationOf(Test.class)));
+
+    // When
+    boolean packageIsPackage = index.isPackage("org.junit", CLASS_LOADER);
+    boolean classIsPackage = index.isPackage(Test.class.getName(), CLASS_LOADER);
+
+    // Then
+    Assertions.assertThat(packageIsPackage).isTrue();
+    Assertions.assertThat(classIsPackage).isFalse();
+    Assertions.assertThat(index.getIndexHitCount()).isEqualTo(2);
+    Assertions.assertThat(index.getProbeCount()).isZero();
+  }
+
+  @Test
+  public void should_answer_from_index_when_name_is_a_jdk_package() {
+    // Given
+    ClasspathIndex index = ClasspathIndex.build(Collections.<URL>emptyList());
+
+    // When
+    boolean isPackage = index.isPackage("java.util.concurrent", CLASS_LOADER);
+
+    // Then
+    Assertions.assertThat(isPackage).isTrue();
+    Assertions.assertThat(index.getProbeCount()).isZero();
+  }
+
+  @Test
+  public void should_probe_class_loader_only_once_when_name_is_not_indexed() {
+    // Given
+    ClasspathIndex index = ClasspathIndex.build(Collections.<URL>emptyList());
+
+    // When
+    boolean classIsPackage = index.isPackage(String.class.getName(), CLASS_LOADER);
+    index.isPackage(String.class.getName(), CLASS_LOADER);
+    boolean unknownIsPackage = index.isPackage("org.example.Unknown", CLASS_LOADER);
+    index.isPackage("org.example.Unknown", CLASS_LOADER);
+
+    // Then
+    Assertions.assertThat(classIsPackage).isFalse();
+    Assertions.assertThat(unknownIsPackage).isTrue();
+    Assertions.assertThat(index.getProbeCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_read_class_bytes_from_mapped_jar_when_class_is_indexed() throws IOException {
+    // Given
+    ClasspathIndex index = ClasspathIndex.build(Collections.singletonList(locationOf(Test.class)));
+
+    // When
+    byte[] classBytes = index.getClassBytes(Test.class.getName());
+    byte[] unknownBytes = index.getClassBytes(String.class.getName());
+
+    // Then
+    Assertions.assertThat(classBytes).isEqualTo(readClassBytes(Test.class));
+    Assertions.assertThat(unknownBytes).isNull();
+    Assertions.assertThat(index.getIndexReadCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_read_class_bytes_from_first_jar_when_jars_define_same_class() throws IOException {
+    // Given
+    byte[] firstBytes = readClassBytes(Test.class);
+    byte[] secondBytes = readClassBytes(Rule.class);
+    File first = writeJar("first.jar", firstBytes, ZipEntry.STORED);
+    File second = writeJar("second.jar", secondBytes, ZipEntry.DEFLATED);
+    ClasspathIndex index = ClasspathIndex.build(Arrays.asList(first.toURI().toURL(), second.toURI().toURL()));
+    ClasspathIndex reversedIndex = ClasspathIndex
+        .build(Arrays.asList(second.toURI().toURL(), first.toURI().toURL()));
+
+    // When
+    byte[] classBytes = index.getClassBytes("bench.Type");
+    byte[] reversedClassBytes = reversedIndex.getClassBytes("bench.Type");
+
+    // Then
+    Assertions.assertThat(classBytes).isEqualTo(firstBytes);
+    Assertions.assertThat(reversedClassBytes).isEqualTo(secondBytes);
+  }
+
+  @Test
+  public void should_leave_class_to_class_loader_when_jar_defines_class_of_jdk_package() throws IOException {
+    // Given
+    File jar = writeJar("xml-apis.jar", "javax/xml/parsers/DocumentBuilder.class", readClassBytes(Test.class),
+        ZipEntry.DEFLATED);
+    ClasspathIndex index = ClasspathIndex.build(Collections.singletonList(jar.toURI().toURL()));
+
+    // When
+    byte[] classBytes = index.getClassBytes("javax.xml.parsers.DocumentBuilder");
+
+    // Then
+    Assertions.assertThat(classBytes).isNull();
+    Assertions.assertThat(index.getIndexReadCount()).isZero();
+  }
+
+  @Test
+  public void should_remember_missing_class_when_class_is_not_indexed() {
+    // Given
+    ClasspathIndex index = ClasspathIndex.build(Collections.singletonList(locationOf(Test.class)));
+
+    // When
+    index.addMissingClass("org.example.Unknown");
+    index.addMissingClass(Test.class.getName());
+
+    // Then
+    Assertions.assertThat(index.isMissingClass("org.example.Unknown")).isTrue();
+    Assertions.assertThat(index.isMissingClass("org.example.Other")).isFalse();
+    Assertions.assertThat(index.isMissingClass(Test.class.getName())).isFalse();
+  }
+
+  @Test
+  public void should_list_class_directory_only_for_packages_looked_up() throws IOException {
+    // Given
+    byte[] classBytes = readClassBytes(Test.class);
+    File directory = temporaryFolder.newFolder("classes");
+    Files.createDirectories(directory.toPath().resolve("bench"));
+    Files.createDirectories(directory.toPath().resolve("other"));
+    Files.write(directory.toPath().resolve("bench/Type.class"), classBytes);
+    Files.write(directory.toPath().resolve("other/Unused.class"), classBytes);
+    ClasspathIndex index = ClasspathIndex.build(Collections.singletonList(directory.toURI().toURL()));
+
+    // When
+    boolean packageIsPackage = index.isPackage("bench", CLASS_LOADER);
+    boolean classIsPackage = index.isPackage("bench.Type", CLASS_LOADER);
+    byte[] indexedBytes = index.getClassBytes("bench.Type");
+
+    // Then
+    Assertions.assertThat(packageIsPackage).isTrue();
+    Assertions.assertThat(classIsPackage).isFalse();
+    Assertions.assertThat(indexedBytes).isEqualTo(classBytes);
+    Assertions.assertThat(index.getProbeCount()).isZero();
+    Assertions.assertThat(index.getClassCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_read_class_bytes_from_jar_when_jar_has_a_comment() throws IOException {
+    // Given
+    byte[] classBytes = readClassBytes(Test.class);
+    File jar = writeJar("commented.jar", classBytes, ZipEntry.DEFLATED);
+    try (OutputStream out = Files.newOutputStream(jar.toPath()); ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.setComment("built by the bench");
+      zip.putNextEntry(new ZipEntry("bench/Type.class"));
+      zip.write(classBytes);
+      zip.closeEntry();
+    }
+    ClasspathIndex index = ClasspathIndex.build(Collections.singletonList(jar.toURI().toURL()));
+
+    // When
+    byte[] indexedBytes = index.getClassBytes("bench.Type");
+
+    // Then
+    Assertions.assertThat(indexedBytes).isEqualTo(classBytes);
+    Assertions.assertThat(index.getIndexReadCount()).isEqualTo(1);
+  }
+
+  private File writeJar(String name, byte[] classBytes, int method) throws IOException {
+    return writeJar(name, "bench/Type.class", classBytes, method);
+  }
+
+  private File writeJar(String name, String entryName, byte[] classBytes, int method) throws IOException {
+    File jar = temporaryFolder.newFile(name);
+    try (OutputStream out = Files.newOutputStream(jar.toPath()); ZipOutputStream zip = new ZipOutputStream(out)) {
+      ZipEntry entry = new ZipEntry(entryName);
+      entry.setMethod(method);
+      if (method == ZipEntry.STORED) {
+        CRC32 crc = new CRC32();
+        crc.update(classBytes);
+        entry.setSize(classBytes.length);
+        entry.setCrc(crc.getValue());
+      }
+      zip.putNextEntry(entry);
+      zip.write(classBytes);
+      zip.closeEntry();
+    }
+    return jar;
+  }
+
+  private static byte[] readClassBytes(Class<?> clazz) throws IOException {
+    try (InputStream in = CLASS_LOADER.getResourceAsStream(clazz.getName().replace('.', '/') + ".class")) {
+      return in.readAllBytes();
+    }
+  }
+
+  private static URL locationOf(Class<?> clazz) {
+    return clazz.getProtectionDomain().getCodeSource().getLocation();
+  }
+}
@@ -0,0 +1,109 @@
+package org.apache.jasper.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import jakarta.servlet.jsp.tagext.TagAttributeInfo;
+
+import org.apache.tomcat.util.descriptor.tld.TagXml;
+import org.apache.tomcat.util.descriptor.tld.TaglibXml;
+import org.assertj.core.api.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestTldScanCache {
+
+  private static final String TLD_ENTRY = "META-INF/hello.tld";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void should_return_tlds_of_previous_build_when_jar_did_not_change() throws IOException {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("tld-cache.bin");
+    File jar = newJar("hello.jar", "hello");
+    File jarWithoutTld = newJar("empty.jar", null);
+    TldScanCache previousBuild = TldScanCache.load(file);
+    previousBuild.put(jar, Collections.singletonMap(TLD_ENTRY, newTaglib()));
+    previousBuild.put(jarWithoutTld, Collections.emptyMap());
+    previousBuild.save(file);
+
+    // When
+    TldScanCache cache = TldScanCache.load(file);
+    Map<String, TaglibXml> tlds = cache.get(jar);
+
+    // Then
+    Assertions.assertThat(cache.get(jarWithoutTld)).isEmpty();
+    Assertions.assertThat(tlds).containsOnlyKeys(TLD_ENTRY);
+    TaglibXml taglib = tlds.get(TLD_ENTRY);
+    Assertions.assertThat(taglib.getUri()).isEqualTo("http://example.com/hello");
+    Assertions.assertThat(taglib.getInfo()).isNull();
+    Assertions.assertThat(taglib.getTags()).hasSize(1);
+    TagXml tag = taglib.getTags().get(0);
+    Assertions.assertThat(tag.getTagClass()).isEqualTo("com.example.HelloTag");
+    Assertions.assertThat(tag.getAttributes()).extracting(TagAttributeInfo::getName, TagAttributeInfo::isRequired)
+        .containsExactly(Assertions.tuple("name", true));
+    Assertions.assertThat(taglib.getFunctions()).extracting(f -> f.getFunctionSignature())
+        .containsExactly("java.lang.String greet(java.lang.String)");
+    Assertions.assertThat(cache.getHitCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_scan_jar_again_when_it_changed() throws IOException {
+    // Given
+    Path file = temporaryFolder.getRoot().toPath().resolve("tld-cache.bin");
+    File jar = newJar("hello.jar", "hello");
+    TldScanCache previousBuild = TldScanCache.load(file);
+    previousBuild.put(jar, Collections.singletonMap(TLD_ENTRY, newTaglib()));
+    previousBuild.save(file);
+    long lastModified = jar.lastModified();
+    newJar("hello.jar", "hallo");
+    jar.setLastModified(lastModified);
+
+    // When
+    TldScanCache cache = TldScanCache.load(file);
+    Map<String, TaglibXml> tlds = cache.get(jar);
+    cache.save(file);
+
+    // Then
+    Assertions.assertThat(tlds).isNull();
+    Assertions.assertThat(cache.getMissCount()).isEqualTo(1);
+    Assertions.assertThat(TldScanCache.load(file).size()).isZero();
+  }
+
+  private File newJar(String name, String content) throws IOException {
+    File jar = new File(temporaryFolder.getRoot(), name);
+    try (OutputStream out = Files.newOutputStream(jar.toPath()); ZipOutputStream zip = new ZipOutputStream(out)) {
+      if (content != null) {
+        zip.putNextEntry(new ZipEntry(TLD_ENTRY));
+        zip.write(content.getBytes());
+        zip.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static TaglibXml newTaglib() {
+    TaglibXml taglib = new TaglibXml();
+    taglib.setTlibVersion("1.0");
+    taglib.setShortName("hello");
+    taglib.setUri("http://example.com/hello");
+    TagXml tag = new TagXml();
+    tag.setName("hello");
+    tag.setTagClass("com.example.HelloTag");
+    tag.getAttributes().add(new TagAttributeInfo("name", true, "java.lang.String", true, false, null, false, false,
+        null, null));
+    taglib.addTag(tag);
+    taglib.addFunction("greet", "com.example.Functions", "java.lang.String greet(java.lang.String)");
+    return taglib;
+  }
+}
@@ -0,0 +1,6 @@
+<html>
+  <body>
+    <% int count = 01; %>
+    <%= count %>
+  </body>
+</html>
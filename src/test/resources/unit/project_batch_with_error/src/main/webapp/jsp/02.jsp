@@ -0,0 +1,7 @@
+<html>
+  <body>
+    <p>Before the error</p>
+    <% int count = "two"; %>
+    <%= count %>
+  </body>
+</html>
@@ -0,0 +1,6 @@
+<html>
+  <body>
+    <% int count = 03; %>
+    <%= count %>
+  </body>
+</html>
@@ -0,0 +1,7 @@
+<%@ taglib prefix="t" tagdir="/WEB-INF/tags" %>
+<%@ include file="header.jspf" %>
+<html>
+  <body>
+    <t:hello name="index"/>
+  </body>
+</html>
@@ -0,0 +1,6 @@
+<%@ include file="header.jspf" %>
+<html>
+  <body>
+    Index
+  </body>
+</html>
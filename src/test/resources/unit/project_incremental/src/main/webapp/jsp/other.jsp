@@ -0,0 +1,5 @@
+<html>
+  <body>
+    Other
+  </body>
+</html>
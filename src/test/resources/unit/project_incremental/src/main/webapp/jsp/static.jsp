@@ -0,0 +1,8 @@
+<%!
+  static {
+    System.setProperty("jspc.test.static.initialized", "true");
+  }
+%>
+<html>
+  <body>Static initializer</body>
+</html>
@@ -0,0 +1,6 @@
+<%@ taglib prefix="t" tagdir="/WEB-INF/tags" %>
+<html>
+  <body>
+    <t:panel title="02">02</t:panel>
+  </body>
+</html>
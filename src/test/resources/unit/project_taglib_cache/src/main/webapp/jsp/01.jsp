@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    01: ${m:max(01, 4)}
+  </body>
+</html>
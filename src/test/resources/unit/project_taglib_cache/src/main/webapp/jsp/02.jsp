@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    02: ${m:max(02, 4)}
+  </body>
+</html>
@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    03: ${m:max(03, 4)}
+  </body>
+</html>
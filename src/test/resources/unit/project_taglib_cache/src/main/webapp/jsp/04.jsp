@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    04: ${m:max(04, 4)}
+  </body>
+</html>
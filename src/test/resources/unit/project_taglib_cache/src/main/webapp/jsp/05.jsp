@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    05: ${m:max(05, 4)}
+  </body>
+</html>
@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    06: ${m:max(06, 4)}
+  </body>
+</html>
@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    07: ${m:max(07, 4)}
+  </body>
+</html>
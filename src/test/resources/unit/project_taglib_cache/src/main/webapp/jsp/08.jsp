@@ -0,0 +1,6 @@
+<%@ taglib prefix="m" uri="http://example.com/math" %>
+<html>
+  <body>
+    08: ${m:max(08, 4)}
+  </body>
+</html>